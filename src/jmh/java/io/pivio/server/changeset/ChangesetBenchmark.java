@@ -0,0 +1,100 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.fixtures.CatalogGenerator;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+
+@State(Scope.Benchmark)
+public class ChangesetBenchmark {
+
+    @Param({"10", "100", "800"})
+    public int softwareDependencies;
+
+    // the most changesets a reconstruction replays, see pivio.history.snapshot-interval
+    @Param({"20"})
+    public int snapshotInterval;
+
+    private ObjectMapper mapper;
+    private ChangesetService changesetService;
+    private ChangesetService filteringChangesetService;
+    private Optional<JsonNode> stored;
+    private JsonNode upload;
+    private Changeset changeset;
+    private DateTime timestamp;
+    private DocumentHistory documentHistory;
+    private JsonNode snapshot;
+    private List<JsonNode> storedChangesets;
+
+    @Setup
+    public void setUp() {
+        mapper = new ObjectMapper().registerModule(new SimpleModule().addSerializer(Changeset.class, new ChangesetJsonSerializer()));
+        changesetService = new ChangesetService(mapper, new FilteringJsonDiff(mapper, new String[0], new String[0]));
+        filteringChangesetService = new ChangesetService(mapper,
+                new FilteringJsonDiff(mapper, new String[0], new String[]{"/software_dependencies/**", "/links/*"}));
+        CatalogGenerator generator = new CatalogGenerator(mapper, 42);
+        ObjectNode document = generator.document(1, 3 + softwareDependencies / 20, softwareDependencies);
+        stored = Optional.of(document);
+        Random random = new Random(2);
+        for (int i = 0; i < 5; i++) {
+            document = generator.nextUpload(document, random);
+        }
+        upload = document;
+        timestamp = DateTime.now();
+        changeset = changesetService.computeNext(upload, stored, 41, timestamp);
+
+        documentHistory = new DocumentHistory(null, mapper, snapshotInterval);
+        snapshot = stored.get();
+        storedChangesets = new ArrayList<>();
+        ObjectNode previous = (ObjectNode) snapshot;
+        for (int order = 1; order <= snapshotInterval; order++) {
+            ObjectNode next = generator.nextUpload(previous, random);
+            storedChangesets.add(stored(changesetService.computeNext(next, Optional.<JsonNode>of(previous), order - 1, timestamp)));
+            previous = next;
+        }
+    }
+
+    // as written by the changeset stores, with the typed patch next to the stringified fields
+    private JsonNode stored(Changeset changeset) {
+        ObjectNode source = mapper.valueToTree(changeset);
+        source.set("patch", changeset.getFields());
+        return source;
+    }
+
+    @Benchmark
+    public Changeset computeNext() {
+        return changesetService.computeNext(upload, stored, 41, timestamp);
+    }
+
+    @Benchmark
+    public Changeset computeNextWithExcludes() {
+        return filteringChangesetService.computeNext(upload, stored, 41, timestamp);
+    }
+
+    @Benchmark
+    public Changeset computeFirst() {
+        return changesetService.computeNext(upload, Optional.empty(), 0, timestamp);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws Exception {
+        return mapper.writeValueAsBytes(changeset);
+    }
+
+    @Benchmark
+    public JsonNode reconstruct() {
+        return documentHistory.replay(snapshot, storedChangesets);
+    }
+}
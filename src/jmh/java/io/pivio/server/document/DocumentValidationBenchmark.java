@@ -0,0 +1,50 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.fixtures.CatalogGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Checks applied by {@link DocumentController} to every upload before it is ingested.
+ */
+@State(Scope.Benchmark)
+public class DocumentValidationBenchmark {
+
+    @Param({"10", "100", "800"})
+    public int softwareDependencies;
+
+    private DocumentController documentController;
+    private ObjectNode upload;
+    private ObjectNode document;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper mapper = new ObjectMapper();
+        // only the validation is benchmarked, it does not use the stores
+        documentController = new DocumentController(null, null, null, null, null, mapper, null);
+        upload = new CatalogGenerator(mapper, 42).document(1, 3 + softwareDependencies / 20, softwareDependencies);
+    }
+
+    @Setup(Level.Invocation)
+    public void copyUpload() {
+        // null nodes are removed in place
+        document = upload.deepCopy();
+    }
+
+    @Benchmark
+    public JsonNode removeNullNodes() {
+        return DocumentController.removeNullNodes(document);
+    }
+
+    @Benchmark
+    public boolean validateMandatoryFields() {
+        return documentController.isIdMissingOrEmpty(document) || documentController.isMandatoryFieldMissingOrEmpty(document);
+    }
+}
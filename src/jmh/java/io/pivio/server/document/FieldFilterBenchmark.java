@@ -0,0 +1,44 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.fixtures.CatalogGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class FieldFilterBenchmark {
+
+    @Param({"10", "100", "800"})
+    public int softwareDependencies;
+
+    private FieldFilter fieldFilter;
+    private JsonNode document;
+    private List<String> topLevelFields;
+    private List<String> nestedFields;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper mapper = new ObjectMapper();
+        fieldFilter = new FieldFilter(mapper);
+        document = new CatalogGenerator(mapper, 42).document(1, 3 + softwareDependencies / 20, softwareDependencies);
+        topLevelFields = Arrays.asList("id", "name", "owner", "software_dependencies");
+        nestedFields = Arrays.asList("id", "name", "links.homepage", "service.provides");
+    }
+
+    @Benchmark
+    public JsonNode filterTopLevelFields() {
+        return fieldFilter.filterFields(document, topLevelFields);
+    }
+
+    @Benchmark
+    public JsonNode filterNestedFields() {
+        return fieldFilter.filterFields(document, nestedFields);
+    }
+}
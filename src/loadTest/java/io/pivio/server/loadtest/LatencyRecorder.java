@@ -0,0 +1,53 @@
+package io.pivio.server.loadtest;
+
+import java.util.Arrays;
+
+/**
+ * Latencies and errors of one operation, recorded by a single worker thread and merged after the run.
+ */
+class LatencyRecorder {
+
+    private long[] micros = new long[1024];
+    private int count;
+    private long errors;
+
+    void record(long latencyMicros) {
+        if (count == micros.length) {
+            micros = Arrays.copyOf(micros, count * 2);
+        }
+        micros[count++] = latencyMicros;
+    }
+
+    void recordError() {
+        errors++;
+    }
+
+    void addAll(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++) {
+            record(other.micros[i]);
+        }
+        errors += other.errors;
+    }
+
+    long count() {
+        return count;
+    }
+
+    long errors() {
+        return errors;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return latency in milliseconds, 0 if nothing has been recorded
+     */
+    double percentileMillis(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long[] sorted = Arrays.copyOf(micros, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))] / 1000.0;
+    }
+}
@@ -0,0 +1,311 @@
+package io.pivio.server.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.AppLauncher;
+import io.pivio.server.fixtures.CatalogGenerator;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drives the REST API with a reproducible mix of uploads, gets, searches, changeset queries and deletes on a catalog
+ * generated by {@link CatalogGenerator}, and reports throughput, latency percentiles per operation and heap and GC
+ * figures of the server. Fails with exit code 1 if one of the configured thresholds is exceeded.
+ * <p>
+ * Runs against {@code loadtest.target} if given, otherwise starts the server in-process with the store
+ * {@code loadtest.store} ({@code memory} by default, so it works offline). All settings are system properties, see
+ * {@code ./gradlew loadTest} in the README.
+ */
+public class LoadTest {
+
+    private static final String[] SEARCH_QUERIES = {
+            "{\"match\":{\"owner\":\"Team %d\"}}",
+            "{\"term\":{\"lifecycle\":\"production\"}}",
+            "{\"bool\":{\"must\":[{\"match\":{\"owner\":\"Team %d\"}},{\"exists\":{\"field\":\"software_dependencies\"}}]}}",
+            "{\"match_all\":{}}"};
+    private static final String[] SEARCH_FIELDS = {"id,name,owner", "id,name,software_dependencies", "id,service.provides"};
+    private static final String[] SEARCH_SORTS = {"name:asc", "lastUpdate:desc", "id:asc"};
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final Map<String, String> settings;
+    private final CatalogGenerator catalog;
+    private final Map<Operation, Integer> mix;
+    private final Map<Integer, ObjectNode> uploaded = new ConcurrentHashMap<>();
+    private final long seed;
+    private final int threads;
+    private String target;
+
+    LoadTest(Map<String, String> settings) {
+        this.settings = settings;
+        this.seed = Long.parseLong(setting("seed", "42"));
+        this.threads = Integer.parseInt(setting("threads", "8"));
+        this.catalog = new CatalogGenerator(mapper, seed)
+                .documents(Integer.parseInt(setting("documents", "500")))
+                .skew(Double.parseDouble(setting("skew", "1.1")));
+        this.mix = parseMix(setting("mix", "upload=20,get=35,search=25,changesets=15,delete=5"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> settings = new LinkedHashMap<>();
+        System.getProperties().stringPropertyNames().stream()
+                .filter(name -> name.startsWith("loadtest."))
+                .forEach(name -> settings.put(name.substring("loadtest.".length()), System.getProperty(name)));
+        boolean passed = new LoadTest(settings).run();
+        System.exit(passed ? 0 : 1);
+    }
+
+    boolean run() throws Exception {
+        ConfigurableApplicationContext server = null;
+        target = settings.get("target");
+        if (target == null) {
+            server = SpringApplication.run(AppLauncher.class, "--server.port=0",
+                    "--pivio.store=" + setting("store", "memory"),
+                    "--management.health.elasticsearch.enabled=false",
+                    "--spring.main.banner-mode=off");
+            target = "http://localhost:" + server.getEnvironment().getProperty("local.server.port");
+        }
+        try {
+            System.out.printf("Uploading %d documents to %s%n", catalog.getDocuments(), target);
+            preload();
+            runFor(Duration.ofSeconds(Long.parseLong(setting("warmup", "10"))), false);
+
+            ServerMetrics before = ServerMetrics.read(client, mapper, target);
+            long started = System.nanoTime();
+            Result result = runFor(Duration.ofSeconds(Long.parseLong(setting("duration", "60"))), true);
+            double seconds = (System.nanoTime() - started) / 1e9;
+            ServerMetrics after = ServerMetrics.read(client, mapper, target);
+
+            return report(result, seconds, before, after);
+        }
+        finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private void preload() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> uploads = new ArrayList<>();
+        for (int i = 0; i < catalog.getDocuments(); i++) {
+            int index = i;
+            uploads.add(executor.submit(() -> {
+                ObjectNode document = catalog.document(index);
+                send(HttpRequest.newBuilder(uri("/document"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(document))));
+                uploaded.put(index, document);
+                return null;
+            }));
+        }
+        for (Future<?> upload : uploads) {
+            upload.get();
+        }
+        executor.shutdown();
+    }
+
+    private Result runFor(Duration duration, boolean measured) throws Exception {
+        long deadline = System.nanoTime() + duration.toNanos();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            // measured runs use other random sequences than the warm up, but the same ones on every run
+            Random random = new Random(seed * 31 + i + (measured ? threads : 0));
+            workers.add(executor.submit(() -> work(random, deadline)));
+        }
+        Result result = new Result();
+        for (Future<Result> worker : workers) {
+            result.addAll(worker.get());
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+        return result;
+    }
+
+    private Result work(Random random, long deadline) {
+        Result result = new Result();
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+        while (System.nanoTime() < deadline) {
+            Operation operation = pick(random.nextInt(totalWeight));
+            int index = random.nextInt(catalog.getDocuments());
+            long started = System.nanoTime();
+            try {
+                int status = execute(operation, index, random);
+                boolean ok = status / 100 == 2 || (status == 404 && operation != Operation.UPLOAD && operation != Operation.SEARCH);
+                if (ok) {
+                    result.of(operation).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - started));
+                }
+                else {
+                    result.of(operation).recordError();
+                }
+            }
+            catch (Exception e) {
+                result.of(operation).recordError();
+            }
+        }
+        return result;
+    }
+
+    private int execute(Operation operation, int index, Random random) throws Exception {
+        String id = CatalogGenerator.id(index);
+        switch (operation) {
+            case UPLOAD:
+                ObjectNode next = uploaded.compute(index, (key, previous) ->
+                        previous == null ? catalog.document(index) : catalog.nextUpload(previous, random));
+                return send(HttpRequest.newBuilder(uri("/document"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(mapper.writeValueAsBytes(next))));
+            case GET:
+                return send(HttpRequest.newBuilder(uri("/document/" + id)).GET());
+            case SEARCH:
+                String query = String.format(SEARCH_QUERIES[random.nextInt(SEARCH_QUERIES.length)], random.nextInt(25));
+                return send(HttpRequest.newBuilder(uri("/document?query=" + encode(query)
+                        + "&fields=" + encode(SEARCH_FIELDS[random.nextInt(SEARCH_FIELDS.length)])
+                        + "&sort=" + encode(SEARCH_SORTS[random.nextInt(SEARCH_SORTS.length)]))).GET());
+            case CHANGESETS:
+                return send(HttpRequest.newBuilder(uri("/document/" + id + "/changeset")).GET());
+            case DELETE:
+                uploaded.remove(index);
+                return send(HttpRequest.newBuilder(uri("/document/" + id)).DELETE());
+            default:
+                throw new IllegalStateException("unknown operation " + operation);
+        }
+    }
+
+    private int send(HttpRequest.Builder request) throws Exception {
+        HttpResponse<Void> response = client.send(request.timeout(Duration.ofSeconds(30)).build(), HttpResponse.BodyHandlers.discarding());
+        return response.statusCode();
+    }
+
+    private boolean report(Result result, double seconds, ServerMetrics before, ServerMetrics after) throws Exception {
+        List<String> violations = new ArrayList<>();
+        ObjectNode report = mapper.createObjectNode();
+        report.set("settings", mapper.valueToTree(settings));
+        ObjectNode operations = report.putObject("operations");
+
+        System.out.printf("%n%-11s %9s %9s %8s %8s %8s %8s %8s%n", "operation", "requests", "req/s", "errors", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        LatencyRecorder all = new LatencyRecorder();
+        for (Map.Entry<Operation, LatencyRecorder> entry : result.recorders.entrySet()) {
+            LatencyRecorder recorder = entry.getValue();
+            all.addAll(recorder);
+            print(entry.getKey().key, recorder, seconds, operations);
+            String maxP99 = settings.getOrDefault("max-p99." + entry.getKey().key, settings.get("max-p99"));
+            if (maxP99 != null && recorder.percentileMillis(99) > Double.parseDouble(maxP99)) {
+                violations.add(String.format("p99 of %s is %.1f ms, more than %s ms", entry.getKey().key, recorder.percentileMillis(99), maxP99));
+            }
+        }
+        print("total", all, seconds, operations);
+
+        double throughput = (all.count() + all.errors()) / seconds;
+        double errorRate = all.errors() / Math.max(1.0, all.count() + all.errors());
+        System.out.printf("%nserver: heap used %d KB -> %d KB, %d GCs taking %d ms%n", before.heapUsedKb, after.heapUsedKb,
+                after.gcCount - before.gcCount, after.gcMillis - before.gcMillis);
+        report.putObject("server")
+                .put("heapUsedKbBefore", before.heapUsedKb)
+                .put("heapUsedKbAfter", after.heapUsedKb)
+                .put("gcCount", after.gcCount - before.gcCount)
+                .put("gcMillis", after.gcMillis - before.gcMillis);
+
+        double maxErrorRate = Double.parseDouble(setting("max-error-rate", "0.01"));
+        if (errorRate > maxErrorRate) {
+            violations.add(String.format("error rate is %.4f, more than %s", errorRate, maxErrorRate));
+        }
+        double minThroughput = Double.parseDouble(setting("min-throughput", "0"));
+        if (throughput < minThroughput) {
+            violations.add(String.format("throughput is %.1f req/s, less than %s", throughput, minThroughput));
+        }
+        report.set("violations", mapper.valueToTree(violations));
+
+        Path reportFile = Paths.get(setting("report", "build/reports/loadtest/result.json"));
+        Files.createDirectories(reportFile.toAbsolutePath().getParent());
+        mapper.writerWithDefaultPrettyPrinter().writeValue(reportFile.toFile(), report);
+        System.out.println("Report written to " + reportFile);
+
+        violations.forEach(violation -> System.out.println("FAILED: " + violation));
+        return violations.isEmpty();
+    }
+
+    private void print(String name, LatencyRecorder recorder, double seconds, ObjectNode operations) {
+        System.out.printf("%-11s %9d %9.1f %8d %8.1f %8.1f %8.1f %8.1f%n", name, recorder.count(), recorder.count() / seconds,
+                recorder.errors(), recorder.percentileMillis(50), recorder.percentileMillis(95),
+                recorder.percentileMillis(99), recorder.percentileMillis(100));
+        operations.putObject(name)
+                .put("requests", recorder.count())
+                .put("throughput", recorder.count() / seconds)
+                .put("errors", recorder.errors())
+                .put("p50", recorder.percentileMillis(50))
+                .put("p95", recorder.percentileMillis(95))
+                .put("p99", recorder.percentileMillis(99))
+                .put("max", recorder.percentileMillis(100));
+    }
+
+    private Operation pick(int weight) {
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            weight -= entry.getValue();
+            if (weight < 0) {
+                return entry.getKey();
+            }
+        }
+        throw new IllegalStateException("weight exceeds mix");
+    }
+
+    private static Map<Operation, Integer> parseMix(String mix) {
+        Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            String[] weight = part.trim().split("=");
+            weights.put(Operation.of(weight[0]), Integer.parseInt(weight[1]));
+        }
+        return weights;
+    }
+
+    private String setting(String name, String defaultValue) {
+        return settings.getOrDefault(name, defaultValue);
+    }
+
+    private URI uri(String path) {
+        return URI.create(target + path);
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private static final class Result {
+
+        private final Map<Operation, LatencyRecorder> recorders = new EnumMap<>(Operation.class);
+
+        private LatencyRecorder of(Operation operation) {
+            return recorders.computeIfAbsent(operation, key -> new LatencyRecorder());
+        }
+
+        private void addAll(Result other) {
+            other.recorders.forEach((operation, recorder) -> of(operation).addAll(recorder));
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package io.pivio.server.loadtest;
+
+/**
+ * Requests the load test issues, picked at random according to the configured mix.
+ */
+enum Operation {
+
+    UPLOAD("upload"),
+    GET("get"),
+    SEARCH("search"),
+    CHANGESETS("changesets"),
+    DELETE("delete");
+
+    final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    static Operation of(String key) {
+        for (Operation operation : values()) {
+            if (operation.key.equals(key)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("unknown operation " + key);
+    }
+}
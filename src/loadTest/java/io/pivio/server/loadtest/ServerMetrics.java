@@ -0,0 +1,45 @@
+package io.pivio.server.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Heap and garbage collection figures of the server, read from its {@code /metrics} endpoint.
+ */
+class ServerMetrics {
+
+    final long heapUsedKb;
+    final long gcCount;
+    final long gcMillis;
+
+    private ServerMetrics(long heapUsedKb, long gcCount, long gcMillis) {
+        this.heapUsedKb = heapUsedKb;
+        this.gcCount = gcCount;
+        this.gcMillis = gcMillis;
+    }
+
+    static ServerMetrics read(HttpClient client, ObjectMapper mapper, String target) throws Exception {
+        HttpResponse<byte[]> response = client.send(HttpRequest.newBuilder(URI.create(target + "/metrics")).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        JsonNode metrics = mapper.readTree(response.body());
+        long gcCount = 0;
+        long gcMillis = 0;
+        for (Iterator<Map.Entry<String, JsonNode>> fields = metrics.fields(); fields.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if (field.getKey().startsWith("gc.") && field.getKey().endsWith(".count")) {
+                gcCount += field.getValue().asLong();
+            }
+            else if (field.getKey().startsWith("gc.") && field.getKey().endsWith(".time")) {
+                gcMillis += field.getValue().asLong();
+            }
+        }
+        return new ServerMetrics(metrics.path("heap.used").asLong(), gcCount, gcMillis);
+    }
+}
@@ -0,0 +1,57 @@
+package io.pivio.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+import java.util.List;
+
+/**
+ * Lets clients send and receive documents, search results and changesets as Smile ({@value #SMILE_VALUE}) or CBOR
+ * ({@value #CBOR_VALUE}) instead of JSON, chosen by the {@code Content-Type} and {@code Accept} headers. Both are
+ * binary encodings of the same Jackson model, so they are smaller and cheaper to parse than JSON for bulk clients.
+ * <p>
+ * The converters are added after the default ones, so JSON is still produced if a client accepts any media type. Their
+ * object mappers get the same {@code spring.jackson.*} configuration as the JSON one.
+ */
+@Configuration
+public class BinaryJsonConfiguration extends WebMvcConfigurerAdapter {
+
+    public static final String SMILE_VALUE = "application/x-jackson-smile";
+    public static final String CBOR_VALUE = "application/cbor";
+
+    private final List<Jackson2ObjectMapperBuilderCustomizer> customizers;
+
+    public BinaryJsonConfiguration(List<Jackson2ObjectMapperBuilderCustomizer> customizers) {
+        this.customizers = customizers;
+    }
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(new MappingJackson2SmileHttpMessageConverter(objectMapper(new Jackson2ObjectMapperBuilder().factory(new SmileFactory()))));
+        converters.add(new CborHttpMessageConverter(objectMapper(new Jackson2ObjectMapperBuilder().factory(new CBORFactory()))));
+    }
+
+    private ObjectMapper objectMapper(Jackson2ObjectMapperBuilder builder) {
+        customizers.forEach(customizer -> customizer.customize(builder));
+        return builder.build();
+    }
+
+    /**
+     * Spring only ships a CBOR converter from version 5 on.
+     */
+    private static final class CborHttpMessageConverter extends AbstractJackson2HttpMessageConverter {
+
+        private CborHttpMessageConverter(ObjectMapper objectMapper) {
+            super(objectMapper, MediaType.valueOf(CBOR_VALUE));
+        }
+    }
+}
@@ -1,17 +1,51 @@
 package io.pivio.server;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.ChangesetIndexMigration;
+import io.pivio.server.changeset.DocumentSnapshot;
 import io.pivio.server.document.PivioDocument;
+import io.pivio.server.elasticsearch.DocumentIndexReindexer;
 import io.pivio.server.elasticsearch.ElasticsearchConnectionAvailableChecker;
+import io.pivio.server.elasticsearch.ElasticsearchIndicesHealthIndicator;
+import io.pivio.server.store.StoreUnavailableException;
+import org.elasticsearch.ElasticsearchException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.ApplicationListener;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.data.elasticsearch.annotations.Mapping;
 import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.data.elasticsearch.core.mapping.ElasticsearchPersistentEntity;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static io.pivio.server.elasticsearch.ElasticsearchIndicesHealthIndicator.State.*;
+
+/**
+ * Sets up the Elasticsearch indices in the background, so the application starts right away even if Elasticsearch is
+ * not reachable yet. Until the setup has finished, {@link ElasticsearchIndicesHealthIndicator} reports the instance as
+ * out of service. Indices that already exist and mappings that already contain the expected ones are left alone, so
+ * restarts do not touch Elasticsearch at all. Documents are stored in a versioned index behind an alias, see
+ * {@link DocumentIndexReindexer}.
+ */
 @Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
 @Profile("production")
 public class CreateIndexOnStartupListener implements ApplicationListener<ContextRefreshedEvent> {
 
@@ -19,32 +53,203 @@ public class CreateIndexOnStartupListener implements ApplicationListener<Context
 
     private final ElasticsearchTemplate elasticsearchTemplate;
     private final ElasticsearchConnectionAvailableChecker elasticsearchConnectionAvailableChecker;
+    private final ChangesetIndexMigration changesetIndexMigration;
+    private final ElasticsearchIndicesHealthIndicator indicesHealthIndicator;
+    private final DocumentIndexReindexer documentIndexReindexer;
+    private final ObjectMapper mapper;
+
+    private final AtomicBoolean started = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "elasticsearch-index-setup");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public CreateIndexOnStartupListener(ElasticsearchTemplate elasticsearchTemplate, ElasticsearchConnectionAvailableChecker elasticsearchConnectionAvailableChecker) {
+    public CreateIndexOnStartupListener(ElasticsearchTemplate elasticsearchTemplate, ElasticsearchConnectionAvailableChecker elasticsearchConnectionAvailableChecker,
+                                        ChangesetIndexMigration changesetIndexMigration, ElasticsearchIndicesHealthIndicator indicesHealthIndicator,
+                                        DocumentIndexReindexer documentIndexReindexer, ObjectMapper mapper) {
         this.elasticsearchTemplate = elasticsearchTemplate;
         this.elasticsearchConnectionAvailableChecker = elasticsearchConnectionAvailableChecker;
+        this.changesetIndexMigration = changesetIndexMigration;
+        this.indicesHealthIndicator = indicesHealthIndicator;
+        this.documentIndexReindexer = documentIndexReindexer;
+        this.mapper = mapper;
+        // set before the web server accepts requests, which would otherwise run against indices not set up yet
+        indicesHealthIndicator.setState(WAITING_FOR_ELASTICSEARCH);
     }
 
     @Override
     public void onApplicationEvent(ContextRefreshedEvent event) {
-        if (!elasticsearchConnectionAvailableChecker.isConnectionToElasticsearchAvailable()) {
-            throw createAndLogIllegalStateException("cannot create Elasticsearch indices and mappings for PivioDocument and Changeset as no connection to Elasticsearch is available");
+        if (started.compareAndSet(false, true)) {
+            executor.execute(this::setUpIndices);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Failures Elasticsearch may recover from, like timeouts or a master election, are retried after 1, 2, 4, ...
+     * seconds but at least every 30 seconds, as when waiting for the connection. The setup is only given up on other
+     * failures, e.g. a mapping Elasticsearch rejects.
+     */
+    private void setUpIndices() {
+        for (int numberOfTriesFailed = 0; ; numberOfTriesFailed++) {
+            if (!elasticsearchConnectionAvailableChecker.awaitConnectionToElasticsearch()) {
+                log.info("Stopped waiting for Elasticsearch, indices have not been set up");
+                return;
+            }
+
+            indicesHealthIndicator.setState(SETTING_UP_INDICES);
+            try {
+                log.info("Setting up index for documents");
+                setUpDocumentIndex();
+
+                log.info("Setting up index for changesets");
+                changesetIndexMigration.migrateIfNecessary();
+                setUpIndex(Changeset.class);
+
+                log.info("Setting up index for document snapshots");
+                setUpIndex(DocumentSnapshot.class);
+
+                indicesHealthIndicator.setState(READY);
+                log.info("Elasticsearch indices are ready");
+                return;
+            }
+            catch (Exception e) {
+                if (!isTransient(e)) {
+                    log.error("Could not set up Elasticsearch indices for PivioDocument, Changeset and DocumentSnapshot", e);
+                    indicesHealthIndicator.setFailed(e.getMessage());
+                    return;
+                }
+                int secondsToWait = ElasticsearchConnectionAvailableChecker.backoffSeconds(numberOfTriesFailed);
+                log.warn("Could not set up Elasticsearch indices, retrying in {}s", secondsToWait, e);
+                try {
+                    TimeUnit.SECONDS.sleep(secondsToWait);
+                }
+                catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    log.info("Stopped setting up Elasticsearch indices");
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean isTransient(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof StoreUnavailableException
+                    || cause instanceof ElasticsearchException && ((ElasticsearchException) cause).status().getStatus() >= 500) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Documents stay available with the previous mapping if the current one cannot be applied to the existing index,
+     * until they are reindexed (see {@link DocumentIndexReindexer}).
+     */
+    private void setUpDocumentIndex() throws IOException {
+        documentIndexReindexer.createIndexIfMissing();
+        try {
+            setUpIndex(PivioDocument.class);
         }
+        catch (RuntimeException e) {
+            log.warn("Could not update the mapping of the documents index, reindex the documents with POST /admin/reindex (pivio.reindex.api.enabled=true) to apply it", e);
+        }
+    }
+
+    private void setUpIndex(Class<?> entity) throws IOException {
+        if (!elasticsearchTemplate.indexExists(entity)) {
+            elasticsearchTemplate.createIndex(entity);
+        }
+        if (isMappingUpToDate(entity)) {
+            log.debug("Mapping of {} is up to date", entity.getSimpleName());
+        }
+        else {
+            elasticsearchTemplate.putMapping(entity);
+        }
+    }
+
+    /**
+     * Elasticsearch adds fields to the mapping of an index as documents introduce them, so the mapping is up to date
+     * if it contains everything of the expected mapping. The index name may be an alias, so the mapping is looked up
+     * by type in the response instead of by index name.
+     */
+    private boolean isMappingUpToDate(Class<?> entity) throws IOException {
+        ElasticsearchPersistentEntity<?> persistentEntity = elasticsearchTemplate.getPersistentEntityFor(entity);
+        Map<?, ?> expected = mapper.readValue(
+                ElasticsearchTemplate.readFileFromClasspath(entity.getAnnotation(Mapping.class).mappingPath()), Map.class);
+        ImmutableOpenMap<String, ImmutableOpenMap<String, MappingMetaData>> mappings = elasticsearchTemplate.getClient().admin().indices()
+                .prepareGetMappings(persistentEntity.getIndexName())
+                .setTypes(persistentEntity.getIndexType())
+                .get()
+                .getMappings();
+        for (Iterator<ImmutableOpenMap<String, MappingMetaData>> indices = mappings.valuesIt(); indices.hasNext(); ) {
+            MappingMetaData actual = indices.next().get(persistentEntity.getIndexType());
+            if (actual == null || !isMappingUpToDate(actual.sourceAsMap(), (Map<?, ?>) expected.get(persistentEntity.getIndexType()))) {
+                return false;
+            }
+        }
+        return !mappings.isEmpty();
+    }
 
-        log.info("Creating index for documents");
-        elasticsearchTemplate.createIndex(PivioDocument.class);
-        elasticsearchTemplate.putMapping(PivioDocument.class);
-        elasticsearchTemplate.refresh(PivioDocument.class);
+    static boolean isMappingUpToDate(Map<?, ?> actual, Map<?, ?> expected) {
+        return contains(actual, withoutDefaults(expected));
+    }
 
-        log.info("Creating index for changesets");
-        elasticsearchTemplate.createIndex(Changeset.class);
-        elasticsearchTemplate.putMapping(Changeset.class);
-        elasticsearchTemplate.refresh(Changeset.class);
+    /**
+     * Elasticsearch 2.x leaves options set to their default value out of the mappings it returns, so they have to be
+     * left out of the expected mapping as well.
+     */
+    private static Map<?, ?> withoutDefaults(Map<?, ?> mapping) {
+        Map<Object, Object> result = new LinkedHashMap<>(mapping);
+        Object type = mapping.get("type");
+        Object index = mapping.get("index");
+        boolean analyzedString = "string".equals(type) && (index == null || "analyzed".equals(index));
+        removeDefault(result, "doc_values", !analyzedString);
+        removeDefault(result, "store", false);
+        removeDefault(result, "enabled", true);
+        if ("string".equals(type)) {
+            removeDefault(result, "index", "analyzed");
+        }
+        for (String nested : new String[]{"properties", "fields"}) {
+            if (mapping.get(nested) instanceof Map) {
+                Map<Object, Object> fields = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> field : ((Map<?, ?>) mapping.get(nested)).entrySet()) {
+                    fields.put(field.getKey(), field.getValue() instanceof Map ? withoutDefaults((Map<?, ?>) field.getValue()) : field.getValue());
+                }
+                result.put(nested, fields);
+            }
+        }
+        return result;
     }
 
-    private RuntimeException createAndLogIllegalStateException(String message) {
-        RuntimeException ise = new IllegalStateException(message);
-        log.error(message, ise);
-        return ise;
+    private static void removeDefault(Map<Object, Object> mapping, String option, Object defaultValue) {
+        if (mapping.containsKey(option) && String.valueOf(defaultValue).equals(String.valueOf(mapping.get(option)))) {
+            mapping.remove(option);
+        }
+    }
+
+    private static boolean contains(Object actual, Object expected) {
+        if (expected instanceof Map) {
+            if (!(actual instanceof Map)) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) expected).entrySet()) {
+                if (!contains(((Map<?, ?>) actual).get(entry.getKey()), entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (expected instanceof List) {
+            return actual instanceof List && ((List<?>) actual).size() == ((List<?>) expected).size()
+                    && ((List<?>) actual).containsAll((List<?>) expected);
+        }
+        return actual != null && Objects.equals(String.valueOf(actual), String.valueOf(expected));
     }
 }
@@ -0,0 +1,174 @@
+package io.pivio.server;
+
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses request bodies sent with {@code Content-Encoding: gzip} while they are read, so uploads can be sent
+ * compressed. Bodies decompressing to more than {@code pivio.request.gzip.max-size} bytes (16 MB by default) fail to be
+ * read like malformed ones. Requests with other content encodings are answered with
+ * {@code 415 Unsupported Media Type}.
+ * <p>
+ * Responses are compressed by the servlet container, see {@code server.compression.*} in
+ * {@code application.properties}.
+ */
+@Component
+public class GzipRequestFilter extends OncePerRequestFilter {
+
+    private final CounterService counterService;
+    private final long maxSize;
+
+    public GzipRequestFilter(CounterService counterService, Environment environment) {
+        this.counterService = counterService;
+        this.maxSize = environment.getProperty("pivio.request.gzip.max-size", Long.class, 16L * 1024 * 1024);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String contentEncoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        if (contentEncoding == null || "identity".equalsIgnoreCase(contentEncoding.trim())) {
+            filterChain.doFilter(request, response);
+        }
+        else if ("gzip".equalsIgnoreCase(contentEncoding.trim())) {
+            counterService.increment("counter.http.request.gzip");
+            filterChain.doFilter(new DecompressingRequest(request, maxSize), response);
+        }
+        else {
+            counterService.increment("counter.http.request.unsupported-encoding");
+            response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE, "unsupported content encoding " + contentEncoding);
+        }
+    }
+
+    private static final class DecompressingRequest extends HttpServletRequestWrapper {
+
+        private final long maxSize;
+        private ServletInputStream inputStream;
+
+        private DecompressingRequest(HttpServletRequest request, long maxSize) {
+            super(request);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public ServletInputStream getInputStream() throws IOException {
+            if (inputStream == null) {
+                inputStream = new DecompressingInputStream(new GZIPInputStream(super.getInputStream()), maxSize);
+            }
+            return inputStream;
+        }
+
+        // the decompressed body has neither the encoding nor the length announced by the client
+        @Override
+        public String getHeader(String name) {
+            return isEncodingHeader(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return isEncodingHeader(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaderNames() {
+            return Collections.enumeration(Collections.list(super.getHeaderNames()).stream()
+                    .filter(name -> !isEncodingHeader(name))
+                    .collect(Collectors.toList()));
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1;
+        }
+
+        private static boolean isEncodingHeader(String name) {
+            return HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name) || HttpHeaders.CONTENT_LENGTH.equalsIgnoreCase(name);
+        }
+    }
+
+    private static final class DecompressingInputStream extends ServletInputStream {
+
+        private final InputStream decompressed;
+        private final long maxSize;
+        private long read;
+        private boolean finished;
+
+        private DecompressingInputStream(InputStream decompressed, long maxSize) {
+            this.decompressed = decompressed;
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = decompressed.read();
+            count(b < 0 ? -1 : 1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = decompressed.read(buffer, offset, length);
+            count(count);
+            return count;
+        }
+
+        private void count(int count) throws IOException {
+            if (count < 0) {
+                finished = true;
+                return;
+            }
+            read += count;
+            if (read > maxSize) {
+                throw new IOException("decompressed request body is larger than " + maxSize + " bytes");
+            }
+        }
+
+        @Override
+        public boolean isFinished() {
+            return finished;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        /**
+         * Non-blocking reads are not supported, as {@link GZIPInputStream} blocks until it has read enough compressed
+         * bytes, and the readiness of the compressed stream says nothing about the decompressed one. Throws the
+         * {@link IllegalStateException} the servlet specification defines for requests not in async mode; the
+         * controllers of this server all read request bodies blocking.
+         */
+        @Override
+        public void setReadListener(ReadListener readListener) {
+            throw new IllegalStateException("compressed request bodies can only be read blocking");
+        }
+
+        @Override
+        public void close() throws IOException {
+            decompressed.close();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package io.pivio.server;
+
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Submits the duration of every request as {@code timer.http.<endpoint>.<method>.<status class>}, e.g.
+ * {@code timer.http.document.id.get.2xx} for {@code GET /document/{id}}. The endpoint is taken from the mapping that
+ * handled the request rather than the requested path, so ids do not end up in metric names.
+ */
+@Component
+public class RequestTimingFilter extends OncePerRequestFilter {
+
+    private final GaugeService gaugeService;
+
+    public RequestTimingFilter(GaugeService gaugeService) {
+        this.gaugeService = gaugeService;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        long started = System.nanoTime();
+        boolean failed = true;
+        try {
+            filterChain.doFilter(request, response);
+            failed = false;
+        }
+        finally {
+            String statusClass = failed ? "5xx" : response.getStatus() / 100 + "xx";
+            gaugeService.submit("timer.http." + endpointOf(request) + "." + request.getMethod().toLowerCase() + "." + statusClass,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        }
+    }
+
+    static String endpointOf(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern == null) {
+            return "unmapped";
+        }
+        String endpoint = pattern.toString()
+                .replace("{", "")
+                .replace("}", "")
+                .replace("**", "star-star")
+                .replace("*", "star")
+                .replaceAll("^/+|/+$", "")
+                .replace('/', '.');
+        return endpoint.isEmpty() ? "root" : endpoint;
+    }
+}
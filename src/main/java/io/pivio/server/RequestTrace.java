@@ -0,0 +1,143 @@
+package io.pivio.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collects what a single request costs: Elasticsearch round trips per request type, the time spent in them and the
+ * bytes fetched, as well as the time spent per stage of its processing. Bound to the request thread by
+ * {@link RequestTraceFilter}; work handed off to other threads has to be wrapped with {@link #propagate(Supplier)}.
+ * Recording without a trace bound to the thread, e.g. while replaying journaled uploads, does nothing.
+ */
+public final class RequestTrace {
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    private final long started = System.nanoTime();
+    private final AtomicLong elasticsearchMillis = new AtomicLong();
+    private final AtomicLong elasticsearchTookMillis = new AtomicLong();
+    private final AtomicLong bytesFetched = new AtomicLong();
+    private final Map<String, Integer> roundTrips = new LinkedHashMap<>();
+    private final Map<String, Long> stageMillis = new LinkedHashMap<>();
+
+    private RequestTrace() {
+    }
+
+    static RequestTrace start() {
+        RequestTrace trace = new RequestTrace();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    void finish() {
+        CURRENT.remove();
+    }
+
+    /**
+     * @param millis     duration of the round trip
+     * @param bytes      size of the documents fetched
+     * @param tookMillis time Elasticsearch reports to have spent on the request itself, 0 if it reports none
+     */
+    public static void recordElasticsearch(String request, long millis, long bytes, long tookMillis) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        trace.elasticsearchMillis.addAndGet(millis);
+        trace.elasticsearchTookMillis.addAndGet(tookMillis);
+        trace.bytesFetched.addAndGet(bytes);
+        synchronized (trace.roundTrips) {
+            trace.roundTrips.merge(request, 1, Integer::sum);
+        }
+    }
+
+    /**
+     * @return trace bound to the current thread, if any
+     */
+    public static Optional<RequestTrace> current() {
+        return Optional.ofNullable(CURRENT.get());
+    }
+
+    /**
+     * @return Elasticsearch round trips of the given request types so far
+     */
+    public int roundTrips(String... requests) {
+        synchronized (roundTrips) {
+            int sum = 0;
+            for (String request : requests) {
+                sum += roundTrips.getOrDefault(request, 0);
+            }
+            return sum;
+        }
+    }
+
+    public long elasticsearchTookMillis() {
+        return elasticsearchTookMillis.get();
+    }
+
+    public static void recordStage(String stage, long millis) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        synchronized (trace.stageMillis) {
+            trace.stageMillis.merge(stage, millis, Long::sum);
+        }
+    }
+
+    /**
+     * @return supplier recording into the trace of the calling thread, whichever thread it is run on
+     */
+    public static <T> Supplier<T> propagate(Supplier<T> supplier) {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return supplier;
+        }
+        return () -> {
+            RequestTrace previous = CURRENT.get();
+            CURRENT.set(trace);
+            try {
+                return supplier.get();
+            }
+            finally {
+                CURRENT.set(previous);
+            }
+        };
+    }
+
+    long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    /**
+     * @return e.g. {@code total=25ms; es-round-trips=3; es-millis=18; es-bytes=5120; es-requests=get:2,bulk:1; stages=ingest.read:6ms}
+     */
+    String summary() {
+        StringBuilder summary = new StringBuilder()
+                .append("total=").append(elapsedMillis()).append("ms");
+        synchronized (roundTrips) {
+            summary.append("; es-round-trips=").append(roundTrips.values().stream().mapToInt(Integer::intValue).sum())
+                    .append("; es-millis=").append(elasticsearchMillis.get())
+                    .append("; es-bytes=").append(bytesFetched.get())
+                    .append("; es-requests=");
+            appendAll(summary, roundTrips, "");
+        }
+        synchronized (stageMillis) {
+            summary.append("; stages=");
+            appendAll(summary, stageMillis, "ms");
+        }
+        return summary.toString();
+    }
+
+    private static void appendAll(StringBuilder summary, Map<String, ?> values, String unit) {
+        String separator = "";
+        for (Map.Entry<String, ?> value : values.entrySet()) {
+            summary.append(separator).append(value.getKey()).append(':').append(value.getValue()).append(unit);
+            separator = ",";
+        }
+    }
+}
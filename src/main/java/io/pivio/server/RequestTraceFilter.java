@@ -0,0 +1,59 @@
+package io.pivio.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Binds a {@link RequestTrace} to every request. Requests taking at least {@code pivio.trace.slow-request-threshold}
+ * milliseconds are logged together with their trace to the {@code pivio.slow-requests} logger, which writes to its own
+ * file. With {@code pivio.trace.debug=true} the trace of every request is returned in the {@code X-Pivio-Trace} header;
+ * responses are buffered then, as the header can only be added once the request has been handled.
+ */
+@Component
+public class RequestTraceFilter extends OncePerRequestFilter {
+
+    static final String TRACE_HEADER = "X-Pivio-Trace";
+
+    private static final Logger SLOW_REQUEST_LOG = LoggerFactory.getLogger("pivio.slow-requests");
+
+    private final long slowRequestThresholdMillis;
+    private final boolean debug;
+
+    public RequestTraceFilter(Environment environment) {
+        this.slowRequestThresholdMillis = environment.getProperty("pivio.trace.slow-request-threshold", Long.class, 1000L);
+        this.debug = environment.getProperty("pivio.trace.debug", Boolean.class, false);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        ContentCachingResponseWrapper bufferedResponse = debug ? new ContentCachingResponseWrapper(response) : null;
+        RequestTrace trace = RequestTrace.start();
+        try {
+            filterChain.doFilter(request, debug ? bufferedResponse : response);
+        }
+        finally {
+            trace.finish();
+            String summary = trace.summary();
+            if (trace.elapsedMillis() >= slowRequestThresholdMillis) {
+                SLOW_REQUEST_LOG.warn("{} {}{} from {} ({}): {}", request.getMethod(), request.getRequestURI(),
+                        request.getQueryString() == null ? "" : "?" + request.getQueryString(),
+                        request.getRemoteAddr(), request.getHeader("User-Agent"), summary);
+            }
+            if (debug) {
+                bufferedResponse.setHeader(TRACE_HEADER, summary);
+                bufferedResponse.copyBodyToResponse();
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package io.pivio.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.store.StoreUnavailableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Answers requests failing because the store is unavailable with {@code 503 Service Unavailable} and a
+ * {@code Retry-After} header, so clients like pivio-client can back off instead of waiting for a timeout.
+ */
+@ControllerAdvice
+public class StoreUnavailableExceptionHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StoreUnavailableExceptionHandler.class);
+
+    private final ObjectMapper mapper;
+    private final CounterService counterService;
+
+    public StoreUnavailableExceptionHandler(ObjectMapper mapper, CounterService counterService) {
+        this.mapper = mapper;
+        this.counterService = counterService;
+    }
+
+    @ExceptionHandler(StoreUnavailableException.class)
+    public ResponseEntity<ObjectNode> handle(StoreUnavailableException e) {
+        LOG.info("Store unavailable: {}", e.getMessage());
+        counterService.increment("counter.calls.unavailable");
+        long retryAfterSeconds = Math.max(1, TimeUnit.MILLISECONDS.toSeconds(e.getRetryAfterMillis() + 999));
+        ObjectNode body = mapper.createObjectNode().put("error", e.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(body);
+    }
+}
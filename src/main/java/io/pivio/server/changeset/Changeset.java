@@ -17,10 +17,14 @@ public class Changeset {
     private ArrayNode fields;
 
     public Changeset(String document, long order, ArrayNode fields) {
+        this(document, order, fields, DateTime.now());
+    }
+
+    public Changeset(String document, long order, ArrayNode fields, DateTime timestamp) {
         this.document = document;
         this.order = order;
         this.fields = fields;
-        timestamp = DateTime.now();
+        this.timestamp = timestamp;
     }
 
     public String getDocument() {
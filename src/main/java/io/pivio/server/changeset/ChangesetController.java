@@ -1,11 +1,12 @@
 package io.pivio.server.changeset;
 
-import io.pivio.server.elasticsearch.ElasticsearchQueryHelper;
-import org.elasticsearch.client.Client;
-import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.index.query.QueryBuilder;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.sort.SortOrder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.store.ChangesetStats;
+import io.pivio.server.store.ChangesetStore;
+import io.pivio.server.store.DocumentStore;
 import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
@@ -16,6 +17,12 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import static io.pivio.server.BinaryJsonConfiguration.CBOR_VALUE;
+import static io.pivio.server.BinaryJsonConfiguration.SMILE_VALUE;
 
 @CrossOrigin
 @RestController
@@ -23,17 +30,26 @@ public class ChangesetController {
 
     private static final Logger LOG = LoggerFactory.getLogger(ChangesetController.class);
 
-    private final Client client;
-    private final ElasticsearchQueryHelper queryHelper;
+    private static final List<String> STATS_INTERVALS = Arrays.asList("day", "week", "month");
+
+    private final DocumentStore documentStore;
+    private final ChangesetStore changesetStore;
+    private final DocumentHistory documentHistory;
+    private final FilteringJsonDiff jsonDiff;
+    private final ObjectMapper mapper;
     private final CounterService counterService;
 
-    public ChangesetController(Client client, ElasticsearchQueryHelper queryHelper, CounterService counterService) {
-        this.client = client;
-        this.queryHelper = queryHelper;
+    public ChangesetController(DocumentStore documentStore, ChangesetStore changesetStore, DocumentHistory documentHistory,
+                               FilteringJsonDiff jsonDiff, ObjectMapper mapper, CounterService counterService) {
+        this.documentStore = documentStore;
+        this.changesetStore = changesetStore;
+        this.documentHistory = documentHistory;
+        this.jsonDiff = jsonDiff;
+        this.mapper = mapper;
         this.counterService = counterService;
     }
 
-    @GetMapping(value = "/changeset", produces = MediaType.APPLICATION_JSON_VALUE)
+    @GetMapping(value = "/changeset", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public ResponseEntity listAll(@RequestParam(required = false) String since) throws IOException {
         counterService.increment("counter.calls.changeset.get");
         if (!isSinceParameterValid(since)) {
@@ -42,19 +58,14 @@ public class ChangesetController {
         }
 
         LOG.debug("Retrieving changesets for all documents with since parameter {}", since);
-        return ResponseEntity.ok(queryHelper.retrieveAllDocuments(client.prepareSearch("changeset")
-                .setTypes("changeset")
-                .addSort("timestamp", SortOrder.DESC)
-                .setScroll(new TimeValue(60000))
-                .setQuery(createQuery(since))
-                .setSize(100)));
+        return ResponseEntity.ok(changesetStore.find(null, calculateSinceDate(since)));
     }
 
-    @GetMapping(value = "/document/{id}/changeset", produces = MediaType.APPLICATION_JSON_VALUE)
+    @GetMapping(value = "/document/{id}/changeset", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public ResponseEntity get(@PathVariable String id, @RequestParam(required = false) String since) throws IOException {
         counterService.increment("counter.calls.document.id.changeset.get");
 
-        if (!queryHelper.isDocumentPresent("steckbrief", "steckbrief", id)) {
+        if (!documentStore.exists(id)) {
             LOG.info("Client wants to retrieve changesets for missing document with id {}", id);
             return ResponseEntity.notFound().build();
         }
@@ -65,12 +76,76 @@ public class ChangesetController {
         }
 
         LOG.debug("Retrieving changesets for document {} with since parameter {}", id, since);
-        return ResponseEntity.ok(queryHelper.retrieveAllDocuments(client.prepareSearch("changeset")
-                .setTypes("changeset")
-                .addSort("timestamp", SortOrder.DESC)
-                .setScroll(new TimeValue(60000))
-                .setQuery(createQuery(id, since))
-                .setSize(100)));
+        return ResponseEntity.ok(changesetStore.find(id, calculateSinceDate(since)));
+    }
+
+    /**
+     * Aggregates changesets in the store (as aggregations inside Elasticsearch): number of changesets per time interval,
+     * the documents changed most often and the paths changed most often. Only the buckets are transferred, not the
+     * changesets themselves.
+     */
+    @GetMapping(value = "/changeset/_stats", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+    public ResponseEntity stats(@RequestParam(required = false) String document,
+                                @RequestParam(required = false) String since,
+                                @RequestParam(defaultValue = "week") String interval,
+                                @RequestParam(defaultValue = "10") int size) {
+        counterService.increment("counter.calls.changeset.stats.get");
+        if (!isSinceParameterValid(since) || !STATS_INTERVALS.contains(interval) || size <= 0) {
+            LOG.info("Received changeset stats request with invalid parameters since {}, interval {}, size {}", since, interval, size);
+            return ResponseEntity.badRequest().build();
+        }
+
+        ChangesetStats changesetStats = changesetStore.stats(document, calculateSinceDate(since), interval, size);
+        ObjectNode stats = mapper.createObjectNode().put("total", changesetStats.getTotal());
+        addBuckets(stats.putArray("histogram"), "date", changesetStats.getHistogram());
+        addBuckets(stats.putArray("documents"), "document", changesetStats.getDocuments());
+        addBuckets(stats.putArray("paths"), "path", changesetStats.getPaths());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Combines all changes of a document between two points in time into a single JSON patch by diffing the two
+     * reconstructed states, instead of letting clients fold every intermediate changeset themselves.
+     */
+    @GetMapping(value = "/document/{id}/diff", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+    public ResponseEntity diff(@PathVariable String id, @RequestParam String from, @RequestParam(required = false) String to) throws IOException {
+        counterService.increment("counter.calls.document.id.diff.get");
+
+        final DateTime fromTime = parseDateTime(from);
+        final DateTime toTime = to == null ? DateTime.now() : parseDateTime(to);
+        if (fromTime == null || toTime == null || fromTime.isAfter(toTime)) {
+            LOG.info("Received diff request with invalid parameters from {} and to {} for document {}", from, to, id);
+            return ResponseEntity.badRequest().build();
+        }
+
+        Optional<JsonNode> toDocument = documentHistory.reconstruct(id, toTime);
+        if (!toDocument.isPresent()) {
+            LOG.info("Client wants to retrieve diff for document with id {} not existing at {}", id, to);
+            return ResponseEntity.notFound().build();
+        }
+        JsonNode fromDocument = documentHistory.reconstruct(id, fromTime).orElse(mapper.createObjectNode());
+
+        ObjectNode diff = mapper.createObjectNode()
+                .put("document", id)
+                .put("from", ISODateTimeFormat.dateTime().print(fromTime))
+                .put("to", ISODateTimeFormat.dateTime().print(toTime));
+        diff.set("patch", jsonDiff.diff(fromDocument, toDocument.get()));
+        return ResponseEntity.ok(diff);
+    }
+
+    private void addBuckets(ArrayNode target, String keyName, List<ChangesetStats.Bucket> buckets) {
+        for (ChangesetStats.Bucket bucket : buckets) {
+            target.addObject().put(keyName, bucket.getKey()).put("count", bucket.getCount());
+        }
+    }
+
+    private DateTime parseDateTime(String dateTime) {
+        try {
+            return ISODateTimeFormat.dateTimeParser().parseDateTime(dateTime);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     private boolean isSinceParameterValid(String since) {
@@ -93,29 +168,10 @@ public class ChangesetController {
         }
     }
 
-    private QueryBuilder createQuery(String since) {
-        if (since == null) {
-            return QueryBuilders.matchAllQuery();
-        }
-        else {
-            String sinceDate = calculateSinceDate(since);
-            return QueryBuilders.rangeQuery("timestamp").gte(sinceDate).lte("now");
-        }
-    }
-
-    private QueryBuilder createQuery(String id, String since) {
+    private DateTime calculateSinceDate(String since) {
         if (since == null) {
-            return QueryBuilders.matchQuery("document", id);
+            return null;
         }
-        else {
-            String sinceDate = calculateSinceDate(since);
-            return QueryBuilders.boolQuery()
-                    .must(QueryBuilders.matchQuery("document", id))
-                    .must(QueryBuilders.rangeQuery("timestamp").gte(sinceDate).lte("now"));
-        }
-    }
-
-    private String calculateSinceDate(String since) {
         final DateTime sinceDate;
         if (since.charAt(since.length() - 1) == 'd') {
             sinceDate = DateTime.now().minusDays(Integer.parseInt(since.substring(0, since.length() - 1)));
@@ -123,6 +179,6 @@ public class ChangesetController {
         else {
             sinceDate = DateTime.now().minusWeeks(Integer.parseInt(since.substring(0, since.length() - 1)));
         }
-        return ISODateTimeFormat.date().print(sinceDate);
+        return sinceDate.withTimeAtStartOfDay();
     }
 }
@@ -0,0 +1,149 @@
+package io.pivio.server.changeset;
+
+import org.elasticsearch.action.admin.indices.mapping.get.GetMappingsResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Changeset indices created before the document id and the changed paths were mapped as exact values cannot be
+ * updated in place, as Elasticsearch does not allow to change how an existing field is indexed. This includes indices
+ * created while the exact values were kept in {@code raw} sub-fields of the analyzed fields. Such an index is copied
+ * to a temporary index, recreated with the current mapping and filled again.
+ * <p>
+ * The temporary index is marked with an alias once all changesets have been copied into it. If the migration is
+ * interrupted after that, e.g. because the server is stopped while the changesets are restored, the next startup
+ * restores them from the temporary index again instead of finding an index with the current mapping and nothing to do.
+ * <p>
+ * The migration has to finish before uploads are accepted, otherwise changesets written meanwhile get lost. It runs as
+ * part of the index setup on startup, before the indices are reported ready.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class ChangesetIndexMigration {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ChangesetIndexMigration.class);
+
+    private static final String INDEX = "changeset";
+    private static final String TYPE = "changeset";
+    static final String TEMPORARY_INDEX = "changeset_migration";
+    static final String COPY_COMPLETE_ALIAS = "changeset_migration_complete";
+
+    private final Client client;
+    private final ElasticsearchTemplate elasticsearchTemplate;
+
+    public ChangesetIndexMigration(Client client, ElasticsearchTemplate elasticsearchTemplate) {
+        this.client = client;
+        this.elasticsearchTemplate = elasticsearchTemplate;
+    }
+
+    public void migrateIfNecessary() {
+        if (isCopyComplete()) {
+            LOG.info("Changeset index migration has been interrupted, restoring changesets from {} again", TEMPORARY_INDEX);
+            restore();
+            return;
+        }
+        if (!isMappedWithAnalyzedExactValues()) {
+            return;
+        }
+
+        LOG.info("Changeset index uses the outdated mapping, reindexing it");
+        if (elasticsearchTemplate.indexExists(TEMPORARY_INDEX)) {
+            elasticsearchTemplate.deleteIndex(TEMPORARY_INDEX);
+        }
+        elasticsearchTemplate.createIndex(TEMPORARY_INDEX, ElasticsearchTemplate.readFileFromClasspath("settings.json"));
+        elasticsearchTemplate.putMapping(TEMPORARY_INDEX, TYPE, ElasticsearchTemplate.readFileFromClasspath("changeset-mapping.json"));
+        copy(INDEX, TEMPORARY_INDEX);
+        client.admin().indices().prepareAliases().addAlias(TEMPORARY_INDEX, COPY_COMPLETE_ALIAS).execute().actionGet();
+        restore();
+    }
+
+    private boolean isCopyComplete() {
+        return elasticsearchTemplate.indexExists(TEMPORARY_INDEX)
+                && !client.admin().indices().prepareGetAliases(COPY_COMPLETE_ALIAS).execute().actionGet().getAliases().isEmpty();
+    }
+
+    /**
+     * Recreates the changeset index with the current mapping and copies the changesets back from the complete
+     * temporary index. Changesets restored by an interrupted attempt are deleted together with the index.
+     */
+    private void restore() {
+        long copied = client.prepareSearch(TEMPORARY_INDEX).setTypes(TYPE).setSize(0).execute().actionGet().getHits().getTotalHits();
+        if (elasticsearchTemplate.indexExists(INDEX)) {
+            elasticsearchTemplate.deleteIndex(Changeset.class);
+        }
+        elasticsearchTemplate.createIndex(Changeset.class);
+        elasticsearchTemplate.putMapping(Changeset.class);
+        long restored = copy(TEMPORARY_INDEX, INDEX);
+        if (restored != copied) {
+            throw new IllegalStateException("reindexing changesets failed, copied " + copied + " changesets but restored "
+                    + restored + "; they are still available in index " + TEMPORARY_INDEX);
+        }
+
+        elasticsearchTemplate.deleteIndex(TEMPORARY_INDEX);
+        LOG.info("Reindexed {} changesets", restored);
+    }
+
+    private boolean isMappedWithAnalyzedExactValues() {
+        if (!elasticsearchTemplate.indexExists(INDEX)) {
+            return false;
+        }
+        GetMappingsResponse response = client.admin().indices().prepareGetMappings(INDEX).setTypes(TYPE).execute().actionGet();
+        ImmutableOpenMap<String, MappingMetaData> mappings = response.getMappings().get(INDEX);
+        if (mappings == null || mappings.get(TYPE) == null) {
+            return false;
+        }
+        try {
+            Map<?, ?> properties = (Map<?, ?>) mappings.get(TYPE).sourceAsMap().get("properties");
+            Map<?, ?> fields = properties == null ? null : (Map<?, ?>) properties.get("fields");
+            return isAnalyzed(properties, "document") || isAnalyzed(fields == null ? null : (Map<?, ?>) fields.get("properties"), "path");
+        }
+        catch (IOException e) {
+            throw new IllegalStateException("could not read mapping of index " + INDEX, e);
+        }
+    }
+
+    private static boolean isAnalyzed(Map<?, ?> properties, String field) {
+        Map<?, ?> mapping = properties == null ? null : (Map<?, ?>) properties.get(field);
+        return mapping != null && !"not_analyzed".equals(mapping.get("index"));
+    }
+
+    private long copy(String fromIndex, String toIndex) {
+        long copied = 0;
+        SearchResponse searchResponse = client.prepareSearch(fromIndex)
+                .setTypes(TYPE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setScroll(new TimeValue(60000))
+                .setSize(500)
+                .execute()
+                .actionGet();
+        while (searchResponse.getHits().getHits().length > 0) {
+            BulkRequestBuilder bulkRequest = client.prepareBulk();
+            for (SearchHit searchHit : searchResponse.getHits().getHits()) {
+                bulkRequest.add(client.prepareIndex(toIndex, TYPE, searchHit.getId()).setSource(searchHit.getSourceAsString()));
+            }
+            BulkResponse bulkResponse = bulkRequest.execute().actionGet();
+            if (bulkResponse.hasFailures()) {
+                throw new IllegalStateException("could not copy changesets from " + fromIndex + " to " + toIndex + ": " + bulkResponse.buildFailureMessage());
+            }
+            copied += bulkResponse.getItems().length;
+            searchResponse = client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)).execute().actionGet();
+        }
+        client.admin().indices().prepareRefresh(toIndex).execute().actionGet();
+        return copied;
+    }
+}
@@ -0,0 +1,147 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.flipkart.zjsonpatch.JsonPatch;
+import com.flipkart.zjsonpatch.JsonPatchApplicationException;
+import io.pivio.server.store.ChangesetStore;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reconstructs documents as they were at a given point in time by replaying their changesets. Every
+ * {@code pivio.history.snapshot-interval} changesets a full snapshot of the document is stored, so a reconstruction
+ * starts from the latest snapshot before the requested time and replays at most that many changesets.
+ * <p>
+ * Fields excluded from changesets (see {@link FilteringJsonDiff}) are not tracked between snapshots and therefore
+ * reflect the state of the snapshot a reconstruction started from, if any.
+ */
+@Component
+public class DocumentHistory {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentHistory.class);
+
+    private static final List<String> SERVER_MANAGED_FIELDS = Arrays.asList("created", "lastUpload", "lastUpdate");
+
+    private final ChangesetStore changesetStore;
+    private final ObjectMapper mapper;
+    private final int snapshotInterval;
+
+    public DocumentHistory(ChangesetStore changesetStore, ObjectMapper mapper,
+                           @Value("${pivio.history.snapshot-interval:20}") int snapshotInterval) {
+        this.changesetStore = changesetStore;
+        this.mapper = mapper;
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * @return snapshot of the document to be stored together with the changeset, if one is due at its order
+     */
+    public Optional<DocumentSnapshot> snapshotIfDue(Changeset changeset, JsonNode document) {
+        if (snapshotInterval <= 0 || changeset.getOrder() % snapshotInterval != 0) {
+            return Optional.empty();
+        }
+        ObjectNode content = document.deepCopy();
+        content.remove(SERVER_MANAGED_FIELDS);
+        LOG.debug("Taking snapshot of document {} at changeset {}", changeset.getDocument(), changeset.getOrder());
+        return Optional.of(new DocumentSnapshot(changeset.getDocument(), changeset.getOrder(), changeset.getTimestamp(), content));
+    }
+
+    public Optional<JsonNode> reconstruct(String documentId, DateTime at) throws IOException {
+        final Optional<JsonNode> snapshot = changesetStore.findLatestSnapshot(documentId, at);
+        final long snapshotOrder = snapshot.map(s -> s.get("order").longValue()).orElse(0L);
+        final ArrayNode changesets = changesetStore.findForReplay(documentId, snapshotOrder, at);
+
+        if (!snapshot.isPresent() && changesets.size() == 0) {
+            return Optional.empty();
+        }
+        LOG.debug("Reconstructing document {} at {} from snapshot {} and {} changesets", documentId, at, snapshotOrder, changesets.size());
+        return Optional.of(replay(snapshot.map(s -> s.get("content")).orElse(mapper.createObjectNode()), changesets));
+    }
+
+    /**
+     * Applies the patches of the given changesets, ordered ascending, on top of the given base document. All
+     * operations are applied in one go so the document is copied only once.
+     *
+     * @throws HistoryReconstructionException if a patch cannot be applied, e.g. as it refers to a field moved by a
+     *                                        skipped legacy operation
+     */
+    JsonNode replay(JsonNode base, Iterable<JsonNode> changesets) {
+        ArrayNode operations = mapper.createArrayNode();
+        for (JsonNode changeset : changesets) {
+            operations.addAll(patchOf(changeset));
+        }
+        try {
+            return JsonPatch.apply(operations, base);
+        }
+        catch (JsonPatchApplicationException e) {
+            throw failingChangeset(base, changesets, e);
+        }
+    }
+
+    // only done after a failure, replays the changesets one by one to find the first one that cannot be applied
+    private HistoryReconstructionException failingChangeset(JsonNode base, Iterable<JsonNode> changesets, JsonPatchApplicationException failure) {
+        JsonNode document = base;
+        JsonNode changeset = null;
+        for (Iterator<JsonNode> iterator = changesets.iterator(); iterator.hasNext(); ) {
+            changeset = iterator.next();
+            try {
+                document = JsonPatch.apply(patchOf(changeset), document);
+            }
+            catch (JsonPatchApplicationException e) {
+                return new HistoryReconstructionException(changeset.path("document").asText(), changeset.path("order").asLong(), e);
+            }
+        }
+        return new HistoryReconstructionException(changeset == null ? "" : changeset.path("document").asText(),
+                changeset == null ? 0 : changeset.path("order").asLong(), failure);
+    }
+
+    /**
+     * Changesets stored before the typed patch was persisted alongside them only carry the stringified values of
+     * {@link ChangesetJsonSerializer}, so these are turned back into JSON on a best effort basis.
+     */
+    private ArrayNode patchOf(JsonNode changeset) {
+        if (changeset.has("patch")) {
+            return (ArrayNode) changeset.get("patch");
+        }
+        ArrayNode patch = mapper.createArrayNode();
+        for (JsonNode field : changeset.get("fields")) {
+            String op = field.get("op").textValue();
+            if ("move".equals(op) || "copy".equals(op)) {
+                LOG.warn("Skipping '{}' operation on {} of changeset {} of document {} as its source path is unknown",
+                        op, field.get("path").textValue(), changeset.get("order"), changeset.get("document"));
+                continue;
+            }
+            ObjectNode operation = field.deepCopy();
+            if (field.has("value")) {
+                operation.set("value", parseLegacyValue(field.get("value").textValue()));
+            }
+            patch.add(operation);
+        }
+        return patch;
+    }
+
+    private JsonNode parseLegacyValue(String value) {
+        if (value.startsWith("{") || value.startsWith("[")) {
+            try {
+                return mapper.readTree(value);
+            }
+            catch (IOException e) {
+                LOG.debug("Legacy changeset value is no JSON structure, keeping it as text: {}", value);
+            }
+        }
+        return TextNode.valueOf(value);
+    }
+}
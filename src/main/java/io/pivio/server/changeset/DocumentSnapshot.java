@@ -0,0 +1,45 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.joda.time.DateTime;
+import org.springframework.data.elasticsearch.annotations.Document;
+import org.springframework.data.elasticsearch.annotations.Mapping;
+import org.springframework.data.elasticsearch.annotations.Setting;
+
+/**
+ * Full state of a document right after the changeset with the same order has been applied. Snapshots bound the number
+ * of changesets that have to be replayed when a document is reconstructed for a point in time.
+ */
+@Document(indexName = "snapshot", type = "snapshot")
+@Setting(settingPath = "settings.json")
+@Mapping(mappingPath = "snapshot-mapping.json")
+public class DocumentSnapshot {
+
+    private String document;
+    private long order;
+    private DateTime timestamp;
+    private JsonNode content;
+
+    public DocumentSnapshot(String document, long order, DateTime timestamp, JsonNode content) {
+        this.document = document;
+        this.order = order;
+        this.timestamp = timestamp;
+        this.content = content;
+    }
+
+    public String getDocument() {
+        return document;
+    }
+
+    public long getOrder() {
+        return order;
+    }
+
+    public DateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public JsonNode getContent() {
+        return content;
+    }
+}
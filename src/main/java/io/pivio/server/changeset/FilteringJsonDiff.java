@@ -0,0 +1,176 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flipkart.zjsonpatch.JsonDiff;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Computes the JSON patch between two documents while honouring include and exclude path patterns (see
+ * {@link PathPattern}). Instead of diffing the whole documents and dropping unwanted operations afterwards, objects
+ * are walked field by field as long as a pattern could still apply below the current path, so excluded subtrees are
+ * never compared. Subtrees no pattern applies to anymore are handed to zjsonpatch as a whole.
+ * <p>
+ * Arrays are always diffed as a whole. Operations found below an array are filtered by their path afterwards.
+ */
+@Component
+public class FilteringJsonDiff {
+
+    private static final List<String> ALWAYS_EXCLUDED = Arrays.asList("/created", "/lastUpload", "/lastUpdate");
+
+    private final ObjectMapper mapper;
+    private final List<PathPattern> includes;
+    private final List<PathPattern> excludes;
+
+    public FilteringJsonDiff(ObjectMapper mapper,
+                             @Value("${pivio.changeset.includes:}") String[] includes,
+                             @Value("${pivio.changeset.excludes:}") String[] excludes) {
+        this.mapper = mapper;
+        this.includes = compile(Arrays.stream(includes));
+        this.excludes = compile(Stream.concat(ALWAYS_EXCLUDED.stream(), Arrays.stream(excludes)));
+    }
+
+    public ArrayNode diff(JsonNode source, JsonNode target) {
+        ArrayNode patch = mapper.createArrayNode();
+        diff(source, target, new ArrayList<>(), patch);
+        return patch;
+    }
+
+    private void diff(JsonNode source, JsonNode target, List<String> path, ArrayNode patch) {
+        if (!path.isEmpty() && !isAccepted(path)) {
+            return;
+        }
+        if (source.equals(target)) {
+            return;
+        }
+        if (source.isObject() && target.isObject()) {
+            if (isSettled(path)) {
+                appendDelegatedDiff(source, target, path, false, patch);
+            }
+            else {
+                diffFields(source, target, path, patch);
+            }
+        }
+        else if (source.isArray() && target.isArray()) {
+            appendDelegatedDiff(source, target, path, !isSettled(path), patch);
+        }
+        else {
+            patch.add(operation("replace", path).set("value", target));
+        }
+    }
+
+    private void diffFields(JsonNode source, JsonNode target, List<String> path, ArrayNode patch) {
+        Iterator<Map.Entry<String, JsonNode>> sourceFields = source.fields();
+        while (sourceFields.hasNext()) {
+            Map.Entry<String, JsonNode> sourceField = sourceFields.next();
+            path.add(sourceField.getKey());
+            JsonNode targetValue = target.get(sourceField.getKey());
+            if (targetValue == null) {
+                if (isAccepted(path)) {
+                    patch.add(operation("remove", path));
+                }
+            }
+            else {
+                diff(sourceField.getValue(), targetValue, path, patch);
+            }
+            path.remove(path.size() - 1);
+        }
+
+        Iterator<Map.Entry<String, JsonNode>> targetFields = target.fields();
+        while (targetFields.hasNext()) {
+            Map.Entry<String, JsonNode> targetField = targetFields.next();
+            if (!source.has(targetField.getKey())) {
+                path.add(targetField.getKey());
+                if (isAccepted(path)) {
+                    patch.add(operation("add", path).set("value", targetField.getValue()));
+                }
+                path.remove(path.size() - 1);
+            }
+        }
+    }
+
+    private void appendDelegatedDiff(JsonNode source, JsonNode target, List<String> path, boolean filter, ArrayNode patch) {
+        String prefix = toPointer(path);
+        for (JsonNode delegated : JsonDiff.asJson(source, target)) {
+            String relativePath = delegated.get("path").textValue();
+            if (filter && !isAccepted(toSegments(prefix + relativePath))) {
+                continue;
+            }
+            ObjectNode operation = (ObjectNode) delegated;
+            operation.put("path", prefix + relativePath);
+            if (operation.has("from")) {
+                operation.put("from", prefix + operation.get("from").textValue());
+            }
+            patch.add(operation);
+        }
+    }
+
+    /**
+     * A path is accepted if it is not excluded and, in case includes are configured, is included itself, lies below
+     * an included path or is on the way to one.
+     */
+    private boolean isAccepted(List<String> path) {
+        for (PathPattern exclude : excludes) {
+            if (exclude.matchesSelfOrAncestor(path)) {
+                return false;
+            }
+        }
+        return includes.isEmpty() || isIncluded(path) || includes.stream().anyMatch(include -> include.mayMatchDescendantOf(path));
+    }
+
+    /**
+     * A path is settled when no pattern can change the outcome for anything below it anymore.
+     */
+    private boolean isSettled(List<String> path) {
+        for (PathPattern exclude : excludes) {
+            if (exclude.mayMatchDescendantOf(path)) {
+                return false;
+            }
+        }
+        return includes.isEmpty() || isIncluded(path);
+    }
+
+    private boolean isIncluded(List<String> path) {
+        return includes.stream().anyMatch(include -> include.matchesSelfOrAncestor(path));
+    }
+
+    private ObjectNode operation(String op, List<String> path) {
+        return mapper.createObjectNode()
+                .put("op", op)
+                .put("path", toPointer(path));
+    }
+
+    private static List<PathPattern> compile(Stream<String> patterns) {
+        return patterns
+                .filter(pattern -> !pattern.trim().isEmpty())
+                .map(PathPattern::compile)
+                .collect(Collectors.toList());
+    }
+
+    private static String toPointer(List<String> path) {
+        StringBuilder pointer = new StringBuilder();
+        for (String segment : path) {
+            pointer.append('/').append(segment.replace("~", "~0").replace("/", "~1"));
+        }
+        return pointer.toString();
+    }
+
+    private static List<String> toSegments(String pointer) {
+        List<String> segments = new ArrayList<>();
+        for (String segment : pointer.substring(1).split("/", -1)) {
+            segments.add(segment.replace("~1", "/").replace("~0", "~"));
+        }
+        return segments;
+    }
+}
@@ -0,0 +1,22 @@
+package io.pivio.server.changeset;
+
+/**
+ * Thrown by {@link DocumentHistory} when the changesets of a document cannot be applied on top of each other, e.g.
+ * because a legacy changeset lacks operations needed by later ones.
+ */
+public class HistoryReconstructionException extends RuntimeException {
+
+    private final long order;
+
+    public HistoryReconstructionException(String documentId, long order, Throwable cause) {
+        super("history of document " + documentId + " cannot be reconstructed before changeset " + order, cause);
+        this.order = order;
+    }
+
+    /**
+     * @return order of the first changeset that cannot be applied
+     */
+    public long getOrder() {
+        return order;
+    }
+}
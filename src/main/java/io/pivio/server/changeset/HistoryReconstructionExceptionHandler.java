@@ -0,0 +1,39 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+/**
+ * Answers requests for points in time a document cannot be reconstructed at with {@code 409 Conflict}, as the stored
+ * history itself is inconsistent and retrying the request will not help.
+ */
+@ControllerAdvice
+public class HistoryReconstructionExceptionHandler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HistoryReconstructionExceptionHandler.class);
+
+    private final ObjectMapper mapper;
+    private final CounterService counterService;
+
+    public HistoryReconstructionExceptionHandler(ObjectMapper mapper, CounterService counterService) {
+        this.mapper = mapper;
+        this.counterService = counterService;
+    }
+
+    @ExceptionHandler(HistoryReconstructionException.class)
+    public ResponseEntity<ObjectNode> handle(HistoryReconstructionException e) {
+        LOG.warn(e.getMessage(), e.getCause());
+        counterService.increment("counter.history.unreconstructable");
+        ObjectNode body = mapper.createObjectNode()
+                .put("error", e.getMessage())
+                .put("order", e.getOrder());
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(body);
+    }
+}
@@ -0,0 +1,120 @@
+package io.pivio.server.changeset;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Glob-style pattern on JSON pointer paths, e.g. {@code /build/**}, {@code /links/*} or {@code /build_*}. A single
+ * {@code *} matches exactly one path segment (or, when it is part of a segment like {@code build_*}, any characters
+ * within that segment), {@code **} matches any number of segments including none.
+ * <p>
+ * Patterns are compiled once into their segments so that matching a path is a walk over two short arrays.
+ */
+class PathPattern {
+
+    private static final Object ANY_SEGMENTS = new Object();
+
+    private final String pattern;
+    private final Object[] segments;
+
+    private PathPattern(String pattern, Object[] segments) {
+        this.pattern = pattern;
+        this.segments = segments;
+    }
+
+    static PathPattern compile(String pattern) {
+        String trimmed = pattern.trim();
+        if (!trimmed.startsWith("/")) {
+            throw new IllegalArgumentException("path pattern '" + pattern + "' must start with '/'");
+        }
+        List<Object> compiled = new ArrayList<>();
+        for (String segment : trimmed.substring(1).split("/", -1)) {
+            if ("**".equals(segment)) {
+                compiled.add(ANY_SEGMENTS);
+            }
+            else if (segment.contains("*")) {
+                compiled.add(Pattern.compile(toRegex(segment)));
+            }
+            else {
+                compiled.add(segment);
+            }
+        }
+        return new PathPattern(trimmed, compiled.toArray());
+    }
+
+    /**
+     * @return whether the pattern matches exactly the given path
+     */
+    boolean matches(List<String> path) {
+        return matches(0, path, 0);
+    }
+
+    /**
+     * @return whether the pattern matches the given path or one of its ancestors
+     */
+    boolean matchesSelfOrAncestor(List<String> path) {
+        for (int length = path.size(); length >= 0; length--) {
+            if (matches(path.subList(0, length))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the pattern could match a path below the given one
+     */
+    boolean mayMatchDescendantOf(List<String> path) {
+        return mayMatchDescendant(0, path, 0);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+
+    private boolean matches(int patternIndex, List<String> path, int pathIndex) {
+        if (patternIndex == segments.length) {
+            return pathIndex == path.size();
+        }
+        Object segment = segments[patternIndex];
+        if (segment == ANY_SEGMENTS) {
+            return matches(patternIndex + 1, path, pathIndex)
+                    || (pathIndex < path.size() && matches(patternIndex, path, pathIndex + 1));
+        }
+        return pathIndex < path.size()
+                && matchesSegment(segment, path.get(pathIndex))
+                && matches(patternIndex + 1, path, pathIndex + 1);
+    }
+
+    private boolean mayMatchDescendant(int patternIndex, List<String> path, int pathIndex) {
+        if (pathIndex == path.size()) {
+            return patternIndex < segments.length;
+        }
+        if (patternIndex == segments.length) {
+            return false;
+        }
+        Object segment = segments[patternIndex];
+        if (segment == ANY_SEGMENTS) {
+            return mayMatchDescendant(patternIndex + 1, path, pathIndex) || mayMatchDescendant(patternIndex, path, pathIndex + 1);
+        }
+        return matchesSegment(segment, path.get(pathIndex)) && mayMatchDescendant(patternIndex + 1, path, pathIndex + 1);
+    }
+
+    private static boolean matchesSegment(Object patternSegment, String pathSegment) {
+        if (patternSegment instanceof Pattern) {
+            return ((Pattern) patternSegment).matcher(pathSegment).matches();
+        }
+        return patternSegment.equals(pathSegment);
+    }
+
+    private static String toRegex(String segment) {
+        String[] literals = segment.split("\\*", -1);
+        StringBuilder regex = new StringBuilder(Pattern.quote(literals[0]));
+        for (int i = 1; i < literals.length; i++) {
+            regex.append(".*").append(Pattern.quote(literals[i]));
+        }
+        return regex.toString();
+    }
+}
@@ -4,18 +4,20 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeType;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import io.pivio.server.changeset.Changeset;
-import io.pivio.server.changeset.ChangesetService;
-import org.elasticsearch.action.deletebyquery.DeleteByQueryAction;
-import org.elasticsearch.action.deletebyquery.DeleteByQueryRequestBuilder;
-import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.client.Client;
-import org.elasticsearch.index.query.QueryBuilders;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.jfr.IngestStageEvent;
+import io.pivio.server.journal.UploadJournalService;
+import io.pivio.server.store.ChangesetStore;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.StoreUnavailableException;
+import io.pivio.server.store.WriteConflictException;
+import org.joda.time.DateTime;
 import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
@@ -26,8 +28,12 @@ import java.io.IOException;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
 
+import static io.pivio.server.BinaryJsonConfiguration.CBOR_VALUE;
+import static io.pivio.server.BinaryJsonConfiguration.SMILE_VALUE;
+
 @CrossOrigin
 @RestController
 @RequestMapping(value = "/document")
@@ -35,8 +41,11 @@ public class DocumentController {
 
     private static final Logger LOG = LoggerFactory.getLogger(DocumentController.class);
 
-    private final Client client;
-    private final ChangesetService changesetService;
+    private final DocumentStore documentStore;
+    private final ChangesetStore changesetStore;
+    private final DocumentIngest documentIngest;
+    private final DocumentHistory documentHistory;
+    private final UploadJournalService uploadJournal;
     private final ObjectMapper mapper;
     private final List<String> mandatoryFields;
 
@@ -45,70 +54,70 @@ public class DocumentController {
 
     private CounterService counterService;
 
-    public DocumentController(Client client, ChangesetService changesetService, ObjectMapper mapper, CounterService counterService) {
-        this.client = client;
-        this.changesetService = changesetService;
+    public DocumentController(DocumentStore documentStore, ChangesetStore changesetStore, DocumentIngest documentIngest,
+                              DocumentHistory documentHistory, UploadJournalService uploadJournal, ObjectMapper mapper,
+                              CounterService counterService) {
+        this.documentStore = documentStore;
+        this.changesetStore = changesetStore;
+        this.documentIngest = documentIngest;
+        this.documentHistory = documentHistory;
+        this.uploadJournal = uploadJournal;
         this.mapper = mapper;
         this.counterService = counterService;
         mandatoryFields = Arrays.asList("id", "type", "name", "owner", "description");
     }
 
-    @PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
+    @PostMapping(consumes = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE}, produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public ResponseEntity create(@RequestBody ObjectNode document, UriComponentsBuilder uriBuilder) throws IOException {
         counterService.increment("counter.calls.document.post");
+        IngestStageEvent validation = IngestStageEvent.begin("validate", document.path("id").asText(null));
+        // the validate event covers rejected uploads as well
         if (isIdMissingOrEmpty(document)) {
+            validation.finish(document.size());
             return ResponseEntity.badRequest().body(missingIdError(document));
         }
 
         if (isMandatoryFieldMissingOrEmpty(document)) {
+            validation.finish(document.size());
             return ResponseEntity.badRequest().body(missingMandatoryField(document));
         }
+        validation.finish(document.size());
 
+        IngestStageEvent nullStripping = IngestStageEvent.begin("strip-nulls", document.get("id").asText());
         removeNullNodes(document);
+        nullStripping.finish(document.size());
 
-
-        final Changeset changeset = changesetService.computeNext(document);
         final String documentId = document.get("id").asText();
-        final GetResponse persistedPivioDocument = client.prepareGet("steckbrief", "steckbrief", documentId)
-                .execute()
-                .actionGet();
-
-        final String formattedChangeTime = ISODateTimeFormat.dateTime().print(changeset.getTimestamp());
-        if (persistedPivioDocument.isExists()) {
-            JsonNode persistentPivioDocumentJson = mapper.readTree(persistedPivioDocument.getSourceAsString());
-            document.put("created", getFieldOrElse(persistentPivioDocumentJson, "created", formattedChangeTime));
-            document.put("lastUpload", ISODateTimeFormat.dateTime().print(changeset.getTimestamp()));
-            if (changeset.isEmpty()) {
-                document.put("lastUpdate", getFieldOrElse(persistentPivioDocumentJson, "lastUpdate", formattedChangeTime));
+        final DateTime uploaded = DateTime.now();
+        // a newer upload of the document must not be stored or journaled before this one is
+        return documentIngest.<ResponseEntity>withLock(documentId, () -> {
+            if (uploadJournal.hasPending(documentId)) {
+                // older uploads of the document are still waiting to be replayed and must not overwrite this one later on
+                return journal(document, uploaded, uriBuilder);
             }
-            else {
-                document.put("lastUpdate", formattedChangeTime);
+            try {
+                // ingesting adds the server managed fields, the journal has to get the upload as it was
+                documentIngest.ingest(uploadJournal.isEnabled() ? document.deepCopy() : document, uploaded);
             }
-        }
-        else {
-            document.put("created", formattedChangeTime);
-            document.put("lastUpdate", formattedChangeTime);
-            document.put("lastUpload", formattedChangeTime);
-        }
-
-        client.prepareIndex("steckbrief", "steckbrief", documentId)
-                .setSource(document.toString())
-                .execute()
-                .actionGet();
-
-        if (changeset.isNotEmpty()) {
-            client.prepareIndex("changeset", "changeset")
-                    .setSource(mapper.writeValueAsString(changeset))
-                    .setCreate(true)
-                    .execute()
-                    .actionGet();
-        }
+            catch (StoreUnavailableException e) {
+                if (!uploadJournal.isEnabled()) {
+                    throw e;
+                }
+                LOG.warn("Store unavailable, journaling upload of document {}: {}", documentId, e.getMessage());
+                return journal(document, uploaded, uriBuilder);
+            }
+            return ResponseEntity.created(uriBuilder.path("/document/{documentId}").buildAndExpand(documentId).toUri()).build();
+        });
+    }
 
-        LOG.info("Indexed document {} for {}", documentId, document.get("name").asText());
-        return ResponseEntity.created(uriBuilder.path("/document/{documentId}").buildAndExpand(documentId).toUri()).build();
+    private ResponseEntity journal(ObjectNode document, DateTime uploaded, UriComponentsBuilder uriBuilder) {
+        final String documentId = document.get("id").asText();
+        uploadJournal.append(document, uploaded);
+        LOG.info("Journaled document {} for {}", documentId, document.get("name").asText());
+        return ResponseEntity.accepted().location(uriBuilder.path("/document/{documentId}").buildAndExpand(documentId).toUri()).build();
     }
 
-    private JsonNode removeNullNodes(JsonNode node) {
+    static JsonNode removeNullNodes(JsonNode node) {
         Iterator<JsonNode> iterator = node.iterator();
         while (iterator.hasNext()) {
             JsonNode next = iterator.next();
@@ -146,15 +155,11 @@ public class DocumentController {
         return newId;
     }
 
-    private boolean isIdMissingOrEmpty(JsonNode document) {
+    boolean isIdMissingOrEmpty(JsonNode document) {
         return document.get("id") == null || StringUtils.isEmpty(document.get("id").asText(""));
     }
 
-    private String getFieldOrElse(JsonNode json, String fieldName, String defaultValue) {
-        return json.has(fieldName) ? json.get(fieldName).textValue() : defaultValue;
-    }
-
-    private boolean isMandatoryFieldMissingOrEmpty(JsonNode document) {
+    boolean isMandatoryFieldMissingOrEmpty(JsonNode document) {
         return getMissingMandatoryField(document) != null || getEmptyMandatoryField(document) != null;
     }
 
@@ -176,36 +181,81 @@ public class DocumentController {
         return null;
     }
 
-    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public ResponseEntity get(@PathVariable String id) throws IOException {
-        GetResponse getResponse = client.prepareGet("steckbrief", "steckbrief", id)
-                .execute()
-                .actionGet();
+    @GetMapping(value = "/{id}", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
+    public ResponseEntity get(@PathVariable String id, @RequestParam(required = false) String at) throws IOException {
+        if (at != null) {
+            return getAt(id, at);
+        }
 
-        if (!getResponse.isExists()) {
+        Optional<JsonNode> document = documentStore.get(id);
+        if (!document.isPresent()) {
             return ResponseEntity.notFound().build();
         }
         counterService.increment("counter.calls.document.id.get");
-        return ResponseEntity.ok(mapper.readTree(getResponse.getSourceAsString()));
+        return ResponseEntity.ok(document.get());
+    }
+
+    private ResponseEntity getAt(String id, String at) throws IOException {
+        counterService.increment("counter.calls.document.id.at.get");
+        final DateTime pointInTime;
+        try {
+            pointInTime = ISODateTimeFormat.dateTimeParser().parseDateTime(at);
+        }
+        catch (IllegalArgumentException e) {
+            LOG.info("Received document request with invalid at parameter {} for document {}", at, id);
+            return ResponseEntity.badRequest().build();
+        }
+
+        Optional<JsonNode> document = documentHistory.reconstruct(id, pointInTime);
+        if (!document.isPresent()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(document.get());
     }
 
     @DeleteMapping(value = "/{id}")
     public ResponseEntity delete(@PathVariable String id) throws IOException {
         LOG.info("Try to delete document {}", id);
         counterService.increment("counter.calls.document.id.delete");
-        if (client.prepareDelete("steckbrief", "steckbrief", id).execute().actionGet().isFound()) {
-            new DeleteByQueryRequestBuilder(client, DeleteByQueryAction.INSTANCE)
-                    .setIndices("changeset")
-                    .setTypes("changeset")
-                    .setQuery(QueryBuilders.matchQuery("document", id))
-                    .execute()
-                    .actionGet();
-            LOG.info("Deleted document {} successfully", id);
-            return ResponseEntity.noContent().build();
-        }
-        else {
-            LOG.warn("Could not delete document {}", id);
-            return ResponseEntity.notFound().build();
-        }
+        return documentIngest.<ResponseEntity>withLock(id, () -> {
+            if (uploadJournal.hasPending(id)) {
+                // journaled uploads of the document would otherwise be replayed after the deletion and bring it back
+                return journalDeletion(id);
+            }
+            final boolean deleted;
+            try {
+                deleted = documentStore.delete(id);
+            }
+            catch (StoreUnavailableException e) {
+                if (!uploadJournal.isEnabled()) {
+                    throw e;
+                }
+                LOG.warn("Store unavailable, journaling deletion of document {}: {}", id, e.getMessage());
+                return journalDeletion(id);
+            }
+            if (deleted) {
+                changesetStore.delete(id);
+                LOG.info("Deleted document {} successfully", id);
+                return ResponseEntity.noContent().build();
+            }
+            else {
+                LOG.warn("Could not delete document {}", id);
+                return ResponseEntity.notFound().build();
+            }
+        });
+    }
+
+    // the store is available, journaling the upload would only postpone the conflict
+    @ExceptionHandler(WriteConflictException.class)
+    public ResponseEntity<JsonNode> conflict(WriteConflictException e) {
+        LOG.info("Upload kept conflicting with concurrent uploads: {}", e.getMessage());
+        counterService.increment("counter.calls.document.conflict");
+        return ResponseEntity.status(HttpStatus.CONFLICT).body(mapper.createObjectNode().put("error", e.getMessage()));
+    }
+
+    private ResponseEntity journalDeletion(String id) {
+        uploadJournal.appendDeletion(id, DateTime.now());
+        LOG.info("Journaled deletion of document {}", id);
+        return ResponseEntity.accepted().build();
     }
 }
@@ -0,0 +1,240 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.RequestTrace;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.ChangesetService;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.jfr.IngestStageEvent;
+import io.pivio.server.store.ChangesetStore;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.DocumentUpload;
+import io.pivio.server.store.StoredDocument;
+import io.pivio.server.store.UploadWriter;
+import io.pivio.server.store.WriteConflictException;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Stores a validated upload together with the changeset to the previously stored version of the document, written
+ * together by the {@link UploadWriter}. Used for uploads stored right away as well as for uploads replayed from the
+ * upload journal later on.
+ * <p>
+ * Concurrent uploads of the same document are serialized by one of {@code pivio.ingest.lock-stripes} locks, chosen
+ * by the document id, so uploads of other documents do not wait for each other. Uploads to other instances are not
+ * covered by the locks; they are detected by the {@link UploadWriter} as {@link WriteConflictException}, and the
+ * upload is computed again on top of the stored document up to {@code pivio.ingest.conflict-retries} times.
+ * <p>
+ * The stored document and the order of its latest changeset are read concurrently, the latter on one of
+ * {@code pivio.ingest.read-threads} threads. The duration of each stage is submitted as {@code timer.ingest.*} metric.
+ */
+@Component
+public class DocumentIngest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentIngest.class);
+
+    private final DocumentStore documentStore;
+    private final ChangesetStore changesetStore;
+    private final ChangesetService changesetService;
+    private final DocumentHistory documentHistory;
+    private final UploadWriter uploadWriter;
+    private final CounterService counterService;
+    private final GaugeService gaugeService;
+    private final ExecutorService readExecutor;
+    private final ReentrantLock[] locks;
+    private final int conflictRetries;
+
+    public DocumentIngest(DocumentStore documentStore, ChangesetStore changesetStore, ChangesetService changesetService,
+                          DocumentHistory documentHistory, UploadWriter uploadWriter, CounterService counterService,
+                          GaugeService gaugeService, Environment environment) {
+        this.documentStore = documentStore;
+        this.changesetStore = changesetStore;
+        this.changesetService = changesetService;
+        this.documentHistory = documentHistory;
+        this.uploadWriter = uploadWriter;
+        this.counterService = counterService;
+        this.gaugeService = gaugeService;
+        this.readExecutor = Executors.newFixedThreadPool(environment.getProperty("pivio.ingest.read-threads", Integer.class, 16), runnable -> {
+            Thread thread = new Thread(runnable, "ingest-read");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.locks = new ReentrantLock[environment.getProperty("pivio.ingest.lock-stripes", Integer.class, 256)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        this.conflictRetries = environment.getProperty("pivio.ingest.conflict-retries", Integer.class, 3);
+    }
+
+    @PreDestroy
+    public void stop() {
+        readExecutor.shutdownNow();
+    }
+
+    /**
+     * @param uploaded time the document has been uploaded, used for the changeset and the server managed fields
+     * @throws WriteConflictException if the document kept being changed concurrently
+     */
+    public void ingest(ObjectNode document, DateTime uploaded) throws IOException {
+        final String documentId = document.get("id").asText();
+        final ReentrantLock lock = lockOf(documentId);
+        lock.lock();
+        try {
+            for (int attempt = 0; ; attempt++) {
+                // server managed fields are set on the upload, so every attempt starts from the upload as received
+                ObjectNode attempted = attempt < conflictRetries ? document.deepCopy() : document;
+                try {
+                    write(documentId, attempted, uploaded);
+                    return;
+                }
+                catch (WriteConflictException e) {
+                    counterService.increment("counter.ingest.conflict");
+                    if (attempt >= conflictRetries) {
+                        throw e;
+                    }
+                    LOG.debug("Retrying upload of document {}: {}", documentId, e.getMessage());
+                }
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs the action holding the lock of the document, so no other upload of the document is ingested meanwhile. The
+     * action may ingest the document itself.
+     */
+    public <T> T withLock(String documentId, LockedAction<T> action) throws IOException {
+        final ReentrantLock lock = lockOf(documentId);
+        lock.lock();
+        try {
+            return action.run();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private ReentrantLock lockOf(String documentId) {
+        return locks[Math.floorMod(documentId.hashCode(), locks.length)];
+    }
+
+    private void write(String documentId, ObjectNode document, DateTime uploaded) throws IOException {
+        IngestStageEvent readEvent = IngestStageEvent.begin("read", documentId);
+        long started = System.nanoTime();
+        final CompletableFuture<Long> lastOrder = CompletableFuture.supplyAsync(
+                RequestTrace.propagate(() -> readLastOrder(documentId, started)), readExecutor);
+        final Optional<StoredDocument> persistedPivioDocument;
+        try {
+            persistedPivioDocument = documentStore.getStored(documentId);
+        }
+        catch (IOException | RuntimeException e) {
+            lastOrder.cancel(true);
+            throw e;
+        }
+        submitTiming("read.document", started);
+        final long lastStoredOrder = join(lastOrder);
+        submitTiming("read", started);
+        readEvent.finish(persistedPivioDocument.map(stored -> stored.getDocument().size()).orElse(0));
+
+        IngestStageEvent diffEvent = IngestStageEvent.begin("diff", documentId);
+        long diffStarted = System.nanoTime();
+        final Changeset changeset = changesetService.computeNext(document, persistedPivioDocument.map(StoredDocument::getDocument),
+                lastStoredOrder, uploaded);
+        submitTiming("diff", diffStarted);
+        diffEvent.finish(changeset.getFields().size());
+
+        final String formattedChangeTime = ISODateTimeFormat.dateTime().print(changeset.getTimestamp());
+        if (persistedPivioDocument.isPresent()) {
+            JsonNode persistentPivioDocumentJson = persistedPivioDocument.get().getDocument();
+            document.put("created", getFieldOrElse(persistentPivioDocumentJson, "created", formattedChangeTime));
+            document.put("lastUpload", ISODateTimeFormat.dateTime().print(changeset.getTimestamp()));
+            if (changeset.isEmpty()) {
+                document.put("lastUpdate", getFieldOrElse(persistentPivioDocumentJson, "lastUpdate", formattedChangeTime));
+            }
+            else {
+                document.put("lastUpdate", formattedChangeTime);
+            }
+        }
+        else {
+            document.put("created", formattedChangeTime);
+            document.put("lastUpdate", formattedChangeTime);
+            document.put("lastUpload", formattedChangeTime);
+        }
+
+        IngestStageEvent writeEvent = IngestStageEvent.begin("write", documentId);
+        long writeStarted = System.nanoTime();
+        if (changeset.isNotEmpty()) {
+            uploadWriter.write(new DocumentUpload(documentId, document, persistedPivioDocument.orElse(null), changeset,
+                    documentHistory.snapshotIfDue(changeset, document).orElse(null)));
+        }
+        else {
+            uploadWriter.write(new DocumentUpload(documentId, document, persistedPivioDocument.orElse(null), null, null));
+        }
+        submitTiming("write", writeStarted);
+        writeEvent.finish(changeset.getFields().size());
+
+        LOG.info("Indexed document {} for {}", documentId, document.get("name").asText());
+    }
+
+    private long readLastOrder(String documentId, long started) {
+        try {
+            return changesetStore.lastOrder(documentId);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        finally {
+            submitTiming("read.last-order", started);
+        }
+    }
+
+    private static long join(CompletableFuture<Long> future) throws IOException {
+        try {
+            return future.join();
+        }
+        catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private void submitTiming(String stage, long started) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+        gaugeService.submit("timer.ingest." + stage, millis);
+        RequestTrace.recordStage("ingest." + stage, millis);
+    }
+
+    private String getFieldOrElse(JsonNode json, String fieldName, String defaultValue) {
+        return json.has(fieldName) ? json.get(fieldName).textValue() : defaultValue;
+    }
+
+    public interface LockedAction<T> {
+
+        T run() throws IOException;
+    }
+}
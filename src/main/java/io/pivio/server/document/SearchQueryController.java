@@ -3,15 +3,12 @@ package io.pivio.server.document;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.pivio.server.RequestTrace;
+import io.pivio.server.jfr.SearchStageEvent;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.InvalidQueryException;
+import io.pivio.server.store.SortField;
 import org.apache.commons.lang3.StringUtils;
-import org.elasticsearch.ElasticsearchException;
-import org.elasticsearch.action.search.SearchRequestBuilder;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.Client;
-import org.elasticsearch.common.unit.TimeValue;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.actuate.metrics.CounterService;
@@ -23,9 +20,14 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static io.pivio.server.BinaryJsonConfiguration.CBOR_VALUE;
+import static io.pivio.server.BinaryJsonConfiguration.SMILE_VALUE;
 
 @CrossOrigin
 @RestController
@@ -33,19 +35,22 @@ public class SearchQueryController {
 
     private static final Logger LOG = LoggerFactory.getLogger(SearchQueryController.class);
 
-    private final Client client;
+    private final DocumentStore documentStore;
     private final ObjectMapper mapper;
     private final FieldFilter fieldFilter;
+    private final SlowSearchLog slowSearchLog;
     private final CounterService counterService;
 
-    public SearchQueryController(Client client, ObjectMapper mapper, FieldFilter fieldFilter, CounterService counterService) {
-        this.client = client;
+    public SearchQueryController(DocumentStore documentStore, ObjectMapper mapper, FieldFilter fieldFilter, SlowSearchLog slowSearchLog,
+                                 CounterService counterService) {
+        this.documentStore = documentStore;
         this.mapper = mapper;
         this.fieldFilter = fieldFilter;
+        this.slowSearchLog = slowSearchLog;
         this.counterService = counterService;
     }
 
-    @GetMapping(value = "/document", produces = MediaType.APPLICATION_JSON_VALUE)
+    @GetMapping(value = "/document", produces = {MediaType.APPLICATION_JSON_VALUE, SMILE_VALUE, CBOR_VALUE})
     public JsonNode search(@RequestParam(required = false) String query,
                            @RequestParam(required = false) String fields,
                            @RequestParam(required = false) String sort,
@@ -58,28 +63,21 @@ public class SearchQueryController {
             return null;
         }
 
-        final SearchRequestBuilder searchRequest = client.prepareSearch("steckbrief")
-                .setTypes("steckbrief")
-                .setScroll(new TimeValue(60000))
-                .setSize(100);
-
-        if (StringUtils.isNotBlank(query)) {
-            searchRequest.setQuery(query);
-        }
-        else {
-            searchRequest.setQuery(QueryBuilders.matchAllQuery());
-        }
-
+        final List<SortField> sortFields = new ArrayList<>();
         if (sort != null) {
             String[] sortPairs = sort.split(",");
             for (String sortPair : sortPairs) {
                 String[] sortPairConfig = sortPair.split(":");
-                searchRequest.addSort(sortPairConfig[0], "asc".equalsIgnoreCase(sortPairConfig[1]) ? SortOrder.ASC : SortOrder.DESC);
+                sortFields.add(new SortField(sortPairConfig[0], "asc".equalsIgnoreCase(sortPairConfig[1])));
             }
         }
 
         try {
-            SearchResponse searchResponse = searchRequest.execute().actionGet();
+            long started = System.nanoTime();
+            List<JsonNode> documents = documentStore.search(StringUtils.isNotBlank(query) ? query : null, sortFields);
+            RequestTrace.recordStage("search.query", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+            long filterStarted = System.nanoTime();
+            SearchStageEvent filterEvent = SearchStageEvent.begin("filter-fields");
             List<String> filterForFields = new LinkedList<>();
             if (fields != null && fields.split(",").length > 0) {
                 filterForFields.addAll(Arrays.asList(fields.split(",")));
@@ -87,25 +85,21 @@ public class SearchQueryController {
             }
 
             ArrayNode searchResult = mapper.createArrayNode();
-            while (true) {
-                for (SearchHit searchHit : searchResponse.getHits().getHits()) {
-                    JsonNode document = mapper.readTree(searchHit.getSourceAsString());
-                    if (filterForFields.isEmpty()) {
-                        searchResult.add(document);
-                    }
-                    else {
-                        searchResult.add(fieldFilter.filterFields(document, filterForFields));
-                    }
+            for (JsonNode document : documents) {
+                if (filterForFields.isEmpty()) {
+                    searchResult.add(document);
                 }
-                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)).execute().actionGet();
-                if (searchResponse.getHits().getHits().length == 0) {
-                    break;
+                else {
+                    searchResult.add(fieldFilter.filterFields(document, filterForFields));
                 }
             }
+            filterEvent.finish(searchResult.size(), 0);
+            RequestTrace.recordStage("search.filter-fields", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - filterStarted));
+            slowSearchLog.record(query, fields, sort, documents.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
             return searchResult;
         }
-        catch (ElasticsearchException e) {
-            LOG.error("Could not execute search successfully, search request for ES: " + searchRequest.toString(), e);
+        catch (InvalidQueryException e) {
+            LOG.error("Could not execute search successfully, query: " + query + ", sort: " + sort, e);
             response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             return null;
         }
@@ -0,0 +1,59 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+import io.pivio.server.jfr.SearchStageEvent;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.AbstractJackson2HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+import java.io.IOException;
+
+/**
+ * Records writing search results as {@code serialize} {@link SearchStageEvent}. Results are wrapped, so the event
+ * covers exactly the serialization by Jackson and not the rest of the request.
+ */
+@ControllerAdvice(assignableTypes = SearchQueryController.class)
+class SearchSerializationEventAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return AbstractJackson2HttpMessageConverter.class.isAssignableFrom(converterType);
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        return body instanceof JsonNode ? new SerializationRecordingNode((JsonNode) body) : body;
+    }
+
+    private static final class SerializationRecordingNode implements JsonSerializable {
+
+        private final JsonNode node;
+
+        private SerializationRecordingNode(JsonNode node) {
+            this.node = node;
+        }
+
+        @Override
+        public void serialize(JsonGenerator generator, SerializerProvider serializers) throws IOException {
+            SearchStageEvent event = SearchStageEvent.begin("serialize");
+            node.serialize(generator, serializers);
+            event.finish(node.size(), 0);
+        }
+
+        @Override
+        public void serializeWithType(JsonGenerator generator, SerializerProvider serializers, TypeSerializer typeSerializer) throws IOException {
+            serialize(generator, serializers);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import io.pivio.server.RequestTrace;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Records the cost of searches by fingerprint: the query with all values replaced by {@code ?} and its keys sorted,
+ * together with the requested fields and sort. Searches taking at least {@code pivio.search.slow-threshold}
+ * milliseconds are logged to the {@code pivio.slow-searches} logger. Costs of all searches are kept per minute for
+ * the last {@code pivio.search.stats-window} minutes, for at most {@code pivio.search.max-fingerprints} fingerprints per
+ * minute, and listed by {@link SlowSearchesEndpoint}.
+ */
+@Component
+public class SlowSearchLog {
+
+    private static final Logger SLOW_SEARCH_LOG = LoggerFactory.getLogger("pivio.slow-searches");
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ObjectMapper mapper;
+    private final LongSupplier clock;
+    private final long slowThresholdMillis;
+    private final int windowMinutes;
+    private final int maxFingerprints;
+    private final Deque<Bucket> buckets = new ArrayDeque<>();
+
+    @Autowired
+    public SlowSearchLog(ObjectMapper mapper, Environment environment) {
+        this(mapper, environment, System::currentTimeMillis);
+    }
+
+    SlowSearchLog(ObjectMapper mapper, Environment environment, LongSupplier clock) {
+        this.mapper = mapper;
+        this.clock = clock;
+        this.slowThresholdMillis = environment.getProperty("pivio.search.slow-threshold", Long.class, 500L);
+        this.windowMinutes = environment.getProperty("pivio.search.stats-window", Integer.class, 15);
+        this.maxFingerprints = environment.getProperty("pivio.search.max-fingerprints", Integer.class, 1000);
+    }
+
+    /**
+     * Records a search executed on the current thread; Elasticsearch figures are taken from its {@link RequestTrace}.
+     */
+    public void record(String query, String fields, String sort, int hits, long serverMillis) {
+        String fingerprint = fingerprint(query, fields, sort);
+        long tookMillis = RequestTrace.current().map(RequestTrace::elasticsearchTookMillis).orElse(0L);
+        int pages = RequestTrace.current().map(trace -> trace.roundTrips("search", "scroll")).orElse(0);
+
+        if (serverMillis >= slowThresholdMillis) {
+            SLOW_SEARCH_LOG.warn("{} took {}ms (Elasticsearch took {}ms, {} pages), {} hits", fingerprint, serverMillis, tookMillis, pages, hits);
+        }
+
+        long minute = clock.getAsLong() / MINUTE_MILLIS;
+        synchronized (buckets) {
+            if (buckets.isEmpty() || buckets.getLast().minute != minute) {
+                buckets.addLast(new Bucket(minute));
+            }
+            evictBefore(minute - windowMinutes + 1);
+            Map<String, Stats> stats = buckets.getLast().stats;
+            if (stats.containsKey(fingerprint) || stats.size() < maxFingerprints) {
+                stats.computeIfAbsent(fingerprint, Stats::new).add(serverMillis, tookMillis, hits, pages);
+            }
+        }
+    }
+
+    /**
+     * @return fingerprints with the highest total server time within the window, most expensive first
+     */
+    public List<Stats> top(int n) {
+        Map<String, Stats> merged = new HashMap<>();
+        synchronized (buckets) {
+            evictBefore(clock.getAsLong() / MINUTE_MILLIS - windowMinutes + 1);
+            for (Bucket bucket : buckets) {
+                bucket.stats.values().forEach(stats -> merged.computeIfAbsent(stats.fingerprint, Stats::new).add(stats));
+            }
+        }
+        return merged.values().stream()
+                .sorted(Comparator.comparingLong(Stats::getTotalMillis).reversed())
+                .limit(n)
+                .collect(Collectors.toList());
+    }
+
+    private void evictBefore(long minute) {
+        for (Iterator<Bucket> iterator = buckets.iterator(); iterator.hasNext(); ) {
+            if (iterator.next().minute < minute) {
+                iterator.remove();
+            }
+        }
+    }
+
+    String fingerprint(String query, String fields, String sort) {
+        StringBuilder fingerprint = new StringBuilder("query=");
+        if (query == null || query.trim().isEmpty()) {
+            fingerprint.append("*");
+        }
+        else {
+            try {
+                fingerprint.append(normalize(mapper.readTree(query)));
+            }
+            catch (IOException e) {
+                fingerprint.append("invalid");
+            }
+        }
+        if (fields != null) {
+            String[] sortedFields = fields.split(",");
+            Arrays.sort(sortedFields);
+            fingerprint.append(" fields=").append(String.join(",", sortedFields));
+        }
+        if (sort != null) {
+            fingerprint.append(" sort=").append(sort.toLowerCase());
+        }
+        return fingerprint.toString();
+    }
+
+    /**
+     * Replaces all values by {@code ?} and sorts object keys, so queries differing only in values or key order share
+     * a fingerprint. Arrays of values, e.g. of {@code terms}, are collapsed to one value, as their length varies too.
+     */
+    private JsonNode normalize(JsonNode node) {
+        if (node.isObject()) {
+            ObjectNode normalized = mapper.createObjectNode();
+            Map<String, JsonNode> sorted = new TreeMap<>();
+            node.fields().forEachRemaining(field -> sorted.put(field.getKey(), normalize(field.getValue())));
+            normalized.setAll(sorted);
+            return normalized;
+        }
+        if (node.isArray()) {
+            ArrayNode normalized = mapper.createArrayNode();
+            for (JsonNode element : node) {
+                JsonNode normalizedElement = normalize(element);
+                if (!normalizedElement.isValueNode() || normalized.size() == 0) {
+                    normalized.add(normalizedElement);
+                }
+            }
+            return normalized;
+        }
+        return TextNode.valueOf("?");
+    }
+
+    private static final class Bucket {
+
+        private final long minute;
+        private final Map<String, Stats> stats = new HashMap<>();
+
+        private Bucket(long minute) {
+            this.minute = minute;
+        }
+    }
+
+    /**
+     * Costs of the searches sharing a fingerprint.
+     */
+    public static final class Stats {
+
+        private final String fingerprint;
+        private long count;
+        private long totalMillis;
+        private long maxMillis;
+        private long tookMillis;
+        private long hits;
+        private long pages;
+
+        private Stats(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        private void add(long serverMillis, long tookMillis, int hits, int pages) {
+            this.count++;
+            this.totalMillis += serverMillis;
+            this.maxMillis = Math.max(this.maxMillis, serverMillis);
+            this.tookMillis += tookMillis;
+            this.hits += hits;
+            this.pages += pages;
+        }
+
+        private void add(Stats other) {
+            this.count += other.count;
+            this.totalMillis += other.totalMillis;
+            this.maxMillis = Math.max(this.maxMillis, other.maxMillis);
+            this.tookMillis += other.tookMillis;
+            this.hits += other.hits;
+            this.pages += other.pages;
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalMillis() {
+            return totalMillis;
+        }
+
+        public long getMaxMillis() {
+            return maxMillis;
+        }
+
+        public long getAverageMillis() {
+            return totalMillis / count;
+        }
+
+        public long getAverageTookMillis() {
+            return tookMillis / count;
+        }
+
+        public long getAverageHits() {
+            return hits / count;
+        }
+
+        public long getAveragePages() {
+            return pages / count;
+        }
+    }
+}
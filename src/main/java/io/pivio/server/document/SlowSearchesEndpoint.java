@@ -0,0 +1,29 @@
+package io.pivio.server.document;
+
+import org.springframework.boot.actuate.endpoint.AbstractEndpoint;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Lists the {@code pivio.search.top} (20 by default) most expensive search fingerprints recorded by
+ * {@link SlowSearchLog} at {@code /slowsearches}.
+ */
+@Component
+public class SlowSearchesEndpoint extends AbstractEndpoint<List<SlowSearchLog.Stats>> {
+
+    private final SlowSearchLog slowSearchLog;
+    private final int top;
+
+    public SlowSearchesEndpoint(SlowSearchLog slowSearchLog, Environment environment) {
+        super("slowsearches");
+        this.slowSearchLog = slowSearchLog;
+        this.top = environment.getProperty("pivio.search.top", Integer.class, 20);
+    }
+
+    @Override
+    public List<SlowSearchLog.Stats> invoke() {
+        return slowSearchLog.top(top);
+    }
+}
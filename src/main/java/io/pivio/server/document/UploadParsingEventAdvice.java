@@ -0,0 +1,93 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.pivio.server.jfr.IngestStageEvent;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+
+/**
+ * Records parsing the body of uploads as {@code parse} {@link IngestStageEvent}, with the size of the body as read.
+ */
+@ControllerAdvice(assignableTypes = DocumentController.class)
+class UploadParsingEventAdvice extends RequestBodyAdviceAdapter {
+
+    @Override
+    public boolean supports(MethodParameter methodParameter, Type targetType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public HttpInputMessage beforeBodyRead(HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                           Class<? extends HttpMessageConverter<?>> converterType) throws IOException {
+        return new CountingInputMessage(inputMessage);
+    }
+
+    @Override
+    public Object afterBodyRead(Object body, HttpInputMessage inputMessage, MethodParameter parameter, Type targetType,
+                                Class<? extends HttpMessageConverter<?>> converterType) {
+        if (inputMessage instanceof CountingInputMessage && body instanceof JsonNode) {
+            CountingInputMessage counted = (CountingInputMessage) inputMessage;
+            JsonNode document = (JsonNode) body;
+            counted.event.finish(document.path("id").asText(null), counted.body.count, document.size());
+        }
+        return body;
+    }
+
+    private static final class CountingInputMessage implements HttpInputMessage {
+
+        private final HttpInputMessage inputMessage;
+        private final IngestStageEvent event = IngestStageEvent.begin("parse", null);
+        private final CountingInputStream body;
+
+        private CountingInputMessage(HttpInputMessage inputMessage) throws IOException {
+            this.inputMessage = inputMessage;
+            this.body = new CountingInputStream(inputMessage.getBody());
+        }
+
+        @Override
+        public InputStream getBody() {
+            return body;
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return inputMessage.getHeaders();
+        }
+    }
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
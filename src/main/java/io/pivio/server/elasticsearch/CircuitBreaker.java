@@ -0,0 +1,95 @@
+package io.pivio.server.elasticsearch;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a failing service for a while. After {@code failureThreshold} consecutive failures the breaker opens
+ * and rejects all calls. Once {@code openDurationMillis} have passed a single probe call is let through: if it
+ * succeeds the breaker closes again, otherwise it stays open for another period.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openDurationMillis;
+    private final LongSupplier clock;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+
+    CircuitBreaker(int failureThreshold, long openDurationMillis, LongSupplier clock) {
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDurationMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether a call may be made; every permitted call has to be followed by {@link #onSuccess()},
+     * {@link #onFailure()} or {@link #onNotExecuted()}
+     */
+    synchronized boolean tryAcquirePermission() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (clock.getAsLong() - openedAt < openDurationMillis) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            default:
+                if (probeInFlight) {
+                    return false;
+                }
+                probeInFlight = true;
+                return true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        probeInFlight = false;
+    }
+
+    /**
+     * @return whether the breaker has been opened by this failure
+     */
+    synchronized boolean onFailure() {
+        probeInFlight = false;
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            state = State.OPEN;
+            openedAt = clock.getAsLong();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Gives back a permission that was not used, e.g. because the call has been rejected by a bulkhead.
+     */
+    synchronized void onNotExecuted() {
+        probeInFlight = false;
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return milliseconds until the next probe call will be permitted, 0 if the breaker is not open
+     */
+    synchronized long getRetryAfterMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, openedAt + openDurationMillis - clock.getAsLong());
+    }
+}
@@ -0,0 +1,441 @@
+package io.pivio.server.elasticsearch;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Documents are stored in versioned indices like {@code steckbrief_v2}, addressed through the alias {@code steckbrief}.
+ * Changes to {@code settings.json} or {@code mapping.json} which Elasticsearch cannot apply to an existing index are
+ * adopted by reindexing into the next version in the background: the documents are copied with scroll and bulk
+ * requests while uploads are written to both indices (see {@link ElasticsearchDocumentStore}), then the alias is moved
+ * to the new index in one atomic request. The previous index is kept, so it can be switched back to by hand; it can be
+ * deleted once the new one works as expected.
+ * <p>
+ * Copied documents keep their version and are written with external versioning, so a copy never overwrites a newer
+ * upload written to the new index meanwhile.
+ * <p>
+ * Installations set up before the alias was introduced have a concrete index named {@code steckbrief}. It is replaced
+ * on the first reindex, but as an index cannot be renamed it has to be deleted before the alias can take its name. In
+ * between, the {@link ElasticsearchGuard} is paused and the old index is blocked for writes, so requests are answered
+ * with {@code 503 Service Unavailable} for a moment and no upload can create a new concrete index in place of the alias.
+ * Other instances are not paused, though: if one of them creates a new concrete index meanwhile, its documents are
+ * moved to the new index and it is deleted before the alias is added again. As the old index is gone then, the new one
+ * is never deleted on failure in this case.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class DocumentIndexReindexer {
+
+    public static final String ALIAS = "steckbrief";
+    private static final String TYPE = "steckbrief";
+    private static final int ALIAS_ATTEMPTS = 3;
+    private static final Pattern VERSIONED_INDEX = Pattern.compile(Pattern.quote(ALIAS) + "_v(\\d+)");
+
+    private static final Logger LOG = LoggerFactory.getLogger(DocumentIndexReindexer.class);
+
+    public enum State {
+        COPYING, SWITCHING_ALIAS, COMPLETED, FAILED
+    }
+
+    private final Client client;
+    private final ElasticsearchGuard guard;
+    private final int batchSize;
+    private final long pauseTimeoutMillis;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "document-reindex");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Set<String> deletedWhileCopying = ConcurrentHashMap.newKeySet();
+    private volatile String dualWriteIndex;
+    private volatile Progress progress;
+
+    public DocumentIndexReindexer(Client client, ElasticsearchGuard guard, Environment environment) {
+        this.client = client;
+        this.guard = guard;
+        this.batchSize = environment.getProperty("pivio.reindex.batch-size", Integer.class, 500);
+        this.pauseTimeoutMillis = environment.getProperty("pivio.elasticsearch.write.timeout", Long.class, 10000L);
+    }
+
+    @PreDestroy
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Creates the first versioned index and points the alias to it, unless the documents already have an index.
+     */
+    public void createIndexIfMissing() {
+        if (client.admin().indices().prepareExists(ALIAS).get().isExists()) {
+            return;
+        }
+        String index = versionedIndex(1);
+        createIndex(index);
+        client.admin().indices().prepareAliases().addAlias(index, ALIAS).get();
+        LOG.info("Created index {} for alias {}", index, ALIAS);
+    }
+
+    /**
+     * Starts to reindex all documents into a new index created with the current settings and mapping.
+     *
+     * @throws IllegalStateException if a reindex is running already
+     */
+    public synchronized Progress start() {
+        if (progress != null && progress.isRunning()) {
+            throw new IllegalStateException("documents are being reindexed from " + progress.source + " to " + progress.target + " already");
+        }
+        String source = currentIndex().orElseThrow(() -> new IllegalStateException("there is no index for alias " + ALIAS));
+        String target = versionedIndex(latestVersion() + 1);
+        createIndex(target);
+
+        deletedWhileCopying.clear();
+        dualWriteIndex = target;
+        Progress started = new Progress(source, target);
+        progress = started;
+        LOG.info("Reindexing documents from {} to {}", source, target);
+        executor.execute(() -> reindex(started));
+        return started;
+    }
+
+    /**
+     * @return progress of the running or last reindex since startup
+     */
+    public Optional<Progress> getProgress() {
+        return Optional.ofNullable(progress);
+    }
+
+    /**
+     * @return the index uploads have to be written to in addition to the alias, while documents are being copied
+     */
+    public Optional<String> getDualWriteIndex() {
+        return Optional.ofNullable(dualWriteIndex);
+    }
+
+    /**
+     * Remembers a document deleted while copying, as the copy may still write it to the new index afterwards.
+     */
+    public void deletedWhileCopying(String id) {
+        deletedWhileCopying.add(id);
+    }
+
+    private void reindex(Progress progress) {
+        try {
+            // uploads written before the dual writes started have to be visible to the scroll
+            client.admin().indices().prepareRefresh(progress.source).get();
+            copy(progress);
+            removeDeletedWhileCopying(progress);
+            client.admin().indices().prepareRefresh(progress.target).get();
+
+            progress.state = State.SWITCHING_ALIAS;
+            switchAlias(progress.source, progress.target);
+            stopDualWrites();
+            progress.finished(State.COMPLETED, null);
+            LOG.info("Reindexed {} documents from {} to {}", progress.copied.get(), progress.source, progress.target);
+        }
+        catch (RuntimeException e) {
+            LOG.error("Could not reindex documents from " + progress.source + " to " + progress.target, e);
+            stopDualWrites();
+            deleteIncompleteIndex(progress);
+            progress.finished(State.FAILED, e.getMessage());
+        }
+    }
+
+    // before the progress is finished, as a reindex started right afterwards sets up its own dual writes
+    private void stopDualWrites() {
+        dualWriteIndex = null;
+        deletedWhileCopying.clear();
+    }
+
+    private void copy(Progress progress) {
+        SearchResponse searchResponse = client.prepareSearch(progress.source)
+                .setTypes(TYPE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setVersion(true)
+                .setScroll(new TimeValue(60000))
+                .setSize(batchSize)
+                .get();
+        progress.total = searchResponse.getHits().getTotalHits();
+        while (searchResponse.getHits().getHits().length > 0) {
+            BulkRequestBuilder bulkRequest = client.prepareBulk();
+            for (SearchHit searchHit : searchResponse.getHits().getHits()) {
+                bulkRequest.add(client.prepareIndex(progress.target, TYPE, searchHit.getId())
+                        .setSource(searchHit.getSourceAsString())
+                        .setVersion(searchHit.getVersion())
+                        .setVersionType(VersionType.EXTERNAL));
+            }
+            BulkResponse bulkResponse = bulkRequest.get();
+            for (BulkItemResponse item : bulkResponse.getItems()) {
+                if (!item.isFailed()) {
+                    progress.copied.incrementAndGet();
+                }
+                else if (item.getFailure().getStatus() == RestStatus.CONFLICT) {
+                    // a newer version has been uploaded meanwhile
+                    progress.skipped.incrementAndGet();
+                }
+                else {
+                    throw new IllegalStateException("could not copy document " + item.getId() + ": " + item.getFailureMessage());
+                }
+            }
+            searchResponse = client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)).get();
+        }
+    }
+
+    private void removeDeletedWhileCopying(Progress progress) {
+        for (String id : deletedWhileCopying) {
+            if (!client.prepareGet(progress.source, TYPE, id).get().isExists()) {
+                client.prepareDelete(progress.target, TYPE, id).get();
+            }
+        }
+    }
+
+    private void switchAlias(String source, String target) {
+        if (ALIAS.equals(source)) {
+            replaceConcreteIndex(target);
+            return;
+        }
+        client.admin().indices().prepareAliases()
+                .removeAlias(source, ALIAS)
+                .addAlias(target, ALIAS)
+                .get();
+    }
+
+    /**
+     * No request may reach Elasticsearch between deleting the concrete index and adding the alias: an upload would
+     * create a new concrete index, and adding the alias would fail.
+     */
+    private void replaceConcreteIndex(String target) {
+        LOG.info("Replacing index {} by alias for {}", ALIAS, target);
+        boolean deleted = false;
+        try {
+            if (!guard.pause(pauseTimeoutMillis)) {
+                throw new IllegalStateException("requests to Elasticsearch did not finish within " + pauseTimeoutMillis + " ms");
+            }
+            // in case a request not passing the guard is still on its way
+            setWriteBlock(true);
+            client.admin().indices().prepareDelete(ALIAS).get();
+            deleted = true;
+            addAliasReplacingRecreatedIndex(target);
+        }
+        catch (RuntimeException e) {
+            if (!deleted) {
+                try {
+                    setWriteBlock(false);
+                }
+                catch (RuntimeException unblockFailure) {
+                    e.addSuppressed(unblockFailure);
+                }
+            }
+            throw e;
+        }
+        finally {
+            guard.resume();
+        }
+    }
+
+    /**
+     * The guard only pauses requests of this instance: an upload to another instance right after the delete makes
+     * Elasticsearch create a new concrete index, and adding the alias fails. Its documents are moved to the target,
+     * which they are newer than, and it is deleted before adding the alias again.
+     */
+    private void addAliasReplacingRecreatedIndex(String target) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                client.admin().indices().prepareAliases().addAlias(target, ALIAS).get();
+                return;
+            }
+            catch (RuntimeException e) {
+                if (attempt >= ALIAS_ATTEMPTS || !currentIndex().filter(ALIAS::equals).isPresent()) {
+                    throw e;
+                }
+                LOG.warn("Index {} has been created again, probably by an upload to another instance, moving its documents to {}",
+                        ALIAS, target);
+                setWriteBlock(true);
+                moveRecreatedDocuments(target);
+                client.admin().indices().prepareDelete(ALIAS).get();
+            }
+        }
+    }
+
+    // without versioning, as the versions of the recreated index start anew although its documents are the newest
+    private void moveRecreatedDocuments(String target) {
+        client.admin().indices().prepareRefresh(ALIAS).get();
+        SearchResponse searchResponse = client.prepareSearch(ALIAS)
+                .setTypes(TYPE)
+                .setQuery(QueryBuilders.matchAllQuery())
+                .setScroll(new TimeValue(60000))
+                .setSize(batchSize)
+                .get();
+        while (searchResponse.getHits().getHits().length > 0) {
+            BulkRequestBuilder bulkRequest = client.prepareBulk();
+            for (SearchHit searchHit : searchResponse.getHits().getHits()) {
+                bulkRequest.add(client.prepareIndex(target, TYPE, searchHit.getId()).setSource(searchHit.getSourceAsString()));
+            }
+            BulkResponse bulkResponse = bulkRequest.get();
+            if (bulkResponse.hasFailures()) {
+                throw new IllegalStateException("could not move documents of recreated index " + ALIAS + ": "
+                        + bulkResponse.buildFailureMessage());
+            }
+            searchResponse = client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)).get();
+        }
+    }
+
+    private void setWriteBlock(boolean blocked) {
+        client.admin().indices().prepareUpdateSettings(ALIAS).setSettings(Collections.singletonMap("index.blocks.write", blocked)).get();
+    }
+
+    private void deleteIncompleteIndex(Progress progress) {
+        if (ALIAS.equals(progress.source)) {
+            LOG.error("Kept index {} as the documents may only be stored there, check the indices and the alias {} manually",
+                    progress.target, ALIAS);
+            return;
+        }
+        try {
+            if (currentIndex().filter(progress.source::equals).isPresent()) {
+                client.admin().indices().prepareDelete(progress.target).get();
+            }
+            else {
+                LOG.error("Alias {} does not point to {} anymore, check the indices and the alias manually", ALIAS, progress.source);
+            }
+        }
+        catch (RuntimeException e) {
+            LOG.warn("Could not delete incompletely reindexed index {}", progress.target, e);
+        }
+    }
+
+    private Optional<String> currentIndex() {
+        ImmutableOpenMap<String, List<AliasMetaData>> aliases = client.admin().indices().prepareGetAliases(ALIAS).get().getAliases();
+        for (Iterator<String> indices = aliases.keysIt(); indices.hasNext(); ) {
+            String index = indices.next();
+            if (!aliases.get(index).isEmpty()) {
+                return Optional.of(index);
+            }
+        }
+        if (client.admin().indices().prepareExists(ALIAS).get().isExists()) {
+            return Optional.of(ALIAS);
+        }
+        return Optional.empty();
+    }
+
+    private int latestVersion() {
+        int latest = 0;
+        for (String index : client.admin().cluster().prepareState().get().getState().getMetaData().getConcreteAllIndices()) {
+            Matcher matcher = VERSIONED_INDEX.matcher(index);
+            if (matcher.matches()) {
+                latest = Math.max(latest, Integer.parseInt(matcher.group(1)));
+            }
+        }
+        return latest;
+    }
+
+    private void createIndex(String index) {
+        client.admin().indices().prepareCreate(index)
+                .setSettings(ElasticsearchTemplate.readFileFromClasspath("settings.json"))
+                .addMapping(TYPE, ElasticsearchTemplate.readFileFromClasspath("mapping.json"))
+                .get();
+    }
+
+    private static String versionedIndex(int version) {
+        return ALIAS + "_v" + version;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static final class Progress {
+
+        private final String source;
+        private final String target;
+        private final DateTime started = DateTime.now();
+        private final AtomicLong copied = new AtomicLong();
+        private final AtomicLong skipped = new AtomicLong();
+        private volatile long total;
+        private volatile State state = State.COPYING;
+        private volatile DateTime finished;
+        private volatile String error;
+
+        private Progress(String source, String target) {
+            this.source = source;
+            this.target = target;
+        }
+
+        private void finished(State state, String error) {
+            this.error = error;
+            this.finished = DateTime.now();
+            this.state = state;
+        }
+
+        public boolean isRunning() {
+            return state == State.COPYING || state == State.SWITCHING_ALIAS;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getCopied() {
+            return copied.get();
+        }
+
+        /**
+         * @return number of documents not copied because a newer version has been uploaded while copying
+         */
+        public long getSkipped() {
+            return skipped.get();
+        }
+
+        public String getStarted() {
+            return ISODateTimeFormat.dateTime().print(started);
+        }
+
+        public String getFinished() {
+            return finished == null ? null : ISODateTimeFormat.dateTime().print(finished);
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package io.pivio.server.elasticsearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.DocumentSnapshot;
+import io.pivio.server.store.ChangesetStats;
+import io.pivio.server.store.ChangesetStore;
+import org.elasticsearch.action.deletebyquery.DeleteByQueryAction;
+import org.elasticsearch.action.deletebyquery.DeleteByQueryRequestBuilder;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.nested.Nested;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.sort.SortOrder;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Optional;
+
+import static io.pivio.server.elasticsearch.ElasticsearchGuard.Operation.*;
+
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchChangesetStore implements ChangesetStore {
+
+    private final Client client;
+    private final ObjectMapper mapper;
+    private final ElasticsearchQueryHelper queryHelper;
+    private final ElasticsearchGuard guard;
+    private final WriteBehindBatcher writeBehindBatcher;
+
+    public ElasticsearchChangesetStore(Client client, ObjectMapper mapper, ElasticsearchQueryHelper queryHelper, ElasticsearchGuard guard,
+                                       WriteBehindBatcher writeBehindBatcher) {
+        this.client = client;
+        this.mapper = mapper;
+        this.queryHelper = queryHelper;
+        this.guard = guard;
+        this.writeBehindBatcher = writeBehindBatcher;
+    }
+
+    @Override
+    public void save(Changeset changeset) {
+        writeBehindBatcher.execute(indexRequest(changeset));
+    }
+
+    /**
+     * The id is made up of document id and order, so a second changeset with the same order is rejected as conflict.
+     */
+    IndexRequestBuilder indexRequest(Changeset changeset) {
+        ObjectNode source = mapper.valueToTree(changeset);
+        source.set("patch", changeset.getFields());
+        return client.prepareIndex("changeset", "changeset", changeset.getDocument() + ":" + changeset.getOrder())
+                .setSource(source.toString())
+                .setCreate(true);
+    }
+
+    /**
+     * Searches only see changesets after the next refresh of the index, so a changeset written since then is missed.
+     * The next changeset computed on top of the result is then rejected as conflict and the index refreshed, see
+     * {@link #refresh()}, instead of looking up further changesets by their id on every upload.
+     */
+    @Override
+    public long lastOrder(String documentId) throws IOException {
+        SearchResponse searchResponse = guard.execute(READ, client.prepareSearch("changeset").setTypes("changeset")
+                .setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("document", documentId)))
+                .addSort("order", SortOrder.DESC)
+                .setSize(1));
+        if (searchResponse.getHits().getTotalHits() == 0) {
+            return 0L;
+        }
+        return mapper.readTree(searchResponse.getHits().getAt(0).getSourceAsString()).get("order").longValue();
+    }
+
+    /**
+     * Makes the changesets written since the last refresh visible to {@link #lastOrder(String)}, after a changeset
+     * could not be created because one with the same order exists already.
+     */
+    void refresh() {
+        guard.execute(WRITE, client.admin().indices().prepareRefresh("changeset"));
+    }
+
+    @Override
+    public ArrayNode find(String documentId, DateTime since) throws IOException {
+        return queryHelper.retrieveAllDocuments(client.prepareSearch("changeset")
+                .setTypes("changeset")
+                .addSort("timestamp", SortOrder.DESC)
+                .setScroll(new TimeValue(60000))
+                .setQuery(createQuery(documentId, since))
+                .setFetchSource(null, "patch")
+                .setSize(100));
+    }
+
+    @Override
+    public ArrayNode findForReplay(String documentId, long afterOrder, DateTime at) throws IOException {
+        // a missing changeset would silently reconstruct a wrong document
+        return queryHelper.retrieveAllDocumentsOrFail(client.prepareSearch("changeset")
+                .setTypes("changeset")
+                .setQuery(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery("document", documentId))
+                        .filter(QueryBuilders.rangeQuery("order").gt(afterOrder))
+                        .filter(QueryBuilders.rangeQuery("timestamp").lte(format(at))))
+                .addSort("order", SortOrder.ASC)
+                .setScroll(new TimeValue(60000))
+                .setSize(100));
+    }
+
+    @Override
+    public ChangesetStats stats(String documentId, DateTime since, String interval, int size) {
+        SearchResponse searchResponse = guard.execute(READ, client.prepareSearch("changeset")
+                .setTypes("changeset")
+                .setQuery(createQuery(documentId, since))
+                .setSize(0)
+                .addAggregation(AggregationBuilders.dateHistogram("per_interval")
+                        .field("timestamp")
+                        .interval(new DateHistogramInterval(interval)))
+                .addAggregation(AggregationBuilders.terms("per_document")
+                        .field("document")
+                        .size(size))
+                .addAggregation(AggregationBuilders.nested("fields")
+                        .path("fields")
+                        .subAggregation(AggregationBuilders.terms("per_path")
+                                .field("fields.path")
+                                .size(size))));
+
+        ChangesetStats stats = new ChangesetStats(searchResponse.getHits().getTotalHits());
+        Histogram histogram = searchResponse.getAggregations().get("per_interval");
+        for (Histogram.Bucket bucket : histogram.getBuckets()) {
+            stats.getHistogram().add(new ChangesetStats.Bucket(bucket.getKeyAsString(), bucket.getDocCount()));
+        }
+        Terms documents = searchResponse.getAggregations().get("per_document");
+        for (Terms.Bucket bucket : documents.getBuckets()) {
+            stats.getDocuments().add(new ChangesetStats.Bucket(bucket.getKeyAsString(), bucket.getDocCount()));
+        }
+        Nested fields = searchResponse.getAggregations().get("fields");
+        Terms paths = fields.getAggregations().get("per_path");
+        for (Terms.Bucket bucket : paths.getBuckets()) {
+            stats.getPaths().add(new ChangesetStats.Bucket(bucket.getKeyAsString(), bucket.getDocCount()));
+        }
+        return stats;
+    }
+
+    @Override
+    public void delete(String documentId) {
+        guard.execute(WRITE, new DeleteByQueryRequestBuilder(client, DeleteByQueryAction.INSTANCE)
+                .setIndices("changeset", "snapshot")
+                .setTypes("changeset", "snapshot")
+                .setQuery(QueryBuilders.boolQuery().filter(QueryBuilders.termQuery("document", documentId))));
+    }
+
+    @Override
+    public void saveSnapshot(DocumentSnapshot snapshot) {
+        writeBehindBatcher.execute(indexRequest(snapshot));
+    }
+
+    IndexRequestBuilder indexRequest(DocumentSnapshot snapshot) {
+        ObjectNode source = mapper.createObjectNode()
+                .put("document", snapshot.getDocument())
+                .put("order", snapshot.getOrder())
+                .put("timestamp", format(snapshot.getTimestamp()));
+        source.set("content", snapshot.getContent());
+        return client.prepareIndex("snapshot", "snapshot", snapshot.getDocument() + ":" + snapshot.getOrder())
+                .setSource(source.toString());
+    }
+
+    @Override
+    public Optional<JsonNode> findLatestSnapshot(String documentId, DateTime at) throws IOException {
+        SearchResponse searchResponse = guard.execute(READ, client.prepareSearch("snapshot").setTypes("snapshot")
+                .setQuery(QueryBuilders.boolQuery()
+                        .filter(QueryBuilders.termQuery("document", documentId))
+                        .filter(QueryBuilders.rangeQuery("timestamp").lte(format(at))))
+                .addSort("order", SortOrder.DESC)
+                .setSize(1));
+        if (searchResponse.getHits().getTotalHits() > 0) {
+            return Optional.of(mapper.readTree(searchResponse.getHits().getAt(0).getSourceAsString()));
+        }
+        else {
+            return Optional.empty();
+        }
+    }
+
+    private BoolQueryBuilder createQuery(String documentId, DateTime since) {
+        BoolQueryBuilder query = QueryBuilders.boolQuery();
+        if (documentId != null) {
+            query.filter(QueryBuilders.termQuery("document", documentId));
+        }
+        if (since != null) {
+            query.filter(QueryBuilders.rangeQuery("timestamp").gte(format(since)).lte("now"));
+        }
+        return query;
+    }
+
+    private String format(DateTime dateTime) {
+        return ISODateTimeFormat.dateTime().print(dateTime);
+    }
+}
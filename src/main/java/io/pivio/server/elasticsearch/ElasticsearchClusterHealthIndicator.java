@@ -0,0 +1,195 @@
+package io.pivio.server.elasticsearch;
+
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.stats.IndicesStatsResponse;
+import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connectivity to the Elasticsearch cluster, reported as {@code elasticsearchCluster} by the health endpoint. The
+ * cluster is probed every {@code pivio.elasticsearch.health.probe-interval} milliseconds in the background and health
+ * checks only report the outcome of the latest probe, so checks by load balancers do not add load to Elasticsearch.
+ * <p>
+ * The status is {@code DOWN} if the probe failed, no node is connected, the cluster is red or no probe has finished
+ * for three intervals. It is {@code OUT_OF_SERVICE} once {@code pivio.elasticsearch.health.slow-probes} consecutive probes
+ * took longer than {@code pivio.elasticsearch.health.max-latency} milliseconds, so load balancers stop routing to this
+ * instance before requests start timing out.
+ * <p>
+ * Probe latency, cluster status (0 green, 1 yellow, 2 red), connected nodes and documents per index are submitted as
+ * {@code timer.elasticsearch.health.probe}, {@code gauge.elasticsearch.cluster.status},
+ * {@code gauge.elasticsearch.nodes.connected} and {@code gauge.elasticsearch.documents.<index>}, where the documents
+ * index is {@code steckbrief} whichever versioned index the alias points to.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchClusterHealthIndicator extends AbstractHealthIndicator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchClusterHealthIndicator.class);
+
+    private static final String[] INDICES = {"steckbrief", "changeset", "snapshot"};
+
+    private final Client client;
+    private final ElasticsearchConnectionAvailableChecker connectionChecker;
+    private final GaugeService gaugeService;
+    private final long probeIntervalMillis;
+    private final long probeTimeoutMillis;
+    private final long maxLatencyMillis;
+    private final int slowProbes;
+
+    private volatile Probe latest;
+    private volatile boolean slow;
+    private int consecutiveSlowProbes;
+    private ScheduledExecutorService probeExecutor;
+
+    public ElasticsearchClusterHealthIndicator(Client client, ElasticsearchConnectionAvailableChecker connectionChecker,
+                                               GaugeService gaugeService, Environment environment) {
+        this.client = client;
+        this.connectionChecker = connectionChecker;
+        this.gaugeService = gaugeService;
+        this.probeIntervalMillis = environment.getProperty("pivio.elasticsearch.health.probe-interval", Long.class, 5000L);
+        this.probeTimeoutMillis = environment.getProperty("pivio.elasticsearch.health.probe-timeout", Long.class, 2000L);
+        this.maxLatencyMillis = environment.getProperty("pivio.elasticsearch.health.max-latency", Long.class, 1000L);
+        this.slowProbes = environment.getProperty("pivio.elasticsearch.health.slow-probes", Integer.class, 2);
+    }
+
+    @PostConstruct
+    public void start() {
+        probeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "elasticsearch-health-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        probeExecutor.scheduleWithFixedDelay(this::probe, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        probeExecutor.shutdownNow();
+    }
+
+    void probe() {
+        int connectedNodes = connectionChecker.connectedNodes();
+        gaugeService.submit("gauge.elasticsearch.nodes.connected", connectedNodes);
+        if (connectedNodes == 0) {
+            record(Probe.failed(connectedNodes, "no Elasticsearch node connected"));
+            return;
+        }
+
+        long started = System.nanoTime();
+        try {
+            ClusterHealthResponse health = client.admin().cluster().prepareHealth().execute().actionGet(probeTimeoutMillis);
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            gaugeService.submit("timer.elasticsearch.health.probe", latencyMillis);
+            gaugeService.submit("gauge.elasticsearch.cluster.status", health.getStatus().value());
+
+            Map<String, Long> documents = new TreeMap<>();
+            for (String index : INDICES) {
+                // requested one by one, so the documents behind an alias are reported by the alias, not the versioned index
+                IndicesStatsResponse stats = client.admin().indices().prepareStats(index).clear().setDocs(true)
+                        .setIndicesOptions(IndicesOptions.lenientExpandOpen())
+                        .execute().actionGet(probeTimeoutMillis);
+                if (stats.getIndices().isEmpty()) {
+                    continue;
+                }
+                long count = stats.getPrimaries().getDocs() == null ? 0 : stats.getPrimaries().getDocs().getCount();
+                documents.put(index, count);
+                gaugeService.submit("gauge.elasticsearch.documents." + index, count);
+            }
+            record(new Probe(System.currentTimeMillis(), connectedNodes, health.getStatus(), latencyMillis, documents, null));
+        }
+        catch (RuntimeException e) {
+            long latencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            gaugeService.submit("timer.elasticsearch.health.probe", latencyMillis);
+            LOG.debug("Elasticsearch health probe failed", e);
+            record(Probe.failed(connectedNodes, e.getMessage()));
+        }
+    }
+
+    void record(Probe probe) {
+        Probe previous = latest;
+        if (probe.failure != null && (previous == null || previous.failure == null)) {
+            LOG.warn("Elasticsearch health probe failed: {}", probe.failure);
+        }
+        else if (probe.failure == null && previous != null && previous.failure != null) {
+            LOG.info("Elasticsearch health probe succeeded again");
+        }
+        consecutiveSlowProbes = probe.failure == null && probe.latencyMillis > maxLatencyMillis ? consecutiveSlowProbes + 1 : 0;
+        slow = consecutiveSlowProbes >= slowProbes;
+        latest = probe;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        Probe probe = latest;
+        if (probe == null) {
+            builder.unknown();
+            return;
+        }
+
+        if (probe.failure != null) {
+            builder.down().withDetail("error", probe.failure);
+        }
+        else if (probe.status == ClusterHealthStatus.RED) {
+            builder.down().withDetail("error", "cluster status is red");
+        }
+        else if (System.currentTimeMillis() - probe.probedAt > 3 * probeIntervalMillis + probeTimeoutMillis) {
+            builder.down().withDetail("error", "no probe has finished since " + probe.probedAt);
+        }
+        else if (slow) {
+            builder.outOfService().withDetail("error", "probes took longer than " + maxLatencyMillis + " ms");
+        }
+        else {
+            builder.up();
+        }
+
+        builder.withDetail("connectedNodes", probe.connectedNodes);
+        if (probe.failure == null) {
+            builder.withDetail("clusterStatus", probe.status)
+                    .withDetail("latencyMillis", probe.latencyMillis)
+                    .withDetail("documents", probe.documents);
+        }
+        builder.withDetail("probedAt", probe.probedAt);
+    }
+
+    static final class Probe {
+
+        private final long probedAt;
+        private final int connectedNodes;
+        private final ClusterHealthStatus status;
+        private final long latencyMillis;
+        private final Map<String, Long> documents;
+        private final String failure;
+
+        Probe(long probedAt, int connectedNodes, ClusterHealthStatus status, long latencyMillis, Map<String, Long> documents,
+              String failure) {
+            this.probedAt = probedAt;
+            this.connectedNodes = connectedNodes;
+            this.status = status;
+            this.latencyMillis = latencyMillis;
+            this.documents = documents;
+            this.failure = failure;
+        }
+
+        static Probe failed(int connectedNodes, String failure) {
+            return new Probe(System.currentTimeMillis(), connectedNodes, null, 0, Collections.emptyMap(), failure);
+        }
+    }
+}
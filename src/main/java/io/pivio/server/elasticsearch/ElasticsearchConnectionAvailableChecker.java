@@ -4,13 +4,14 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.client.transport.TransportClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
 import org.springframework.stereotype.Component;
 
 import java.util.concurrent.TimeUnit;
-import java.util.function.Supplier;
 
 @Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
 public class ElasticsearchConnectionAvailableChecker {
 
     private static final Logger log = LoggerFactory.getLogger(ElasticsearchConnectionAvailableChecker.class);
@@ -25,32 +26,39 @@ public class ElasticsearchConnectionAvailableChecker {
         transportClient = (TransportClient) client;
     }
 
-    public boolean isConnectionToElasticsearchAvailable() {
-        return checkNowThenIn5secThen10secThen20sec(this::isTransportClientConnectedToNode);
-    }
-
-    private boolean checkNowThenIn5secThen10secThen20sec(Supplier<Boolean> check) {
-        for (int numberOfTriesFailed = 0; numberOfTriesFailed < 3; numberOfTriesFailed++) {
-            if (check.get()) {
-                return true;
+    /**
+     * Waits until the TransportClient is connected to a node, checking again after 1, 2, 4, ... seconds but at
+     * least every 30 seconds.
+     *
+     * @return false if the thread has been interrupted while waiting
+     */
+    public boolean awaitConnectionToElasticsearch() {
+        for (int numberOfTriesFailed = 0; !isTransportClientConnectedToNode(); numberOfTriesFailed++) {
+            int secondsToWait = backoffSeconds(numberOfTriesFailed);
+            log.warn("No connection to Elasticsearch available. TransportClient tries to connect during the next {}s.", secondsToWait);
+            try {
+                TimeUnit.SECONDS.sleep(secondsToWait);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
             }
-            int exponentialMultiplier = (int) Math.pow(2, numberOfTriesFailed);
-            waitInSeconds(exponentialMultiplier * 5);
         }
-        return false;
+        return true;
+    }
+
+    /**
+     * @return 1, 2, 4, ... seconds but at most 30 seconds to wait after the given number of failed tries
+     */
+    public static int backoffSeconds(int numberOfTriesFailed) {
+        return (int) Math.min(30, Math.pow(2, numberOfTriesFailed));
     }
 
     public boolean isTransportClientConnectedToNode() {
         return !transportClient.connectedNodes().isEmpty();
     }
 
-    private void waitInSeconds(int secondsToWait) {
-        log.warn("No connection to Elasticsearch available. TransportClient tries to connect during the next {}s.", secondsToWait);
-        try {
-            TimeUnit.SECONDS.sleep(secondsToWait);
-        }
-        catch (InterruptedException e) {
-            log.warn("Letting TransportClient try to connect to an Elasticsearch node within " + secondsToWait + "s has been interrupted", e);
-        }
+    public int connectedNodes() {
+        return transportClient.connectedNodes().size();
     }
 }
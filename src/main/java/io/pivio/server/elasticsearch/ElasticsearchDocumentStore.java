@@ -0,0 +1,187 @@
+package io.pivio.server.elasticsearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.jfr.SearchStageEvent;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.InvalidQueryException;
+import io.pivio.server.store.SortField;
+import io.pivio.server.store.StoredDocument;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.sort.SortOrder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static io.pivio.server.elasticsearch.ElasticsearchGuard.Operation.*;
+
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchDocumentStore implements DocumentStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchDocumentStore.class);
+
+    private final Client client;
+    private final ObjectMapper mapper;
+    private final ElasticsearchQueryHelper queryHelper;
+    private final ElasticsearchGuard guard;
+    private final WriteBehindBatcher writeBehindBatcher;
+    private final DocumentIndexReindexer reindexer;
+
+    public ElasticsearchDocumentStore(Client client, ObjectMapper mapper, ElasticsearchQueryHelper queryHelper, ElasticsearchGuard guard,
+                                      WriteBehindBatcher writeBehindBatcher, DocumentIndexReindexer reindexer) {
+        this.client = client;
+        this.mapper = mapper;
+        this.queryHelper = queryHelper;
+        this.guard = guard;
+        this.writeBehindBatcher = writeBehindBatcher;
+        this.reindexer = reindexer;
+    }
+
+    @Override
+    public Optional<JsonNode> get(String id) throws IOException {
+        return getStored(id).map(StoredDocument::getDocument);
+    }
+
+    @Override
+    public Optional<StoredDocument> getStored(String id) throws IOException {
+        GetResponse response = guard.execute(READ, client.prepareGet("steckbrief", "steckbrief", id));
+        if (response.isExists()) {
+            return Optional.of(new StoredDocument(mapper.readTree(response.getSourceAsString()), response.getVersion()));
+        }
+        else {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return queryHelper.isDocumentPresent("steckbrief", "steckbrief", id);
+    }
+
+    @Override
+    public void save(String id, JsonNode document) {
+        String source = document.toString();
+        IndexResponse response = writeBehindBatcher.execute(indexRequest(id, source));
+        saveToReindexTarget(id, source, response.getVersion());
+    }
+
+    IndexRequestBuilder indexRequest(String id, String source) {
+        return client.prepareIndex("steckbrief", "steckbrief", id).setSource(source);
+    }
+
+    DeleteRequestBuilder deleteRequest(String id) {
+        return client.prepareDelete("steckbrief", "steckbrief", id);
+    }
+
+    /**
+     * Writes the document to the index documents are being reindexed to, if any.
+     *
+     * @param version the version the document has been stored with in the index behind the alias
+     */
+    void saveToReindexTarget(String id, String source, long version) {
+        Optional<String> dualWriteIndex = reindexer.getDualWriteIndex();
+        if (dualWriteIndex.isPresent()) {
+            writeToReindexTarget(client.prepareIndex(dualWriteIndex.get(), "steckbrief", id)
+                    .setSource(source)
+                    .setVersion(version)
+                    .setVersionType(VersionType.EXTERNAL));
+        }
+    }
+
+    @Override
+    public boolean delete(String id) {
+        DeleteResponse response = guard.execute(WRITE, deleteRequest(id));
+        Optional<String> dualWriteIndex = reindexer.getDualWriteIndex();
+        if (response.isFound() && dualWriteIndex.isPresent()) {
+            reindexer.deletedWhileCopying(id);
+            writeToReindexTarget(client.prepareDelete(dualWriteIndex.get(), "steckbrief", id)
+                    .setVersion(response.getVersion())
+                    .setVersionType(VersionType.EXTERNAL));
+        }
+        return response.isFound();
+    }
+
+    /**
+     * Writes to the index documents are being reindexed to. The versions of the index behind the alias are used as
+     * external versions, so concurrent writes and the copy end up with the latest version.
+     */
+    private void writeToReindexTarget(ActionRequestBuilder<?, ? extends ActionResponse, ?> request) {
+        try {
+            guard.execute(WRITE, request);
+        }
+        catch (VersionConflictEngineException e) {
+            LOG.debug("Newer version already written to reindex target: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public List<JsonNode> search(String query, List<SortField> sort) throws IOException {
+        final SearchRequestBuilder searchRequest = client.prepareSearch("steckbrief")
+                .setTypes("steckbrief")
+                .setScroll(new TimeValue(60000))
+                .setSize(100);
+
+        if (query != null) {
+            searchRequest.setQuery(query);
+        }
+        else {
+            searchRequest.setQuery(QueryBuilders.matchAllQuery());
+        }
+
+        for (SortField sortField : sort) {
+            searchRequest.addSort(sortField.getField(), sortField.isAscending() ? SortOrder.ASC : SortOrder.DESC);
+        }
+
+        try {
+            SearchStageEvent pageEvent = SearchStageEvent.begin("query");
+            SearchResponse searchResponse = guard.execute(SCROLL, searchRequest);
+            List<JsonNode> documents = new ArrayList<>();
+            while (true) {
+                long bytes = 0;
+                for (SearchHit searchHit : searchResponse.getHits().getHits()) {
+                    bytes += searchHit.sourceRef().length();
+                }
+                pageEvent.finish(searchResponse.getHits().getHits().length, bytes);
+
+                SearchStageEvent parseEvent = SearchStageEvent.begin("parse");
+                for (SearchHit searchHit : searchResponse.getHits().getHits()) {
+                    documents.add(mapper.readTree(searchHit.getSourceAsString()));
+                }
+                parseEvent.finish(searchResponse.getHits().getHits().length, bytes);
+
+                pageEvent = SearchStageEvent.begin("scroll-page");
+                searchResponse = guard.execute(SCROLL, client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)));
+                if (searchResponse.getHits().getHits().length == 0) {
+                    pageEvent.finish(0, 0);
+                    break;
+                }
+            }
+            return documents;
+        }
+        catch (ElasticsearchException e) {
+            throw new InvalidQueryException("could not execute search request " + searchRequest.toString(), e);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package io.pivio.server.elasticsearch;
+
+import io.pivio.server.RequestTrace;
+import io.pivio.server.store.StoreUnavailableException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.deletebyquery.DeleteByQueryRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Protects request threads from a slow or unavailable Elasticsearch cluster. Requests are executed with a timeout in
+ * one of three bulkheads, so a storm of searches cannot use up the connections needed for uploads. A request keeps its
+ * place in the bulkhead until Elasticsearch has answered it, even if the caller has stopped waiting. A circuit breaker
+ * shared by all bulkheads rejects requests right away once Elasticsearch keeps failing. Rejected and failed requests
+ * surface as {@link StoreUnavailableException}, as do requests made before the indices are ready (see
+ * {@link ElasticsearchIndicesHealthIndicator}) and while requests are {@link #pause(long) paused}.
+ * <p>
+ * Per operation class, {@code pivio.elasticsearch.<read|write|scroll>.max-concurrent} and
+ * {@code pivio.elasticsearch.<read|write|scroll>.timeout} (milliseconds) can be configured.
+ * <p>
+ * The duration of every executed request is submitted as {@code timer.elasticsearch.<request>.<outcome>}, e.g.
+ * {@code timer.elasticsearch.search.success}, with the outcomes {@code success}, {@code client-error} and
+ * {@code failure}. Round trip, duration and bytes fetched are also recorded to the {@link RequestTrace} of the request.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchGuard {
+
+    public enum Operation {
+        /**
+         * Gets and single page searches.
+         */
+        READ("read", 20, 5000),
+        /**
+         * Index and delete requests.
+         */
+        WRITE("write", 10, 10000),
+        /**
+         * Searches collecting all hits, each round trip is guarded on its own.
+         */
+        SCROLL("scroll", 5, 30000);
+
+        private final String name;
+        private final int defaultMaxConcurrent;
+        private final long defaultTimeoutMillis;
+
+        Operation(String name, int defaultMaxConcurrent, long defaultTimeoutMillis) {
+            this.name = name;
+            this.defaultMaxConcurrent = defaultMaxConcurrent;
+            this.defaultTimeoutMillis = defaultTimeoutMillis;
+        }
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchGuard.class);
+
+    private final Map<Operation, Bulkhead> bulkheads = new EnumMap<>(Operation.class);
+    private final CircuitBreaker circuitBreaker;
+    private final ElasticsearchIndicesHealthIndicator indicesHealthIndicator;
+    private final CounterService counterService;
+    private final GaugeService gaugeService;
+    private volatile boolean paused;
+
+    public ElasticsearchGuard(Environment environment, ElasticsearchIndicesHealthIndicator indicesHealthIndicator,
+                              CounterService counterService, GaugeService gaugeService) {
+        this.indicesHealthIndicator = indicesHealthIndicator;
+        this.counterService = counterService;
+        this.gaugeService = gaugeService;
+        long maxWaitMillis = environment.getProperty("pivio.elasticsearch.bulkhead.max-wait", Long.class, 50L);
+        for (Operation operation : Operation.values()) {
+            String prefix = "pivio.elasticsearch." + operation.name + ".";
+            bulkheads.put(operation, new Bulkhead(
+                    environment.getProperty(prefix + "max-concurrent", Integer.class, operation.defaultMaxConcurrent),
+                    maxWaitMillis,
+                    environment.getProperty(prefix + "timeout", Long.class, operation.defaultTimeoutMillis)));
+        }
+        circuitBreaker = new CircuitBreaker(
+                environment.getProperty("pivio.elasticsearch.circuit-breaker.failure-threshold", Integer.class, 5),
+                environment.getProperty("pivio.elasticsearch.circuit-breaker.open-duration", Long.class, 10000L),
+                System::currentTimeMillis);
+    }
+
+    /**
+     * Executes the request and waits for its response. Client errors like invalid queries are passed on unchanged
+     * and do not count as failures of Elasticsearch.
+     *
+     * @throws StoreUnavailableException if the request has been rejected, timed out or failed on the server side
+     */
+    public <Response extends ActionResponse> Response execute(Operation operation, ActionRequestBuilder<?, Response, ?> request) {
+        String metricPrefix = "elasticsearch." + operation.name;
+        if (!indicesHealthIndicator.isReady()) {
+            counterService.increment("counter." + metricPrefix + ".rejected.not-ready");
+            throw new StoreUnavailableException("Elasticsearch indices are not ready: " + indicesHealthIndicator.getState(), 5000);
+        }
+        if (!circuitBreaker.tryAcquirePermission()) {
+            counterService.increment("counter." + metricPrefix + ".rejected.open");
+            throw new StoreUnavailableException("Elasticsearch is unavailable, circuit breaker is open", circuitBreaker.getRetryAfterMillis());
+        }
+
+        Bulkhead bulkhead = bulkheads.get(operation);
+        if (!bulkhead.tryAcquire()) {
+            circuitBreaker.onNotExecuted();
+            counterService.increment("counter." + metricPrefix + ".rejected.full");
+            throw new StoreUnavailableException("too many concurrent Elasticsearch " + operation.name + " requests", bulkhead.maxWaitMillis);
+        }
+        // checked after acquiring the bulkhead, so pause() either sees this request as active or the request sees the pause
+        if (paused) {
+            bulkhead.release();
+            circuitBreaker.onNotExecuted();
+            counterService.increment("counter." + metricPrefix + ".rejected.paused");
+            throw new StoreUnavailableException("Elasticsearch indices are being switched", 1000);
+        }
+        gaugeService.submit("gauge." + metricPrefix + ".active", bulkhead.active());
+
+        long started = System.nanoTime();
+        String outcome = "failure";
+        long bytesFetched = 0;
+        long tookMillis = 0;
+        try {
+            Response response = await(executeReleasing(request, bulkhead), bulkhead.timeoutMillis);
+            bytesFetched = bytesOf(response);
+            tookMillis = response instanceof SearchResponse ? ((SearchResponse) response).getTookInMillis() : 0;
+            circuitBreaker.onSuccess();
+            counterService.increment("counter." + metricPrefix + ".success");
+            outcome = "success";
+            return response;
+        }
+        catch (StoreUnavailableException e) {
+            throw e;
+        }
+        catch (ElasticsearchTimeoutException | NoNodeAvailableException e) {
+            throw failed(metricPrefix, e);
+        }
+        catch (ElasticsearchException e) {
+            if (e.status().getStatus() >= 500) {
+                throw failed(metricPrefix, e);
+            }
+            circuitBreaker.onSuccess();
+            counterService.increment("counter." + metricPrefix + ".client-error");
+            outcome = "client-error";
+            throw e;
+        }
+        catch (RuntimeException e) {
+            throw failed(metricPrefix, e);
+        }
+        finally {
+            String requestName = requestName(request.request());
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            gaugeService.submit("timer.elasticsearch." + requestName + "." + outcome, millis);
+            RequestTrace.recordElasticsearch(requestName, millis, bytesFetched, tookMillis);
+            gaugeService.submit("gauge." + metricPrefix + ".active", bulkhead.active());
+            gaugeService.submit("gauge.elasticsearch.circuit-breaker.open", circuitBreaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+        }
+    }
+
+    /**
+     * Executes the request and releases the bulkhead once Elasticsearch has answered it, not when the caller stops
+     * waiting, so requests timed out by {@link #await} still count against the bulkhead while Elasticsearch is
+     * working on them and a slow node does not get more concurrent requests than the bulkhead allows.
+     */
+    private static <Response extends ActionResponse> CompletableFuture<Response> executeReleasing(
+            ActionRequestBuilder<?, Response, ?> request, Bulkhead bulkhead) {
+        CompletableFuture<Response> response = new CompletableFuture<>();
+        AtomicBoolean released = new AtomicBoolean();
+        Runnable release = () -> {
+            if (released.compareAndSet(false, true)) {
+                bulkhead.release();
+            }
+        };
+        try {
+            request.execute(new ActionListener<Response>() {
+                @Override
+                public void onResponse(Response result) {
+                    release.run();
+                    response.complete(result);
+                }
+
+                @Override
+                public void onFailure(Throwable e) {
+                    release.run();
+                    response.completeExceptionally(e);
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            release.run();
+            throw e;
+        }
+        return response;
+    }
+
+    private static <Response> Response await(CompletableFuture<Response> response, long timeoutMillis) {
+        try {
+            return response.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            throw new ElasticsearchTimeoutException("Timeout waiting for task.", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StoreUnavailableException("interrupted while waiting for Elasticsearch", 0, e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new ElasticsearchException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Rejects all further requests until {@link #resume()} is called and waits for the requests being executed to
+     * finish, e.g. while an index is replaced and neither reads nor writes must reach Elasticsearch.
+     *
+     * @return false if requests were still being executed after {@code maxWaitMillis}
+     */
+    public boolean pause(long maxWaitMillis) {
+        paused = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        while (bulkheads.values().stream().anyMatch(bulkhead -> bulkhead.active() > 0)) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    static String requestName(ActionRequest<?> request) {
+        if (request instanceof GetRequest) {
+            return "get";
+        }
+        if (request instanceof IndexRequest) {
+            return "index";
+        }
+        if (request instanceof DeleteRequest) {
+            return "delete";
+        }
+        if (request instanceof BulkRequest) {
+            return "bulk";
+        }
+        if (request instanceof SearchRequest) {
+            return "search";
+        }
+        if (request instanceof SearchScrollRequest) {
+            return "scroll";
+        }
+        if (request instanceof DeleteByQueryRequest) {
+            return "delete-by-query";
+        }
+        return "other";
+    }
+
+    private static long bytesOf(ActionResponse response) {
+        if (response instanceof GetResponse && ((GetResponse) response).isExists() && !((GetResponse) response).isSourceEmpty()) {
+            return ((GetResponse) response).getSourceAsBytesRef().length();
+        }
+        if (response instanceof SearchResponse) {
+            long bytes = 0;
+            for (SearchHit hit : ((SearchResponse) response).getHits()) {
+                bytes += hit.hasSource() ? hit.sourceRef().length() : 0;
+            }
+            return bytes;
+        }
+        return 0;
+    }
+
+    private StoreUnavailableException failed(String metricPrefix, RuntimeException e) {
+        counterService.increment("counter." + metricPrefix + ".failure");
+        if (circuitBreaker.onFailure()) {
+            counterService.increment("counter.elasticsearch.circuit-breaker.opened");
+            LOG.warn("Opened circuit breaker for Elasticsearch after request failure", e);
+        }
+        return new StoreUnavailableException("Elasticsearch request failed: " + e.getMessage(), circuitBreaker.getRetryAfterMillis(), e);
+    }
+
+    private static final class Bulkhead {
+
+        private final Semaphore permits;
+        private final int maxConcurrent;
+        private final long maxWaitMillis;
+        private final long timeoutMillis;
+
+        private Bulkhead(int maxConcurrent, long maxWaitMillis, long timeoutMillis) {
+            this.permits = new Semaphore(maxConcurrent);
+            this.maxConcurrent = maxConcurrent;
+            this.maxWaitMillis = maxWaitMillis;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        private boolean tryAcquire() {
+            try {
+                return permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        private void release() {
+            permits.release();
+        }
+
+        private int active() {
+            return maxConcurrent - permits.availablePermits();
+        }
+    }
+}
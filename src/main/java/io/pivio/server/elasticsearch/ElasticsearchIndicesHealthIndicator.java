@@ -0,0 +1,58 @@
+package io.pivio.server.elasticsearch;
+
+import org.springframework.boot.actuate.health.AbstractHealthIndicator;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Readiness of the Elasticsearch indices, reported as {@code elasticsearchIndices} by the health endpoint. While the
+ * indices are being set up on startup the status is {@code OUT_OF_SERVICE}, so load balancers do not route requests
+ * to this instance yet, and {@link ElasticsearchGuard} rejects requests to Elasticsearch.
+ * <p>
+ * Without index setup on startup (i.e. outside the production profile) the indices are managed by someone else and
+ * considered ready right away.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchIndicesHealthIndicator extends AbstractHealthIndicator {
+
+    public enum State {
+        WAITING_FOR_ELASTICSEARCH, SETTING_UP_INDICES, READY, FAILED
+    }
+
+    private volatile State state = State.READY;
+    private volatile String failure;
+
+    public boolean isReady() {
+        return state == State.READY;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public void setFailed(String failure) {
+        this.failure = failure;
+        this.state = State.FAILED;
+    }
+
+    @Override
+    protected void doHealthCheck(Health.Builder builder) {
+        switch (state) {
+            case READY:
+                builder.up();
+                break;
+            case FAILED:
+                builder.down().withDetail("error", failure);
+                break;
+            default:
+                builder.outOfService();
+        }
+        builder.withDetail("state", state);
+    }
+}
@@ -2,6 +2,7 @@ package io.pivio.server.elasticsearch;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.pivio.server.store.StoreUnavailableException;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
@@ -9,45 +10,90 @@ import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.search.SearchHit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Component;
 
 import java.io.IOException;
 
+import static io.pivio.server.elasticsearch.ElasticsearchGuard.Operation.*;
+
 @Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
 public class ElasticsearchQueryHelper {
 
     private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchQueryHelper.class);
 
     private final Client client;
     private final ObjectMapper mapper;
+    private final ElasticsearchGuard guard;
 
-    public ElasticsearchQueryHelper(Client client, ObjectMapper mapper) {
+    public ElasticsearchQueryHelper(Client client, ObjectMapper mapper, ElasticsearchGuard guard) {
         this.client = client;
         this.mapper = mapper;
+        this.guard = guard;
     }
 
     public boolean isDocumentPresent(String index, String type, String id) {
-        return client.prepareGet(index, type, id).execute().actionGet().isExists();
+        return guard.execute(READ, client.prepareGet(index, type, id)).isExists();
     }
 
     public ArrayNode retrieveAllDocuments(SearchRequestBuilder searchRequest) throws IOException {
         try {
-            SearchResponse searchResponse = searchRequest.execute().actionGet();
+            SearchResponse searchResponse = guard.execute(SCROLL, searchRequest);
             ArrayNode allDocuments = mapper.createArrayNode();
             while (true) {
                 for (SearchHit searchHit : searchResponse.getHits().getHits()) {
                     allDocuments.add(mapper.readTree(searchHit.getSourceAsString()));
                 }
-                searchResponse = client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)).execute().actionGet();
+                searchResponse = guard.execute(SCROLL, client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)));
                 if (searchResponse.getHits().getHits().length == 0) {
                     break;
                 }
             }
             return allDocuments;
         }
+        catch (StoreUnavailableException e) {
+            throw e;
+        }
         catch (Exception e) {
             LOG.warn("Could not retrieve all documents for " + searchRequest.toString(), e);
             return mapper.createArrayNode();
         }
     }
+
+    /**
+     * Retrieves all hits like {@link #retrieveAllDocuments(SearchRequestBuilder)}, but passes failures on instead of
+     * returning no hits, for callers computing something from all of them. The scroll is cleared when done.
+     *
+     * @throws IOException if a hit cannot be parsed
+     */
+    public ArrayNode retrieveAllDocumentsOrFail(SearchRequestBuilder searchRequest) throws IOException {
+        SearchResponse searchResponse = guard.execute(SCROLL, searchRequest);
+        try {
+            ArrayNode allDocuments = mapper.createArrayNode();
+            while (searchResponse.getHits().getHits().length > 0) {
+                for (SearchHit searchHit : searchResponse.getHits().getHits()) {
+                    allDocuments.add(mapper.readTree(searchHit.getSourceAsString()));
+                }
+                searchResponse = guard.execute(SCROLL, client.prepareSearchScroll(searchResponse.getScrollId()).setScroll(new TimeValue(60000)));
+            }
+            return allDocuments;
+        }
+        finally {
+            clearScroll(searchResponse.getScrollId());
+        }
+    }
+
+    // the scroll would otherwise be kept open until it expires, failing to clear it does not affect the result
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        try {
+            guard.execute(SCROLL, client.prepareClearScroll().addScrollId(scrollId));
+        }
+        catch (RuntimeException e) {
+            LOG.debug("Could not clear scroll {}", scrollId, e);
+        }
+    }
 }
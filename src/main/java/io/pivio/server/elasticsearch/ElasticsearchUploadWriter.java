@@ -0,0 +1,198 @@
+package io.pivio.server.elasticsearch;
+
+import io.pivio.server.store.DocumentUpload;
+import io.pivio.server.store.StoreUnavailableException;
+import io.pivio.server.store.StoredDocument;
+import io.pivio.server.store.UploadWriter;
+import io.pivio.server.store.WriteConflictException;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.rest.RestStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes the document, changeset and snapshot of an upload in one bulk request instead of one request after another.
+ * Items failing on the server side are retried up to {@code pivio.elasticsearch.upload.retries} times. If an item
+ * still fails, the items written successfully are undone, so the document and its changesets stay consistent: the
+ * document is set back to its previous version unless it has been changed again meanwhile.
+ * <p>
+ * The document is only written if it still has the version the upload is based on, and changesets are only created if
+ * none with the same order exists yet. If either has been written by a concurrent upload meanwhile, the upload is undone
+ * and a {@link WriteConflictException} is thrown, so it can be computed again on top of the other upload. After a
+ * changeset conflict the changeset index is refreshed, so the order of the other changeset is found then.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class ElasticsearchUploadWriter implements UploadWriter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchUploadWriter.class);
+
+    private static final int DOCUMENT = 0;
+
+    private final Client client;
+    private final ElasticsearchDocumentStore documentStore;
+    private final ElasticsearchChangesetStore changesetStore;
+    private final WriteBehindBatcher writeBehindBatcher;
+    private final CounterService counterService;
+    private final int retries;
+    private final long retryBackoffMillis;
+
+    public ElasticsearchUploadWriter(Client client, ElasticsearchDocumentStore documentStore, ElasticsearchChangesetStore changesetStore,
+                                     WriteBehindBatcher writeBehindBatcher, CounterService counterService, Environment environment) {
+        this.client = client;
+        this.documentStore = documentStore;
+        this.changesetStore = changesetStore;
+        this.writeBehindBatcher = writeBehindBatcher;
+        this.counterService = counterService;
+        this.retries = environment.getProperty("pivio.elasticsearch.upload.retries", Integer.class, 2);
+        this.retryBackoffMillis = environment.getProperty("pivio.elasticsearch.upload.retry-backoff", Long.class, 100L);
+    }
+
+    @Override
+    public void write(DocumentUpload upload) {
+        String source = upload.getDocument().toString();
+        List<ActionRequest<?>> requests = new ArrayList<>();
+        requests.add(documentRequest(upload, source).request());
+        upload.getChangeset().ifPresent(changeset -> requests.add(changesetStore.indexRequest(changeset).request()));
+        upload.getSnapshot().ifPresent(snapshot -> requests.add(changesetStore.indexRequest(snapshot).request()));
+
+        BulkItemResponse[] results = new BulkItemResponse[requests.size()];
+        try {
+            execute(requests, results);
+        }
+        catch (RuntimeException e) {
+            undo(upload, results);
+            throw e;
+        }
+        for (BulkItemResponse result : results) {
+            if (result.isFailed() && result.getFailure().getStatus() == RestStatus.CONFLICT) {
+                undo(upload, results);
+                counterService.increment("counter.elasticsearch.upload.conflict");
+                if (!result.getIndex().equals(results[DOCUMENT].getIndex())) {
+                    refreshChangesets(upload);
+                }
+                throw new WriteConflictException("Document " + upload.getId() + " has been changed concurrently: " + result.getFailureMessage());
+            }
+        }
+        for (BulkItemResponse result : results) {
+            if (result.isFailed()) {
+                undo(upload, results);
+                throw WriteBehindBatcher.failureOf(result);
+            }
+        }
+
+        IndexResponse document = results[DOCUMENT].getResponse();
+        documentStore.saveToReindexTarget(upload.getId(), source, document.getVersion());
+    }
+
+    // the changeset with the same order is not found by searches until then, so the retried upload would conflict again
+    private void refreshChangesets(DocumentUpload upload) {
+        try {
+            changesetStore.refresh();
+        }
+        catch (RuntimeException e) {
+            LOG.warn("Could not refresh changesets after conflicting upload of document {}: {}", upload.getId(), e.getMessage());
+        }
+    }
+
+    private IndexRequestBuilder documentRequest(DocumentUpload upload, String source) {
+        IndexRequestBuilder request = documentStore.indexRequest(upload.getId(), source);
+        if (!upload.getPrevious().isPresent()) {
+            return request.setCreate(true);
+        }
+        long version = upload.getPrevious().get().getVersion();
+        return version == StoredDocument.UNKNOWN_VERSION ? request : request.setVersion(version);
+    }
+
+    private void execute(List<ActionRequest<?>> requests, BulkItemResponse[] results) {
+        List<Integer> pending = new ArrayList<>();
+        for (int i = 0; i < requests.size(); i++) {
+            pending.add(i);
+        }
+        for (int attempt = 0; !pending.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                counterService.increment("counter.elasticsearch.upload.retried");
+                backOff(attempt);
+            }
+            List<ActionRequest<?>> attempted = new ArrayList<>();
+            pending.forEach(i -> attempted.add(requests.get(i)));
+            List<BulkItemResponse> items = writeBehindBatcher.bulk(attempted);
+
+            List<Integer> failed = new ArrayList<>();
+            for (int i = 0; i < pending.size(); i++) {
+                results[pending.get(i)] = items.get(i);
+                if (items.get(i).isFailed() && isRetryable(items.get(i)) && attempt < retries) {
+                    failed.add(pending.get(i));
+                }
+            }
+            pending = failed;
+        }
+    }
+
+    private boolean isRetryable(BulkItemResponse item) {
+        RestStatus status = item.getFailure().getStatus();
+        return status.getStatus() >= 500 || status == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    private void backOff(int attempt) {
+        try {
+            Thread.sleep(retryBackoffMillis * attempt);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StoreUnavailableException("interrupted while retrying upload", 0, e);
+        }
+    }
+
+    /**
+     * Undoes the items written successfully. Writing the previous document is conditional on the version written by
+     * the upload, so a newer upload is not overwritten.
+     */
+    private void undo(DocumentUpload upload, BulkItemResponse[] results) {
+        List<ActionRequest<?>> compensations = new ArrayList<>();
+        for (int i = 0; i < results.length; i++) {
+            BulkItemResponse result = results[i];
+            if (result == null || result.isFailed()) {
+                continue;
+            }
+            if (i != DOCUMENT) {
+                compensations.add(client.prepareDelete(result.getIndex(), result.getType(), result.getId()).request());
+            }
+            else if (upload.getPrevious().isPresent()) {
+                compensations.add(documentStore.indexRequest(upload.getId(), upload.getPrevious().get().getDocument().toString())
+                        .setVersion(result.getVersion())
+                        .request());
+            }
+            else {
+                compensations.add(documentStore.deleteRequest(upload.getId()).setVersion(result.getVersion()).request());
+            }
+        }
+        if (compensations.isEmpty()) {
+            return;
+        }
+
+        counterService.increment("counter.elasticsearch.upload.undone");
+        try {
+            for (BulkItemResponse item : writeBehindBatcher.bulk(compensations)) {
+                if (item.isFailed()) {
+                    LOG.error("Could not undo partial upload of document {}, {} {} may be inconsistent: {}",
+                            upload.getId(), item.getIndex(), item.getId(), item.getFailureMessage());
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            LOG.error("Could not undo partial upload of document {}, its changesets may be inconsistent", upload.getId(), e);
+        }
+    }
+}
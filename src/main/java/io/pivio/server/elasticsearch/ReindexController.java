@@ -0,0 +1,63 @@
+package io.pivio.server.elasticsearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.util.UriComponentsBuilder;
+
+/**
+ * Starts reindexing the documents into an index with the current settings and mapping, and reports its progress.
+ * <p>
+ * The endpoint is served on the API port, which is not protected, so it is only available with
+ * {@code pivio.reindex.api.enabled=true}.
+ */
+@RestController
+@RequestMapping(value = "/admin/reindex")
+@ConditionalOnExpression("${pivio.reindex.api.enabled:false} and '${pivio.store:elasticsearch}' == 'elasticsearch'")
+public class ReindexController {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ReindexController.class);
+
+    private final DocumentIndexReindexer reindexer;
+    private final ObjectMapper mapper;
+    private final CounterService counterService;
+
+    public ReindexController(DocumentIndexReindexer reindexer, ObjectMapper mapper, CounterService counterService) {
+        this.reindexer = reindexer;
+        this.mapper = mapper;
+        this.counterService = counterService;
+    }
+
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity start(UriComponentsBuilder uriBuilder) {
+        counterService.increment("counter.calls.admin.reindex.post");
+        final DocumentIndexReindexer.Progress progress;
+        try {
+            progress = reindexer.start();
+        }
+        catch (IllegalStateException e) {
+            LOG.info("Could not start reindexing documents: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(mapper.createObjectNode().put("error", e.getMessage()));
+        }
+        return ResponseEntity.accepted()
+                .location(uriBuilder.path("/admin/reindex").build().toUri())
+                .body(progress);
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity progress() {
+        counterService.increment("counter.calls.admin.reindex.get");
+        return reindexer.getProgress()
+                .<ResponseEntity>map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
+}
@@ -0,0 +1,264 @@
+package io.pivio.server.elasticsearch;
+
+import io.pivio.server.RequestTrace;
+import io.pivio.server.store.StoreUnavailableException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionWriteResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.client.Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static io.pivio.server.elasticsearch.ElasticsearchGuard.Operation.WRITE;
+
+/**
+ * Coalesces index requests of concurrent uploads into bulk requests. A bulk request is sent once
+ * {@code pivio.elasticsearch.write-behind.batch-size} requests are queued or the oldest of them has been waiting for
+ * {@code pivio.elasticsearch.write-behind.max-delay} milliseconds. Callers still wait for the outcome of their own
+ * request, so uploads are only acknowledged once they are stored.
+ * <p>
+ * Disabled by default, then requests are executed one by one right away. Enable it with
+ * {@code pivio.elasticsearch.write-behind.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "elasticsearch", matchIfMissing = true)
+public class WriteBehindBatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindBatcher.class);
+
+    private final Client client;
+    private final ElasticsearchGuard guard;
+    private final CounterService counterService;
+    private final GaugeService gaugeService;
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final long timeoutMillis;
+    private final BlockingQueue<QueuedRequests> queue;
+
+    private Thread flusher;
+    private volatile boolean running;
+
+    public WriteBehindBatcher(Client client, ElasticsearchGuard guard, Environment environment,
+                              CounterService counterService, GaugeService gaugeService) {
+        this.client = client;
+        this.guard = guard;
+        this.counterService = counterService;
+        this.gaugeService = gaugeService;
+        this.enabled = environment.getProperty("pivio.elasticsearch.write-behind.enabled", Boolean.class, false);
+        this.batchSize = environment.getProperty("pivio.elasticsearch.write-behind.batch-size", Integer.class, 200);
+        this.maxDelayMillis = environment.getProperty("pivio.elasticsearch.write-behind.max-delay", Long.class, 20L);
+        this.queue = new ArrayBlockingQueue<>(environment.getProperty("pivio.elasticsearch.write-behind.max-queued", Integer.class, 5000));
+        // waiting for the batch to fill up and queued batches comes on top of the timeout of a single write
+        this.timeoutMillis = environment.getProperty("pivio.elasticsearch.write.timeout", Long.class, 10000L) * 2 + maxDelayMillis;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushContinuously, "elasticsearch-write-behind");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        if (!enabled) {
+            return;
+        }
+        running = false;
+        flusher.join(timeoutMillis);
+    }
+
+    /**
+     * Executes the write request, as part of a bulk request if write-behind is enabled, and waits for its response.
+     *
+     * @throws StoreUnavailableException if the request could not be queued, timed out or failed on the server side
+     */
+    public <Response extends ActionWriteResponse> Response execute(ActionRequestBuilder<?, Response, ?> request) {
+        if (!enabled) {
+            return guard.execute(WRITE, request);
+        }
+        return responseOf(bulk(Collections.singletonList(request.request())).get(0));
+    }
+
+    /**
+     * Executes the write requests in one bulk request, shared with other requests if write-behind is enabled, and
+     * waits for their responses.
+     *
+     * @return responses in the order of the requests, failed or not
+     * @throws StoreUnavailableException if the bulk request could not be queued, timed out or failed as a whole
+     */
+    public List<BulkItemResponse> bulk(List<ActionRequest<?>> requests) {
+        if (!enabled) {
+            BulkRequestBuilder bulkRequest = client.prepareBulk();
+            requests.forEach(bulkRequest.request()::add);
+            return Arrays.asList(guard.execute(WRITE, bulkRequest).getItems());
+        }
+        QueuedRequests queued = new QueuedRequests(requests);
+        long started = System.nanoTime();
+        if (!queue.offer(queued)) {
+            counterService.increment("counter.elasticsearch.write-behind.rejected.full");
+            throw new StoreUnavailableException("too many queued Elasticsearch writes", maxDelayMillis);
+        }
+        try {
+            return await(queued.responses);
+        }
+        finally {
+            // the bulk request is sent by the flusher thread, the round trip is accounted to the waiting request
+            RequestTrace.recordElasticsearch("bulk", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), 0, 0);
+        }
+    }
+
+    /**
+     * @return response of the successful item
+     * @throws RuntimeException the failure of the item, see {@link #failureOf(BulkItemResponse)}
+     */
+    private static <Response extends ActionWriteResponse> Response responseOf(BulkItemResponse item) {
+        if (item.isFailed()) {
+            throw failureOf(item);
+        }
+        return item.getResponse();
+    }
+
+    /**
+     * @return exception to throw for the failed item, {@link StoreUnavailableException} for server side failures
+     */
+    public static RuntimeException failureOf(BulkItemResponse item) {
+        if (item.getFailure().getStatus().getStatus() >= 500) {
+            return new StoreUnavailableException("Elasticsearch write failed: " + item.getFailureMessage(), 0, item.getFailure().getCause());
+        }
+        if (item.getFailure().getCause() instanceof ElasticsearchException) {
+            return (ElasticsearchException) item.getFailure().getCause();
+        }
+        return new ElasticsearchException(item.getFailureMessage(), item.getFailure().getCause());
+    }
+
+    int queued() {
+        return queue.size();
+    }
+
+    private List<BulkItemResponse> await(CompletableFuture<List<BulkItemResponse>> responses) {
+        try {
+            return responses.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StoreUnavailableException("interrupted while waiting for Elasticsearch write", 0, e);
+        }
+        catch (TimeoutException e) {
+            throw new StoreUnavailableException("timed out waiting for Elasticsearch write", maxDelayMillis, e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private void flushContinuously() {
+        // requests queued before stopping are still flushed
+        while (running || !queue.isEmpty()) {
+            try {
+                List<QueuedRequests> batch = nextBatch();
+                if (!batch.isEmpty()) {
+                    flush(batch);
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch (RuntimeException e) {
+                LOG.error("Unexpected failure while flushing Elasticsearch writes", e);
+            }
+        }
+    }
+
+    private List<QueuedRequests> nextBatch() throws InterruptedException {
+        List<QueuedRequests> batch = new ArrayList<>();
+        QueuedRequests first = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return batch;
+        }
+        batch.add(first);
+        int size = first.requests.size();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        while (size < batchSize) {
+            long remaining = deadline - System.nanoTime();
+            QueuedRequests next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+            size += next.requests.size();
+        }
+        return batch;
+    }
+
+    private void flush(List<QueuedRequests> batch) {
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        for (QueuedRequests queued : batch) {
+            queued.requests.forEach(bulkRequest.request()::add);
+        }
+        gaugeService.submit("gauge.elasticsearch.write-behind.queued", queue.size());
+        gaugeService.submit("gauge.elasticsearch.write-behind.batch-size", bulkRequest.numberOfActions());
+
+        final BulkResponse bulkResponse;
+        try {
+            bulkResponse = guard.execute(WRITE, bulkRequest);
+        }
+        catch (RuntimeException e) {
+            batch.forEach(queued -> queued.responses.completeExceptionally(e));
+            return;
+        }
+        counterService.increment("counter.elasticsearch.write-behind.flushed");
+
+        BulkItemResponse[] items = bulkResponse.getItems();
+        int offset = 0;
+        for (QueuedRequests queued : batch) {
+            queued.responses.complete(Arrays.asList(items).subList(offset, offset + queued.requests.size()));
+            offset += queued.requests.size();
+        }
+    }
+
+    /**
+     * Requests of one caller, always sent in the same bulk request.
+     */
+    private static final class QueuedRequests {
+
+        private final List<ActionRequest<?>> requests;
+        private final CompletableFuture<List<BulkItemResponse>> responses = new CompletableFuture<>();
+
+        private QueuedRequests(List<ActionRequest<?>> requests) {
+            this.requests = requests;
+        }
+    }
+}
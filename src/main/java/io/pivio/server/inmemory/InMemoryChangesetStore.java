@@ -0,0 +1,164 @@
+package io.pivio.server.inmemory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.DocumentSnapshot;
+import io.pivio.server.store.ChangesetStats;
+import io.pivio.server.store.ChangesetStatsAggregator;
+import io.pivio.server.store.ChangesetStore;
+import org.joda.time.DateTime;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Counterpart of {@link InMemoryDocumentStore} for changesets and snapshots.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "memory")
+public class InMemoryChangesetStore implements ChangesetStore {
+
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = ISODateTimeFormat.dateTime();
+
+    private final Map<String, List<StoredChangeset>> changesets = new ConcurrentHashMap<>();
+    private final Map<String, List<DocumentSnapshot>> snapshots = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper;
+
+    public InMemoryChangesetStore(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public void save(Changeset changeset) {
+        ObjectNode source = mapper.valueToTree(changeset);
+        source.set("patch", changeset.getFields().deepCopy());
+        List<StoredChangeset> documentChangesets = changesets.computeIfAbsent(changeset.getDocument(), id -> new ArrayList<>());
+        synchronized (documentChangesets) {
+            documentChangesets.add(new StoredChangeset(changeset.getDocument(), changeset.getOrder(), changeset.getTimestamp(), source));
+        }
+    }
+
+    @Override
+    public long lastOrder(String documentId) {
+        return stream(documentId).mapToLong(c -> c.order).max().orElse(0L);
+    }
+
+    @Override
+    public ArrayNode find(String documentId, DateTime since) {
+        ArrayNode result = mapper.createArrayNode();
+        select(documentId, since)
+                .sorted(Comparator.comparing((StoredChangeset c) -> c.timestamp).reversed())
+                .forEach(c -> result.add(c.source.deepCopy().without("patch")));
+        return result;
+    }
+
+    @Override
+    public ArrayNode findForReplay(String documentId, long afterOrder, DateTime at) {
+        ArrayNode result = mapper.createArrayNode();
+        stream(documentId)
+                .filter(c -> c.order > afterOrder && !c.timestamp.isAfter(at))
+                .sorted(Comparator.comparingLong(c -> c.order))
+                .forEach(c -> result.add(c.source.deepCopy()));
+        return result;
+    }
+
+    @Override
+    public ChangesetStats stats(String documentId, DateTime since, String interval, int size) {
+        ChangesetStatsAggregator aggregator = new ChangesetStatsAggregator(interval, size);
+        select(documentId, since).forEach(c -> aggregator.add(c.document, c.timestamp, c.source.get("fields").findValuesAsText("path")));
+        return aggregator.build();
+    }
+
+    @Override
+    public void delete(String documentId) {
+        changesets.remove(documentId);
+        snapshots.remove(documentId);
+    }
+
+    @Override
+    public void saveSnapshot(DocumentSnapshot snapshot) {
+        List<DocumentSnapshot> documentSnapshots = snapshots.computeIfAbsent(snapshot.getDocument(), id -> new ArrayList<>());
+        synchronized (documentSnapshots) {
+            documentSnapshots.add(new DocumentSnapshot(snapshot.getDocument(), snapshot.getOrder(), snapshot.getTimestamp(), snapshot.getContent().deepCopy()));
+        }
+    }
+
+    @Override
+    public Optional<JsonNode> findLatestSnapshot(String documentId, DateTime at) {
+        List<DocumentSnapshot> documentSnapshots = snapshots.getOrDefault(documentId, new ArrayList<>());
+        synchronized (documentSnapshots) {
+            return documentSnapshots.stream()
+                    .filter(s -> !s.getTimestamp().isAfter(at))
+                    .max(Comparator.comparingLong(DocumentSnapshot::getOrder))
+                    .map(this::toJson);
+        }
+    }
+
+    public void clear() {
+        changesets.clear();
+        snapshots.clear();
+    }
+
+    private JsonNode toJson(DocumentSnapshot snapshot) {
+        ObjectNode json = mapper.createObjectNode()
+                .put("document", snapshot.getDocument())
+                .put("order", snapshot.getOrder())
+                .put("timestamp", TIMESTAMP_FORMAT.print(snapshot.getTimestamp()));
+        json.set("content", snapshot.getContent().deepCopy());
+        return json;
+    }
+
+    private Stream<StoredChangeset> select(String documentId, DateTime since) {
+        DateTime now = DateTime.now();
+        return stream(documentId)
+                .filter(c -> since == null || (!c.timestamp.isBefore(since) && !c.timestamp.isAfter(now)));
+    }
+
+    /**
+     * Copies the changesets of one or all documents so they can be processed while others are added.
+     */
+    private Stream<StoredChangeset> stream(String documentId) {
+        Collection<List<StoredChangeset>> lists = new ArrayList<>();
+        if (documentId == null) {
+            lists.addAll(changesets.values());
+        }
+        else if (changesets.containsKey(documentId)) {
+            lists.add(changesets.get(documentId));
+        }
+        List<StoredChangeset> copy = new ArrayList<>();
+        for (List<StoredChangeset> list : lists) {
+            synchronized (list) {
+                copy.addAll(list);
+            }
+        }
+        return copy.stream();
+    }
+
+    private static final class StoredChangeset {
+
+        private final String document;
+        private final long order;
+        private final DateTime timestamp;
+        private final ObjectNode source;
+
+        private StoredChangeset(String document, long order, DateTime timestamp, ObjectNode source) {
+            this.document = document;
+            this.order = order;
+            this.timestamp = timestamp;
+            this.source = source;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package io.pivio.server.inmemory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.store.DocumentQuery;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.InvalidQueryException;
+import io.pivio.server.store.SortField;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps documents in a map for tests and for measuring the server without Elasticsearch. Nothing survives a
+ * restart. Documents are copied on the way in and out so callers cannot modify the stored state.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "memory")
+public class InMemoryDocumentStore implements DocumentStore {
+
+    private final Map<String, JsonNode> documents = new ConcurrentHashMap<>();
+    private final ObjectMapper mapper;
+
+    public InMemoryDocumentStore(ObjectMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    @Override
+    public Optional<JsonNode> get(String id) {
+        return Optional.ofNullable(documents.get(id)).map(JsonNode::deepCopy);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return documents.containsKey(id);
+    }
+
+    @Override
+    public void save(String id, JsonNode document) {
+        documents.put(id, document.deepCopy());
+    }
+
+    @Override
+    public boolean delete(String id) {
+        return documents.remove(id) != null;
+    }
+
+    @Override
+    public List<JsonNode> search(String query, List<SortField> sort) throws IOException {
+        final DocumentQuery documentQuery;
+        try {
+            documentQuery = DocumentQuery.parse(query == null ? null : mapper.readTree(query));
+        }
+        catch (IOException e) {
+            throw new InvalidQueryException("could not parse search query " + query, e);
+        }
+        for (SortField sortField : sort) {
+            if (!isKnownField(sortField.getField())) {
+                throw new InvalidQueryException("No mapping found for [" + sortField.getField() + "] in order to sort on");
+            }
+        }
+
+        List<JsonNode> matches = documents.values().stream()
+                .filter(documentQuery::matches)
+                .collect(Collectors.toList());
+        return DocumentQuery.sort(matches, sort).stream()
+                .map(JsonNode::deepCopy)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Elasticsearch refuses to sort on fields it has never seen, which is emulated by looking for any document
+     * containing the field.
+     */
+    private boolean isKnownField(String field) {
+        String[] segments = field.split("\\.");
+        return documents.values().stream().anyMatch(document -> {
+            JsonNode node = document;
+            for (String segment : segments) {
+                node = node.isArray() ? node.path(0).path(segment) : node.path(segment);
+            }
+            return !node.isMissingNode();
+        });
+    }
+
+    public void clear() {
+        documents.clear();
+    }
+}
@@ -0,0 +1,61 @@
+package io.pivio.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one stage of processing an upload: {@code parse}, {@code strip-nulls}, {@code validate},
+ * {@code read}, {@code diff} and {@code write}. Recorded only while a recording with the event enabled is running,
+ * e.g. {@code jcmd <pid> JFR.start settings=profile}.
+ */
+@Name("io.pivio.IngestStage")
+@Label("Ingest Stage")
+@Category({"Pivio", "Ingest"})
+@Description("Stage of processing an uploaded document")
+@StackTrace(false)
+public class IngestStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Document Id")
+    String documentId;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Items")
+    @Description("Top level fields of the document, or operations of its changeset for diff and write")
+    int items;
+
+    private IngestStageEvent(String stage, String documentId) {
+        this.stage = stage;
+        this.documentId = documentId;
+    }
+
+    public static IngestStageEvent begin(String stage, String documentId) {
+        IngestStageEvent event = new IngestStageEvent(stage, documentId);
+        event.begin();
+        return event;
+    }
+
+    public void finish(String documentId, long bytes, int items) {
+        end();
+        if (shouldCommit()) {
+            this.documentId = documentId;
+            this.bytes = bytes;
+            this.items = items;
+            commit();
+        }
+    }
+
+    public void finish(int items) {
+        finish(documentId, 0, items);
+    }
+}
@@ -0,0 +1,50 @@
+package io.pivio.server.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one stage of a search: {@code query} and {@code scroll-page} for the Elasticsearch round
+ * trips, {@code parse} for reading the documents of a page, {@code filter-fields} and {@code serialize}.
+ */
+@Name("io.pivio.SearchStage")
+@Label("Search Stage")
+@Category({"Pivio", "Search"})
+@Description("Stage of answering a document search")
+@StackTrace(false)
+public class SearchStageEvent extends Event {
+
+    @Label("Stage")
+    String stage;
+
+    @Label("Documents")
+    int documents;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    private SearchStageEvent(String stage) {
+        this.stage = stage;
+    }
+
+    public static SearchStageEvent begin(String stage) {
+        SearchStageEvent event = new SearchStageEvent(stage);
+        event.begin();
+        return event;
+    }
+
+    public void finish(int documents, long bytes) {
+        end();
+        if (shouldCommit()) {
+            this.documents = documents;
+            this.bytes = bytes;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package io.pivio.server.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Append-only journal of uploads, stored in a memory-mapped file of fixed size. Each record holds the time the upload
+ * was received, its payload and a CRC32 checksum of both; after a crash, the journal is read up to the first record
+ * that is incomplete or does not match its checksum.
+ * <p>
+ * The file starts with a header holding the offset of the oldest record not acknowledged yet. Acknowledged records are
+ * not removed one by one: once all records have been acknowledged, the journal starts over, and when a record does not
+ * fit anymore, the records not acknowledged yet are moved to the start of the file. They are only moved if their new
+ * place does not overlap the old one, so they are intact in either place after a crash in between; otherwise the
+ * record is rejected until more records have been acknowledged.
+ */
+public class UploadJournal implements Closeable {
+
+    private static final int MAGIC = 0x50564a31;
+    private static final int READ_OFFSET_POSITION = 8;
+    static final int HEADER_SIZE = 16;
+    // length, checksum, timestamp
+    static final int RECORD_HEADER_SIZE = 4 + 8 + 8;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final boolean fsync;
+    private int readOffset;
+    private int writeOffset;
+    private int pending;
+    // bytes records have been moved towards the start of the file, so entries handed out before stay valid
+    private long moved;
+
+    /**
+     * Opens the journal, creating the file if it does not exist yet. An existing file larger than the given capacity
+     * is kept at its size.
+     *
+     * @param fsync whether appends and acknowledgements are forced to disk before returning
+     */
+    public UploadJournal(Path file, int capacity, boolean fsync) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        this.channel = FileChannel.open(file, READ, WRITE, CREATE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+        this.fsync = fsync;
+        if (buffer.getInt(0) == MAGIC) {
+            recover();
+        }
+        else {
+            buffer.putInt(0, MAGIC);
+            reset();
+        }
+    }
+
+    private void recover() {
+        readOffset = (int) buffer.getLong(READ_OFFSET_POSITION);
+        if (readOffset < HEADER_SIZE || readOffset >= buffer.capacity()) {
+            reset();
+            return;
+        }
+        int offset = readOffset;
+        Entry entry;
+        while ((entry = readAt(offset)) != null) {
+            offset = entry.end;
+            pending++;
+        }
+        writeOffset = offset;
+        terminate(writeOffset);
+    }
+
+    /**
+     * @return false if the journal has no space left for the record
+     */
+    public synchronized boolean append(long timestamp, byte[] payload) {
+        int end = writeOffset + RECORD_HEADER_SIZE + payload.length;
+        if (end > buffer.capacity() && compact()) {
+            end = writeOffset + RECORD_HEADER_SIZE + payload.length;
+        }
+        if (end > buffer.capacity()) {
+            return false;
+        }
+        buffer.putLong(writeOffset + 4, checksum(timestamp, payload));
+        buffer.putLong(writeOffset + 12, timestamp);
+        ByteBuffer view = buffer.duplicate();
+        view.position(writeOffset + RECORD_HEADER_SIZE);
+        view.put(payload);
+        terminate(end);
+        // the length is written last, so a record is not read before it is complete
+        buffer.putInt(writeOffset, payload.length);
+        writeOffset = end;
+        pending++;
+        force();
+        return true;
+    }
+
+    /**
+     * @return up to the given number of the oldest records not acknowledged yet, in the order they were appended
+     */
+    public synchronized List<Entry> read(int max) {
+        List<Entry> entries = new ArrayList<>();
+        int offset = readOffset;
+        Entry entry;
+        while (entries.size() < max && offset < writeOffset && (entry = readAt(offset)) != null) {
+            entries.add(entry);
+            offset = entry.end;
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the given record and all records before it from the journal.
+     */
+    public synchronized void acknowledge(Entry last) {
+        int end = (int) (last.position - moved);
+        int offset = readOffset;
+        while (offset < end) {
+            offset += RECORD_HEADER_SIZE + buffer.getInt(offset);
+            pending--;
+        }
+        if (end >= writeOffset) {
+            moved += writeOffset - HEADER_SIZE;
+            reset();
+        }
+        else {
+            readOffset = end;
+            buffer.putLong(READ_OFFSET_POSITION, readOffset);
+        }
+        force();
+    }
+
+    /**
+     * @return time the oldest record not acknowledged yet was received
+     */
+    public synchronized OptionalLong oldestTimestamp() {
+        return pending == 0 ? OptionalLong.empty() : OptionalLong.of(buffer.getLong(readOffset + 12));
+    }
+
+    /**
+     * @return number of records not acknowledged yet
+     */
+    public synchronized int pending() {
+        return pending;
+    }
+
+    /**
+     * @return number of bytes used by records, including acknowledged ones whose space has not been reclaimed yet
+     */
+    public synchronized int usedBytes() {
+        return writeOffset - HEADER_SIZE;
+    }
+
+    public int capacity() {
+        return buffer.capacity() - HEADER_SIZE;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    /**
+     * @return false if the records not acknowledged yet and their terminator would overlap their new place
+     */
+    private boolean compact() {
+        int distance = readOffset - HEADER_SIZE;
+        if (writeOffset - readOffset + 4 > distance) {
+            return false;
+        }
+        ByteBuffer records = buffer.duplicate();
+        records.position(readOffset).limit(writeOffset);
+        ByteBuffer start = buffer.duplicate();
+        start.position(HEADER_SIZE);
+        start.put(records);
+        terminate(writeOffset - distance);
+        // the records have to be in place before the header points to them
+        force();
+        readOffset = HEADER_SIZE;
+        writeOffset -= distance;
+        moved += distance;
+        buffer.putLong(READ_OFFSET_POSITION, readOffset);
+        force();
+        return true;
+    }
+
+    private void reset() {
+        terminate(HEADER_SIZE);
+        readOffset = HEADER_SIZE;
+        writeOffset = HEADER_SIZE;
+        pending = 0;
+        buffer.putLong(READ_OFFSET_POSITION, readOffset);
+    }
+
+    private void terminate(int offset) {
+        if (offset + 4 <= buffer.capacity()) {
+            buffer.putInt(offset, 0);
+        }
+    }
+
+    private Entry readAt(int offset) {
+        if (offset + RECORD_HEADER_SIZE > buffer.capacity()) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+            return null;
+        }
+        long checksum = buffer.getLong(offset + 4);
+        long timestamp = buffer.getLong(offset + 12);
+        byte[] payload = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + RECORD_HEADER_SIZE);
+        view.get(payload);
+        if (checksum != checksum(timestamp, payload)) {
+            return null;
+        }
+        return new Entry(timestamp, payload, offset + RECORD_HEADER_SIZE + length, moved + offset + RECORD_HEADER_SIZE + length);
+    }
+
+    private void force() {
+        if (fsync) {
+            buffer.force();
+        }
+    }
+
+    private static long checksum(long timestamp, byte[] payload) {
+        CRC32 crc = new CRC32();
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int) (timestamp >>> shift));
+        }
+        crc.update(payload);
+        return crc.getValue();
+    }
+
+    public static final class Entry {
+
+        private final long timestamp;
+        private final byte[] payload;
+        private final int end;
+        private final long position;
+
+        private Entry(long timestamp, byte[] payload, int end, long position) {
+            this.timestamp = timestamp;
+            this.payload = payload;
+            this.end = end;
+            this.position = position;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package io.pivio.server.journal;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.document.DocumentIngest;
+import io.pivio.server.store.ChangesetStore;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.StoreUnavailableException;
+import io.pivio.server.store.WriteConflictException;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepts uploads while the store is unavailable by appending them to an {@link UploadJournal}, and replays them in
+ * the order they were received once the store is available again. As long as journaled uploads of a document are
+ * waiting to be replayed, new uploads of the document are journaled as well, so a newer upload is never overwritten by
+ * an older one; uploads of other documents are stored right away. Deletions are journaled in the same way, so a
+ * journaled upload replayed afterwards cannot bring a deleted document back. Checking for journaled uploads and
+ * journaling an upload happen under the lock of the document in {@link DocumentIngest}.
+ * <p>
+ * Disabled by default, enable it with {@code pivio.journal.enabled=true}.
+ */
+@Component
+public class UploadJournalService {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UploadJournalService.class);
+
+    // uploaded documents always have an id, journaled deletions only this field
+    private static final String DELETED = "deleted";
+
+    private final DocumentIngest documentIngest;
+    private final DocumentStore documentStore;
+    private final ChangesetStore changesetStore;
+    private final ObjectMapper mapper;
+    private final CounterService counterService;
+    private final GaugeService gaugeService;
+
+    private final boolean enabled;
+    private final String path;
+    private final int maxSize;
+    private final boolean fsync;
+    private final int replayBatchSize;
+    private final long replayIntervalMillis;
+
+    private final Map<String, Integer> pendingByDocument = new ConcurrentHashMap<>();
+    private UploadJournal journal;
+    private ScheduledExecutorService replayExecutor;
+
+    public UploadJournalService(Environment environment, DocumentIngest documentIngest, DocumentStore documentStore,
+                                ChangesetStore changesetStore, ObjectMapper mapper, CounterService counterService,
+                                GaugeService gaugeService) {
+        this.documentIngest = documentIngest;
+        this.documentStore = documentStore;
+        this.changesetStore = changesetStore;
+        this.mapper = mapper;
+        this.counterService = counterService;
+        this.gaugeService = gaugeService;
+        this.enabled = environment.getProperty("pivio.journal.enabled", Boolean.class, false);
+        this.path = environment.getProperty("pivio.journal.path", "data/journal/uploads.journal");
+        this.maxSize = environment.getProperty("pivio.journal.max-size", Integer.class, 64 * 1024 * 1024);
+        this.fsync = environment.getProperty("pivio.journal.fsync", Boolean.class, true);
+        this.replayBatchSize = environment.getProperty("pivio.journal.replay-batch-size", Integer.class, 100);
+        this.replayIntervalMillis = environment.getProperty("pivio.journal.replay-interval", Long.class, 1000L);
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        journal = new UploadJournal(Paths.get(path), maxSize, fsync);
+        for (UploadJournal.Entry entry : journal.read(journal.pending())) {
+            pendingByDocument.merge(documentIdOf(entry), 1, Integer::sum);
+        }
+        LOG.info("Opened upload journal {} with {} uploads to replay", path, journal.pending());
+        replayExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "upload-journal-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayExecutor.scheduleWithFixedDelay(this::replay, replayIntervalMillis, replayIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        replayExecutor.shutdownNow();
+        journal.close();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return whether journaled uploads or deletions of the document are waiting to be replayed, new uploads of the
+     * document have to be journaled as well then
+     */
+    public boolean hasPending(String documentId) {
+        return enabled && pendingByDocument.containsKey(documentId);
+    }
+
+    /**
+     * @throws StoreUnavailableException if the journal is full
+     */
+    public void append(JsonNode document, DateTime uploaded) {
+        append(document.get("id").asText(), document, uploaded.getMillis());
+    }
+
+    /**
+     * @throws StoreUnavailableException if the journal is full
+     */
+    public void appendDeletion(String id, DateTime deleted) {
+        append(id, mapper.createObjectNode().put(DELETED, id), deleted.getMillis());
+    }
+
+    private void append(String documentId, JsonNode payload, long timestamp) {
+        if (!journal.append(timestamp, payload.toString().getBytes(StandardCharsets.UTF_8))) {
+            counterService.increment("counter.journal.rejected.full");
+            throw new StoreUnavailableException("store is unavailable and the upload journal is full", replayIntervalMillis);
+        }
+        pendingByDocument.merge(documentId, 1, Integer::sum);
+        counterService.increment("counter.journal.appended");
+        submitGauges();
+    }
+
+    void replay() {
+        try {
+            List<UploadJournal.Entry> entries;
+            while (!(entries = journal.read(replayBatchSize)).isEmpty()) {
+                List<UploadJournal.Entry> replayed = new ArrayList<>();
+                try {
+                    for (UploadJournal.Entry entry : entries) {
+                        replay(entry);
+                        replayed.add(entry);
+                    }
+                }
+                finally {
+                    if (!replayed.isEmpty()) {
+                        journal.acknowledge(replayed.get(replayed.size() - 1));
+                        // only once they are acknowledged, as new uploads of the documents are not journaled anymore
+                        for (UploadJournal.Entry entry : replayed) {
+                            pendingByDocument.computeIfPresent(documentIdOf(entry), (id, count) -> count > 1 ? count - 1 : null);
+                        }
+                    }
+                }
+                LOG.info("Replayed journaled uploads, {} left", journal.pending());
+            }
+        }
+        catch (StoreUnavailableException e) {
+            LOG.debug("Store still unavailable, {} journaled uploads left: {}", journal.pending(), e.getMessage());
+        }
+        catch (WriteConflictException e) {
+            LOG.info("Journaled upload conflicts with concurrent uploads, retrying with the next replay: {}", e.getMessage());
+        }
+        catch (RuntimeException e) {
+            // keeps the scheduled replay alive
+            LOG.error("Could not replay journaled uploads", e);
+        }
+        finally {
+            submitGauges();
+        }
+    }
+
+    private void replay(UploadJournal.Entry entry) {
+        DateTime uploaded = new DateTime(entry.getTimestamp());
+        try {
+            ObjectNode payload = (ObjectNode) mapper.readTree(entry.getPayload());
+            if (payload.has(DELETED)) {
+                String id = payload.get(DELETED).asText();
+                documentIngest.withLock(id, () -> {
+                    if (documentStore.delete(id)) {
+                        changesetStore.delete(id);
+                    }
+                    return null;
+                });
+                counterService.increment("counter.journal.replayed.deletion");
+                return;
+            }
+            documentIngest.ingest(payload, uploaded);
+            counterService.increment("counter.journal.replayed");
+        }
+        catch (StoreUnavailableException | WriteConflictException e) {
+            throw e;
+        }
+        catch (IOException | RuntimeException e) {
+            // e.g. rejected by the store, retrying it would block all uploads journaled after it
+            LOG.error("Dropping journaled upload received at {}: {}", uploaded, new String(entry.getPayload(), StandardCharsets.UTF_8), e);
+            counterService.increment("counter.journal.replay.dropped");
+        }
+    }
+
+    private String documentIdOf(UploadJournal.Entry entry) {
+        try {
+            JsonNode payload = mapper.readTree(entry.getPayload());
+            return payload.has(DELETED) ? payload.get(DELETED).asText() : payload.path("id").asText();
+        }
+        catch (IOException e) {
+            // replaying drops it as well
+            return "";
+        }
+    }
+
+    private void submitGauges() {
+        gaugeService.submit("gauge.journal.pending", journal.pending());
+        gaugeService.submit("gauge.journal.used-bytes", journal.usedBytes());
+        gaugeService.submit("gauge.journal.replay.lag", journal.oldestTimestamp().isPresent()
+                ? System.currentTimeMillis() - journal.oldestTimestamp().getAsLong()
+                : 0);
+    }
+}
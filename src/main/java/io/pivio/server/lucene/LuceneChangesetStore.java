@@ -0,0 +1,211 @@
+package io.pivio.server.lucene;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.DocumentSnapshot;
+import io.pivio.server.store.ChangesetStats;
+import io.pivio.server.store.ChangesetStatsAggregator;
+import io.pivio.server.store.ChangesetStore;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongField;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Counterpart of {@link LuceneDocumentStore} for changesets and snapshots, kept in two further indices. Only the
+ * document id, the order number and the timestamp are indexed, the order number also as doc value to look up the latest
+ * changeset or snapshot; other sorting and statistics are done on the matching changesets, which are few per document.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "lucene")
+public class LuceneChangesetStore implements ChangesetStore {
+
+    private static final String ID = "_id";
+    private static final String SOURCE = "_source";
+    private static final String DOCUMENT = "document";
+    private static final String ORDER = "order";
+    private static final String TIMESTAMP = "timestamp";
+
+    private static final Sort LATEST_FIRST = new Sort(new SortField(ORDER, SortField.Type.LONG, true));
+
+    private final LuceneIndex changesets;
+    private final LuceneIndex snapshots;
+    private final ObjectMapper mapper;
+
+    public LuceneChangesetStore(ObjectMapper mapper, @Value("${pivio.lucene.path:data/lucene}") String path) throws IOException {
+        this.mapper = mapper;
+        this.changesets = new LuceneIndex(Paths.get(path, "changesets"));
+        this.snapshots = new LuceneIndex(Paths.get(path, "snapshots"));
+    }
+
+    @Override
+    public void save(Changeset changeset) {
+        ObjectNode source = mapper.valueToTree(changeset);
+        source.set("patch", changeset.getFields());
+        String id = changeset.getDocument() + ":" + changeset.getOrder();
+        try {
+            changesets.update(new Term(ID, id), luceneDocument(id, changeset.getDocument(), changeset.getOrder(), changeset.getTimestamp(), source));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not store changeset " + id, e);
+        }
+    }
+
+    @Override
+    public long lastOrder(String documentId) throws IOException {
+        return changesets.first(new TermQuery(new Term(DOCUMENT, documentId)), LATEST_FIRST)
+                .map(document -> longValue(document, ORDER))
+                .orElse(0L);
+    }
+
+    @Override
+    public ArrayNode find(String documentId, DateTime since) throws IOException {
+        ArrayNode result = mapper.createArrayNode();
+        List<Document> documents = changesets.search(createQuery(documentId, since));
+        documents.sort(Comparator.comparingLong((Document document) -> longValue(document, TIMESTAMP)).reversed());
+        for (Document document : documents) {
+            result.add(((ObjectNode) source(document)).without("patch"));
+        }
+        return result;
+    }
+
+    @Override
+    public ArrayNode findForReplay(String documentId, long afterOrder, DateTime at) throws IOException {
+        Query query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(DOCUMENT, documentId)), BooleanClause.Occur.FILTER)
+                .add(NumericRangeQuery.newLongRange(ORDER, afterOrder, null, false, true), BooleanClause.Occur.FILTER)
+                .add(NumericRangeQuery.newLongRange(TIMESTAMP, null, at.getMillis(), true, true), BooleanClause.Occur.FILTER)
+                .build();
+        ArrayNode result = mapper.createArrayNode();
+        List<Document> documents = changesets.search(query);
+        documents.sort(Comparator.comparingLong(document -> longValue(document, ORDER)));
+        for (Document document : documents) {
+            result.add(source(document));
+        }
+        return result;
+    }
+
+    @Override
+    public ChangesetStats stats(String documentId, DateTime since, String interval, int size) {
+        ChangesetStatsAggregator aggregator = new ChangesetStatsAggregator(interval, size);
+        try {
+            for (Document document : changesets.search(createQuery(documentId, since))) {
+                aggregator.add(document.get(DOCUMENT), new DateTime(longValue(document, TIMESTAMP)),
+                        source(document).get("fields").findValuesAsText("path"));
+            }
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not compute changeset statistics", e);
+        }
+        return aggregator.build();
+    }
+
+    @Override
+    public void delete(String documentId) {
+        TermQuery query = new TermQuery(new Term(DOCUMENT, documentId));
+        try {
+            changesets.delete(query);
+            snapshots.delete(query);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not delete changesets of document " + documentId, e);
+        }
+    }
+
+    @Override
+    public void saveSnapshot(DocumentSnapshot snapshot) {
+        ObjectNode source = mapper.createObjectNode()
+                .put("document", snapshot.getDocument())
+                .put("order", snapshot.getOrder())
+                .put("timestamp", ISODateTimeFormat.dateTime().print(snapshot.getTimestamp()));
+        source.set("content", snapshot.getContent());
+        String id = snapshot.getDocument() + ":" + snapshot.getOrder();
+        try {
+            snapshots.update(new Term(ID, id), luceneDocument(id, snapshot.getDocument(), snapshot.getOrder(), snapshot.getTimestamp(), source));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not store snapshot " + id, e);
+        }
+    }
+
+    @Override
+    public Optional<JsonNode> findLatestSnapshot(String documentId, DateTime at) throws IOException {
+        Query query = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(DOCUMENT, documentId)), BooleanClause.Occur.FILTER)
+                .add(NumericRangeQuery.newLongRange(TIMESTAMP, null, at.getMillis(), true, true), BooleanClause.Occur.FILTER)
+                .build();
+        Optional<Document> latest = snapshots.first(query, LATEST_FIRST);
+        return latest.isPresent() ? Optional.of(source(latest.get())) : Optional.empty();
+    }
+
+    public void clear() throws IOException {
+        changesets.deleteAll();
+        snapshots.deleteAll();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        changesets.close();
+        snapshots.close();
+    }
+
+    private Query createQuery(String documentId, DateTime since) {
+        BooleanQuery.Builder query = new BooleanQuery.Builder().add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        if (documentId != null) {
+            query.add(new TermQuery(new Term(DOCUMENT, documentId)), BooleanClause.Occur.FILTER);
+        }
+        if (since != null) {
+            query.add(NumericRangeQuery.newLongRange(TIMESTAMP, since.getMillis(), DateTime.now().getMillis(), true, true), BooleanClause.Occur.FILTER);
+        }
+        return query.build();
+    }
+
+    private Document luceneDocument(String id, String documentId, long order, DateTime timestamp, JsonNode source) {
+        Document document = new Document();
+        document.add(new StringField(ID, id, Field.Store.NO));
+        document.add(new StringField(DOCUMENT, documentId, Field.Store.YES));
+        document.add(new LongField(ORDER, order, Field.Store.YES));
+        document.add(new NumericDocValuesField(ORDER, order));
+        document.add(new LongField(TIMESTAMP, timestamp.getMillis(), Field.Store.YES));
+        document.add(new StoredField(SOURCE, new BytesRef(source.toString().getBytes(StandardCharsets.UTF_8))));
+        return document;
+    }
+
+    private JsonNode source(Document document) throws IOException {
+        BytesRef source = document.getBinaryValue(SOURCE);
+        return mapper.readTree(source.bytes, source.offset, source.length);
+    }
+
+    private long longValue(Document document, String field) {
+        return document.getField(field).numericValue().longValue();
+    }
+}
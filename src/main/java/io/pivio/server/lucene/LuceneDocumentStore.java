@@ -0,0 +1,169 @@
+package io.pivio.server.lucene;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.store.DocumentQuery;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.InvalidQueryException;
+import io.pivio.server.store.SortField;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Stores documents in an embedded Lucene index below {@code pivio.lucene.path}, for installations that do not want
+ * to run an Elasticsearch cluster. Every value is indexed under its dotted path, once as it is and once per token, so
+ * the index can answer the same queries as {@link DocumentQuery}.
+ */
+@Component
+@ConditionalOnProperty(name = "pivio.store", havingValue = "lucene")
+public class LuceneDocumentStore implements DocumentStore {
+
+    private static final String ID = "_id";
+    private static final String SOURCE = "_source";
+
+    // Lucene rejects terms longer than 32766 UTF-8 bytes
+    private static final int MAX_TERM_LENGTH = 32766 / 4;
+
+    private final LuceneIndex index;
+    private final ObjectMapper mapper;
+
+    public LuceneDocumentStore(ObjectMapper mapper, @Value("${pivio.lucene.path:data/lucene}") String path) throws IOException {
+        this.mapper = mapper;
+        this.index = new LuceneIndex(Paths.get(path, "documents"));
+    }
+
+    @Override
+    public Optional<JsonNode> get(String id) throws IOException {
+        Optional<Document> document = index.first(new TermQuery(new Term(ID, id)), null);
+        if (!document.isPresent()) {
+            return Optional.empty();
+        }
+        return Optional.of(source(document.get()));
+    }
+
+    @Override
+    public boolean exists(String id) {
+        try {
+            return index.matchesAny(new TermQuery(new Term(ID, id)));
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void save(String id, JsonNode document) {
+        Document luceneDocument = new Document();
+        luceneDocument.add(new StringField(ID, id, Field.Store.YES));
+        luceneDocument.add(new StoredField(SOURCE, new BytesRef(document.toString().getBytes(StandardCharsets.UTF_8))));
+        addValues(luceneDocument, "", document);
+        try {
+            index.update(new Term(ID, id), luceneDocument);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not store document " + id, e);
+        }
+    }
+
+    @Override
+    public synchronized boolean delete(String id) {
+        TermQuery query = new TermQuery(new Term(ID, id));
+        try {
+            if (!index.matchesAny(query)) {
+                return false;
+            }
+            index.delete(query);
+            return true;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("could not delete document " + id, e);
+        }
+    }
+
+    @Override
+    public List<JsonNode> search(String query, List<SortField> sort) throws IOException {
+        final JsonNode queryJson;
+        try {
+            queryJson = query == null ? null : mapper.readTree(query);
+        }
+        catch (IOException e) {
+            throw new InvalidQueryException("could not parse search query " + query, e);
+        }
+        DocumentQuery documentQuery = DocumentQuery.parse(queryJson);
+        for (SortField sortField : sort) {
+            if (!index.matchesAny(new TermQuery(new Term(LuceneQueryTranslator.FIELD_NAMES, sortField.getField())))) {
+                throw new InvalidQueryException("No mapping found for [" + sortField.getField() + "] in order to sort on");
+            }
+        }
+
+        LuceneQueryTranslator.Translation translation = LuceneQueryTranslator.translate(queryJson);
+        List<JsonNode> matches = new ArrayList<>();
+        for (Document document : index.search(translation.query)) {
+            JsonNode source = source(document);
+            if (translation.exact || documentQuery.matches(source)) {
+                matches.add(source);
+            }
+        }
+        return DocumentQuery.sort(matches, sort);
+    }
+
+    public void clear() throws IOException {
+        index.deleteAll();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        index.close();
+    }
+
+    private JsonNode source(Document document) throws IOException {
+        BytesRef source = document.getBinaryValue(SOURCE);
+        return mapper.readTree(source.bytes, source.offset, source.length);
+    }
+
+    private void addValues(Document luceneDocument, String path, JsonNode node) {
+        if (node == null || node.isNull()) {
+            return;
+        }
+        if (node.isArray()) {
+            node.forEach(element -> addValues(luceneDocument, path, element));
+            return;
+        }
+        if (!path.isEmpty()) {
+            luceneDocument.add(new StringField(LuceneQueryTranslator.FIELD_NAMES, path, Field.Store.NO));
+        }
+        if (node.isObject()) {
+            node.fields().forEachRemaining(field ->
+                    addValues(luceneDocument, path.isEmpty() ? field.getKey() : path + "." + field.getKey(), field.getValue()));
+        }
+        else {
+            Set<String> terms = new LinkedHashSet<>();
+            terms.add(node.asText());
+            terms.addAll(DocumentQuery.analyze(node.asText()));
+            for (String term : terms) {
+                if (term.length() <= MAX_TERM_LENGTH) {
+                    luceneDocument.add(new StringField(path, term, Field.Store.NO));
+                }
+            }
+        }
+    }
+}
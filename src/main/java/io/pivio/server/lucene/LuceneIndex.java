@@ -0,0 +1,118 @@
+package io.pivio.server.lucene;
+
+import org.apache.lucene.analysis.core.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A Lucene index in a memory mapped directory. Every write is committed and made visible to searches before it
+ * returns, which is what the callers expect from Elasticsearch after a refresh. Uploads are rare compared to reads,
+ * so the cost of a commit per write is acceptable.
+ * <p>
+ * Fields are never analyzed by Lucene; callers add the tokens of a value as separate exact value fields.
+ */
+class LuceneIndex implements Closeable {
+
+    private final Directory directory;
+    private final IndexWriter writer;
+    private final SearcherManager searcherManager;
+
+    LuceneIndex(Path path) throws IOException {
+        Files.createDirectories(path);
+        directory = new MMapDirectory(path);
+        writer = new IndexWriter(directory, new IndexWriterConfig(new KeywordAnalyzer()));
+        searcherManager = new SearcherManager(writer, true, null);
+    }
+
+    void update(Term id, Document document) throws IOException {
+        writer.updateDocument(id, document);
+        commit();
+    }
+
+    void delete(Query query) throws IOException {
+        writer.deleteDocuments(query);
+        commit();
+    }
+
+    void deleteAll() throws IOException {
+        writer.deleteAll();
+        commit();
+    }
+
+    /**
+     * @return stored fields of all documents matching the query, best matches first
+     */
+    List<Document> search(Query query) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            // counting is cheap, collecting as many top hits as there are documents in the index would not be
+            int count = searcher.count(query);
+            if (count == 0) {
+                return new ArrayList<>();
+            }
+            TopDocs topDocs = searcher.search(query, count);
+            List<Document> documents = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                documents.add(searcher.doc(scoreDoc.doc));
+            }
+            return documents;
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /**
+     * @return stored fields of the first document matching the query in the given order, e.g. the one with an id
+     */
+    Optional<Document> first(Query query, Sort sort) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            TopDocs topDocs = sort == null ? searcher.search(query, 1) : searcher.search(query, 1, sort);
+            return topDocs.scoreDocs.length == 0 ? Optional.empty() : Optional.of(searcher.doc(topDocs.scoreDocs[0].doc));
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    boolean matchesAny(Query query) throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return searcher.search(query, 1).totalHits > 0;
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    private void commit() throws IOException {
+        writer.commit();
+        searcherManager.maybeRefreshBlocking();
+    }
+
+    @Override
+    public void close() throws IOException {
+        searcherManager.close();
+        writer.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,176 @@
+package io.pivio.server.lucene;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.pivio.server.store.DocumentQuery;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates the query DSL supported by {@link DocumentQuery} into a Lucene query over the fields written by
+ * {@link LuceneDocumentStore}. Where the index cannot express a condition exactly (phrases, ranges and the same-object
+ * semantics of nested queries) the translation matches a superset, and the candidates have to be checked with
+ * {@link DocumentQuery#matches(JsonNode)}.
+ * <p>
+ * Queries are expected to have been validated by {@link DocumentQuery#parse(JsonNode)} before.
+ */
+class LuceneQueryTranslator {
+
+    static final String FIELD_NAMES = "_field_names";
+
+    static Translation translate(JsonNode query) {
+        if (query == null) {
+            return new Translation(new MatchAllDocsQuery(), true);
+        }
+        return clause(query.has("query") ? query.get("query") : query);
+    }
+
+    private static Translation clause(JsonNode clause) {
+        Map.Entry<String, JsonNode> entry = clause.fields().next();
+        JsonNode body = entry.getValue();
+        switch (entry.getKey()) {
+            case "match_all":
+                return new Translation(new MatchAllDocsQuery(), true);
+            case "match":
+                return match(body, false);
+            case "match_phrase":
+                return match(body, true);
+            case "term":
+                return term(body);
+            case "terms":
+                return terms(body);
+            case "prefix":
+                return prefix(body);
+            case "range":
+                return new Translation(fieldExists(singleField(body).getKey()), false);
+            case "exists":
+                return new Translation(fieldExists(body.path("field").asText()), true);
+            case "bool":
+                return bool(body);
+            case "nested":
+                return new Translation(clause(body.get("query")).query, false);
+            default:
+                return new Translation(new MatchAllDocsQuery(), false);
+        }
+    }
+
+    private static Translation match(JsonNode body, boolean phrase) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        JsonNode parameters = field.getValue();
+        String text = parameters.isObject() ? parameters.path("query").asText() : parameters.asText();
+        boolean and = phrase || parameters.isObject() && "and".equalsIgnoreCase(parameters.path("operator").asText());
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (String token : DocumentQuery.analyze(text)) {
+            query.add(new TermQuery(new Term(field.getKey(), token)), and ? BooleanClause.Occur.MUST : BooleanClause.Occur.SHOULD);
+        }
+        return new Translation(query.build(), !phrase);
+    }
+
+    private static Translation term(JsonNode body) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        JsonNode parameters = field.getValue();
+        String term = parameters.isObject() ? parameters.path("value").asText() : parameters.asText();
+        return new Translation(new TermQuery(new Term(field.getKey(), term)), true);
+    }
+
+    private static Translation terms(JsonNode body) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        field.getValue().forEach(term -> query.add(new TermQuery(new Term(field.getKey(), term.asText())), BooleanClause.Occur.SHOULD));
+        return new Translation(query.build(), true);
+    }
+
+    private static Translation prefix(JsonNode body) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        JsonNode parameters = field.getValue();
+        String prefix = parameters.isObject() ? parameters.path("value").asText() : parameters.asText();
+        return new Translation(new PrefixQuery(new Term(field.getKey(), prefix)), true);
+    }
+
+    /**
+     * A must_not clause only matching a superset would exclude too much, so it is left to the exact check instead.
+     */
+    private static Translation bool(JsonNode body) {
+        List<Translation> must = clauses(body, "must");
+        List<Translation> filter = clauses(body, "filter");
+        List<Translation> should = clauses(body, "should");
+        List<Translation> mustNot = clauses(body, "must_not");
+
+        boolean exact = true;
+        boolean hasRequiredClause = false;
+        BooleanQuery.Builder query = new BooleanQuery.Builder();
+        for (Translation translation : must) {
+            query.add(translation.query, BooleanClause.Occur.MUST);
+            exact &= translation.exact;
+            hasRequiredClause = true;
+        }
+        for (Translation translation : filter) {
+            query.add(translation.query, BooleanClause.Occur.FILTER);
+            exact &= translation.exact;
+            hasRequiredClause = true;
+        }
+        for (Translation translation : should) {
+            query.add(translation.query, BooleanClause.Occur.SHOULD);
+            exact &= translation.exact;
+        }
+        for (Translation translation : mustNot) {
+            if (translation.exact) {
+                query.add(translation.query, BooleanClause.Occur.MUST_NOT);
+            }
+            else {
+                exact = false;
+            }
+        }
+        int minimumShouldMatch = body.has("minimum_should_match")
+                ? body.get("minimum_should_match").asInt()
+                : (hasRequiredClause ? 0 : Math.min(1, should.size()));
+        query.setMinimumNumberShouldMatch(minimumShouldMatch);
+        if (!hasRequiredClause && should.isEmpty()) {
+            // Lucene matches nothing with prohibited clauses only
+            query.add(new MatchAllDocsQuery(), BooleanClause.Occur.MUST);
+        }
+        return new Translation(query.build(), exact);
+    }
+
+    private static List<Translation> clauses(JsonNode body, String occurrence) {
+        List<Translation> clauses = new ArrayList<>();
+        JsonNode node = body.get(occurrence);
+        if (node == null) {
+            return clauses;
+        }
+        if (node.isArray()) {
+            node.forEach(clause -> clauses.add(clause(clause)));
+        }
+        else {
+            clauses.add(clause(node));
+        }
+        return clauses;
+    }
+
+    private static Query fieldExists(String field) {
+        return new TermQuery(new Term(FIELD_NAMES, field));
+    }
+
+    private static Map.Entry<String, JsonNode> singleField(JsonNode body) {
+        return body.fields().next();
+    }
+
+    static final class Translation {
+
+        final Query query;
+        final boolean exact;
+
+        private Translation(Query query, boolean exact) {
+            this.query = query;
+            this.exact = exact;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.pivio.server.store;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregated changeset statistics, see {@link ChangesetStore#stats}.
+ */
+public class ChangesetStats {
+
+    private final long total;
+    private final List<Bucket> histogram = new ArrayList<>();
+    private final List<Bucket> documents = new ArrayList<>();
+    private final List<Bucket> paths = new ArrayList<>();
+
+    public ChangesetStats(long total) {
+        this.total = total;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return number of changesets per interval, keyed by the ISO 8601 start of the interval
+     */
+    public List<Bucket> getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return number of changesets of the documents changed most often
+     */
+    public List<Bucket> getDocuments() {
+        return documents;
+    }
+
+    /**
+     * @return number of changes of the paths changed most often
+     */
+    public List<Bucket> getPaths() {
+        return paths;
+    }
+
+    public static class Bucket {
+
+        private final String key;
+        private final long count;
+
+        public Bucket(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package io.pivio.server.store;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeConstants;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.ISODateTimeFormat;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Computes {@link ChangesetStats} for stores without aggregations of their own, the same way Elasticsearch does:
+ * intervals start at midnight UTC, weeks on Monday, and empty intervals between the first and the last changeset are
+ * reported with a count of 0.
+ */
+public class ChangesetStatsAggregator {
+
+    private final String interval;
+    private final int size;
+
+    private long total;
+    private final TreeMap<DateTime, Long> perInterval = new TreeMap<>();
+    private final Map<String, Long> perDocument = new HashMap<>();
+    private final Map<String, Long> perPath = new HashMap<>();
+
+    /**
+     * @param interval one of {@code day}, {@code week} or {@code month}
+     * @param size     maximum number of documents and paths reported
+     */
+    public ChangesetStatsAggregator(String interval, int size) {
+        this.interval = interval;
+        this.size = size;
+    }
+
+    public void add(String document, DateTime timestamp, Iterable<String> paths) {
+        total++;
+        perInterval.merge(startOfInterval(timestamp), 1L, Long::sum);
+        perDocument.merge(document, 1L, Long::sum);
+        for (String path : paths) {
+            perPath.merge(path, 1L, Long::sum);
+        }
+    }
+
+    public ChangesetStats build() {
+        ChangesetStats stats = new ChangesetStats(total);
+        if (!perInterval.isEmpty()) {
+            for (DateTime start = perInterval.firstKey(); !start.isAfter(perInterval.lastKey()); start = nextInterval(start)) {
+                stats.getHistogram().add(new ChangesetStats.Bucket(ISODateTimeFormat.dateTime().print(start), perInterval.getOrDefault(start, 0L)));
+            }
+        }
+        stats.getDocuments().addAll(top(perDocument));
+        stats.getPaths().addAll(top(perPath));
+        return stats;
+    }
+
+    private List<ChangesetStats.Bucket> top(Map<String, Long> counts) {
+        return counts.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .limit(size)
+                .map(e -> new ChangesetStats.Bucket(e.getKey(), e.getValue()))
+                .collect(Collectors.toList());
+    }
+
+    private DateTime startOfInterval(DateTime timestamp) {
+        DateTime day = timestamp.withZone(DateTimeZone.UTC).withTimeAtStartOfDay();
+        switch (interval) {
+            case "day":
+                return day;
+            case "month":
+                return day.withDayOfMonth(1);
+            default:
+                return day.withDayOfWeek(DateTimeConstants.MONDAY);
+        }
+    }
+
+    private DateTime nextInterval(DateTime start) {
+        switch (interval) {
+            case "day":
+                return start.plusDays(1);
+            case "month":
+                return start.plusMonths(1);
+            default:
+                return start.plusWeeks(1);
+        }
+    }
+}
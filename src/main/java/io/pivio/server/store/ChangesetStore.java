@@ -0,0 +1,53 @@
+package io.pivio.server.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.DocumentSnapshot;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.util.Optional;
+
+/**
+ * Persistence of changesets and document snapshots. The implementation is selected by the {@code pivio.store}
+ * property.
+ */
+public interface ChangesetStore {
+
+    /**
+     * Stores the changeset together with its typed patch. The patch is kept to reconstruct documents but not returned
+     * by {@link #find(String, DateTime)}.
+     */
+    void save(Changeset changeset);
+
+    /**
+     * @return order number of the latest changeset of the document or 0 if it has none
+     */
+    long lastOrder(String documentId) throws IOException;
+
+    /**
+     * @param documentId restricts the result to the changesets of one document if not {@code null}
+     * @param since      restricts the result to changesets not older than this if not {@code null}
+     * @return changesets, newest first
+     */
+    ArrayNode find(String documentId, DateTime since) throws IOException;
+
+    /**
+     * @return changesets of the document with an order number greater than {@code afterOrder} that are not newer than
+     * {@code at}, ordered ascending and including their typed patch
+     * @throws IOException if not all of them could be read, a document replayed from some of them would be wrong
+     */
+    ArrayNode findForReplay(String documentId, long afterOrder, DateTime at) throws IOException;
+
+    ChangesetStats stats(String documentId, DateTime since, String interval, int size);
+
+    /**
+     * Deletes all changesets and snapshots of the document.
+     */
+    void delete(String documentId);
+
+    void saveSnapshot(DocumentSnapshot snapshot);
+
+    Optional<JsonNode> findLatestSnapshot(String documentId, DateTime at) throws IOException;
+}
@@ -0,0 +1,326 @@
+package io.pivio.server.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates the subset of the Elasticsearch query DSL used by pivio clients against single documents:
+ * {@code match_all}, {@code match}, {@code match_phrase}, {@code term}, {@code terms}, {@code prefix},
+ * {@code range}, {@code exists}, {@code bool} and {@code nested}.
+ * <p>
+ * Text is analyzed like the standard analyzer does it for latin scripts: lower cased and split at everything that is
+ * neither a letter nor a digit. Fields are not mapped, so {@code term} matches the raw value as well as any of its
+ * tokens, which covers both exact value and analyzed fields.
+ */
+public class DocumentQuery {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final Predicate<Scope> predicate;
+
+    private DocumentQuery(Predicate<Scope> predicate) {
+        this.predicate = predicate;
+    }
+
+    public static DocumentQuery parse(JsonNode query) {
+        if (query == null) {
+            return new DocumentQuery(scope -> true);
+        }
+        JsonNode clause = query.has("query") ? query.get("query") : query;
+        return new DocumentQuery(compile(clause));
+    }
+
+    public boolean matches(JsonNode document) {
+        return predicate.test(new Scope("", document, null));
+    }
+
+    /**
+     * Sorts like Elasticsearch sorts on multi valued or analyzed fields: ascending by the smallest, descending by
+     * the largest value of a document. Documents without a value come last in both directions.
+     */
+    public static List<JsonNode> sort(List<JsonNode> documents, List<SortField> sortFields) {
+        if (sortFields.isEmpty()) {
+            return documents;
+        }
+        List<SortKeys> keyed = new ArrayList<>(documents.size());
+        for (JsonNode document : documents) {
+            List<Comparable<Object>> keys = new ArrayList<>(sortFields.size());
+            for (SortField sortField : sortFields) {
+                keys.add(sortKey(document, sortField));
+            }
+            keyed.add(new SortKeys(document, keys));
+        }
+        keyed.sort((a, b) -> {
+            for (int i = 0; i < sortFields.size(); i++) {
+                int comparison = compareSortKeys(a.keys.get(i), b.keys.get(i), sortFields.get(i).isAscending());
+                if (comparison != 0) {
+                    return comparison;
+                }
+            }
+            return 0;
+        });
+        return keyed.stream().map(k -> k.document).collect(Collectors.toList());
+    }
+
+    public static List<String> analyze(String text) {
+        return Arrays.stream(TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT)))
+                .filter(token -> !token.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static Comparable<Object> sortKey(JsonNode document, SortField sortField) {
+        List<Comparable<Object>> keys = new ArrayList<>();
+        for (JsonNode value : values(new Scope("", document, null), sortField.getField())) {
+            keys.addAll(sortKeysOf(value));
+        }
+        if (keys.isEmpty()) {
+            return null;
+        }
+        return sortField.isAscending() ? Collections.min(keys) : Collections.max(keys);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Comparable<Object>> sortKeysOf(JsonNode value) {
+        List<Comparable<Object>> keys = new ArrayList<>();
+        if (value.isNumber()) {
+            keys.add((Comparable<Object>) (Comparable<?>) value.doubleValue());
+        }
+        else if (value.isValueNode()) {
+            for (String token : analyze(value.asText())) {
+                keys.add((Comparable<Object>) (Comparable<?>) token);
+            }
+        }
+        return keys;
+    }
+
+    private static int compareSortKeys(Comparable<Object> a, Comparable<Object> b, boolean ascending) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        if (a.getClass() != b.getClass()) {
+            throw new InvalidQueryException("cannot sort on field with numbers and text values");
+        }
+        return ascending ? a.compareTo(b) : b.compareTo(a);
+    }
+
+    private static Predicate<Scope> compile(JsonNode clause) {
+        if (clause == null || !clause.isObject() || clause.size() != 1) {
+            throw new InvalidQueryException("query clause must be an object with exactly one field: " + clause);
+        }
+        Map.Entry<String, JsonNode> entry = clause.fields().next();
+        JsonNode body = entry.getValue();
+        switch (entry.getKey()) {
+            case "match_all":
+                return scope -> true;
+            case "match":
+                return match(body, false);
+            case "match_phrase":
+                return match(body, true);
+            case "term":
+                return term(body);
+            case "terms":
+                return terms(body);
+            case "prefix":
+                return prefix(body);
+            case "range":
+                return range(body);
+            case "exists":
+                return exists(body);
+            case "bool":
+                return bool(body);
+            case "nested":
+                return nested(body);
+            default:
+                throw new InvalidQueryException("query type [" + entry.getKey() + "] is not supported by the in-memory store");
+        }
+    }
+
+    private static Predicate<Scope> match(JsonNode body, boolean phrase) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        JsonNode parameters = field.getValue();
+        String text = parameters.isObject() ? parameters.path("query").asText() : parameters.asText();
+        boolean and = parameters.isObject() && "and".equalsIgnoreCase(parameters.path("operator").asText());
+        List<String> queryTokens = analyze(text);
+        return scope -> {
+            List<String> tokens = new ArrayList<>();
+            for (JsonNode value : values(scope, field.getKey())) {
+                List<String> valueTokens = analyze(value.asText());
+                if (phrase && Collections.indexOfSubList(valueTokens, queryTokens) >= 0) {
+                    return true;
+                }
+                tokens.addAll(valueTokens);
+            }
+            if (phrase || queryTokens.isEmpty()) {
+                return false;
+            }
+            return and ? tokens.containsAll(queryTokens) : queryTokens.stream().anyMatch(tokens::contains);
+        };
+    }
+
+    private static Predicate<Scope> term(JsonNode body) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        JsonNode parameters = field.getValue();
+        String term = parameters.isObject() ? parameters.path("value").asText() : parameters.asText();
+        return scope -> values(scope, field.getKey()).stream().anyMatch(value -> matchesTerm(value, term));
+    }
+
+    private static Predicate<Scope> terms(JsonNode body) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        List<String> terms = new ArrayList<>();
+        field.getValue().forEach(term -> terms.add(term.asText()));
+        return scope -> values(scope, field.getKey()).stream().anyMatch(value -> terms.stream().anyMatch(term -> matchesTerm(value, term)));
+    }
+
+    private static boolean matchesTerm(JsonNode value, String term) {
+        return value.asText().equals(term) || analyze(value.asText()).contains(term);
+    }
+
+    private static Predicate<Scope> prefix(JsonNode body) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        JsonNode parameters = field.getValue();
+        String prefix = parameters.isObject() ? parameters.path("value").asText() : parameters.asText();
+        return scope -> values(scope, field.getKey()).stream().anyMatch(value ->
+                value.asText().startsWith(prefix) || analyze(value.asText()).stream().anyMatch(token -> token.startsWith(prefix)));
+    }
+
+    private static Predicate<Scope> range(JsonNode body) {
+        Map.Entry<String, JsonNode> field = singleField(body);
+        JsonNode bounds = field.getValue();
+        return scope -> values(scope, field.getKey()).stream().anyMatch(value ->
+                (!bounds.has("gt") || compare(value, bounds.get("gt")) > 0)
+                        && (!bounds.has("gte") || compare(value, bounds.get("gte")) >= 0)
+                        && (!bounds.has("lt") || compare(value, bounds.get("lt")) < 0)
+                        && (!bounds.has("lte") || compare(value, bounds.get("lte")) <= 0));
+    }
+
+    private static int compare(JsonNode value, JsonNode bound) {
+        if (value.isNumber() && bound.isNumber()) {
+            return Double.compare(value.doubleValue(), bound.doubleValue());
+        }
+        return value.asText().compareTo(bound.asText());
+    }
+
+    private static Predicate<Scope> exists(JsonNode body) {
+        String field = body.path("field").asText();
+        return scope -> !values(scope, field).isEmpty();
+    }
+
+    private static Predicate<Scope> bool(JsonNode body) {
+        List<Predicate<Scope>> must = clauses(body, "must");
+        must.addAll(clauses(body, "filter"));
+        List<Predicate<Scope>> should = clauses(body, "should");
+        List<Predicate<Scope>> mustNot = clauses(body, "must_not");
+        int minimumShouldMatch = body.has("minimum_should_match")
+                ? body.get("minimum_should_match").asInt()
+                : (must.isEmpty() ? Math.min(1, should.size()) : 0);
+        return scope -> must.stream().allMatch(clause -> clause.test(scope))
+                && mustNot.stream().noneMatch(clause -> clause.test(scope))
+                && should.stream().filter(clause -> clause.test(scope)).count() >= minimumShouldMatch;
+    }
+
+    private static List<Predicate<Scope>> clauses(JsonNode body, String occurrence) {
+        List<Predicate<Scope>> clauses = new ArrayList<>();
+        JsonNode node = body.get(occurrence);
+        if (node == null) {
+            return clauses;
+        }
+        if (node.isArray()) {
+            node.forEach(clause -> clauses.add(compile(clause)));
+        }
+        else {
+            clauses.add(compile(node));
+        }
+        return clauses;
+    }
+
+    /**
+     * All conditions of the inner query have to be satisfied by the same nested object, as in Elasticsearch.
+     */
+    private static Predicate<Scope> nested(JsonNode body) {
+        String path = body.path("path").asText();
+        Predicate<Scope> inner = compile(body.get("query"));
+        return scope -> values(scope, path).stream().anyMatch(element -> inner.test(new Scope(path, element, scope)));
+    }
+
+    private static Map.Entry<String, JsonNode> singleField(JsonNode body) {
+        if (body == null || !body.isObject() || body.size() != 1) {
+            throw new InvalidQueryException("query clause must name exactly one field: " + body);
+        }
+        return body.fields().next();
+    }
+
+    /**
+     * @return all non null values reachable by the dotted field name; arrays are flattened on the way
+     */
+    private static List<JsonNode> values(Scope scope, String field) {
+        for (Scope current = scope; current != null; current = current.parent) {
+            if (current.path.isEmpty()) {
+                return collect(current.node, field.split("\\."));
+            }
+            if (field.equals(current.path)) {
+                return collect(current.node, new String[0]);
+            }
+            if (field.startsWith(current.path + ".")) {
+                return collect(current.node, field.substring(current.path.length() + 1).split("\\."));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static List<JsonNode> collect(JsonNode node, String[] segments) {
+        List<JsonNode> values = new ArrayList<>();
+        collect(node, segments, 0, values);
+        return values;
+    }
+
+    private static void collect(JsonNode node, String[] segments, int index, List<JsonNode> values) {
+        if (node == null || node.isNull() || node.isMissingNode()) {
+            return;
+        }
+        if (node.isArray()) {
+            for (Iterator<JsonNode> elements = node.elements(); elements.hasNext(); ) {
+                collect(elements.next(), segments, index, values);
+            }
+        }
+        else if (index == segments.length) {
+            values.add(node);
+        }
+        else {
+            collect(node.get(segments[index]), segments, index + 1, values);
+        }
+    }
+
+    private static final class Scope {
+
+        private final String path;
+        private final JsonNode node;
+        private final Scope parent;
+
+        private Scope(String path, JsonNode node, Scope parent) {
+            this.path = path;
+            this.node = node;
+            this.parent = parent;
+        }
+    }
+
+    private static final class SortKeys {
+
+        private final JsonNode document;
+        private final List<Comparable<Object>> keys;
+
+        private SortKeys(JsonNode document, List<Comparable<Object>> keys) {
+            this.document = document;
+            this.keys = keys;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.pivio.server.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Persistence of pivio documents. The implementation is selected by the {@code pivio.store} property.
+ */
+public interface DocumentStore {
+
+    Optional<JsonNode> get(String id) throws IOException;
+
+    /**
+     * Like {@link #get(String)}, together with the version of the document if the store supports conditional writes.
+     */
+    default Optional<StoredDocument> getStored(String id) throws IOException {
+        return get(id).map(document -> new StoredDocument(document, StoredDocument.UNKNOWN_VERSION));
+    }
+
+    boolean exists(String id);
+
+    void save(String id, JsonNode document);
+
+    /**
+     * @return whether a document with the given id existed
+     */
+    boolean delete(String id);
+
+    /**
+     * @param query Elasticsearch query DSL as JSON, all documents are returned if it is {@code null}
+     * @throws InvalidQueryException if the query or the sort fields cannot be executed
+     */
+    List<JsonNode> search(String query, List<SortField> sort) throws IOException;
+}
@@ -0,0 +1,56 @@
+package io.pivio.server.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.DocumentSnapshot;
+
+import java.util.Optional;
+
+/**
+ * Everything to be written for one upload: the document, the changeset to its previous version unless nothing has
+ * changed, and a snapshot if one is due.
+ */
+public class DocumentUpload {
+
+    private final String id;
+    private final JsonNode document;
+    private final StoredDocument previous;
+    private final Changeset changeset;
+    private final DocumentSnapshot snapshot;
+
+    /**
+     * @param previous  stored document the upload is based on, {@code null} if there is none
+     * @param changeset {@code null} if nothing has changed
+     * @param snapshot  {@code null} if no snapshot is due
+     */
+    public DocumentUpload(String id, JsonNode document, StoredDocument previous, Changeset changeset, DocumentSnapshot snapshot) {
+        this.id = id;
+        this.document = document;
+        this.previous = previous;
+        this.changeset = changeset;
+        this.snapshot = snapshot;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public JsonNode getDocument() {
+        return document;
+    }
+
+    /**
+     * @return stored document the upload is based on; the upload must not be written if it has been changed meanwhile
+     */
+    public Optional<StoredDocument> getPrevious() {
+        return Optional.ofNullable(previous);
+    }
+
+    public Optional<Changeset> getChangeset() {
+        return Optional.ofNullable(changeset);
+    }
+
+    public Optional<DocumentSnapshot> getSnapshot() {
+        return Optional.ofNullable(snapshot);
+    }
+}
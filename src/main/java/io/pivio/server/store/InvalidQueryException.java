@@ -0,0 +1,15 @@
+package io.pivio.server.store;
+
+/**
+ * Thrown by a {@link DocumentStore} when a search query or sort cannot be executed.
+ */
+public class InvalidQueryException extends RuntimeException {
+
+    public InvalidQueryException(String message) {
+        super(message);
+    }
+
+    public InvalidQueryException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,27 @@
+package io.pivio.server.store;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes uploads one store call after another, for the embedded stores which do not fail in between.
+ */
+@Component
+@ConditionalOnExpression("'${pivio.store:elasticsearch}' != 'elasticsearch'")
+public class SequentialUploadWriter implements UploadWriter {
+
+    private final DocumentStore documentStore;
+    private final ChangesetStore changesetStore;
+
+    public SequentialUploadWriter(DocumentStore documentStore, ChangesetStore changesetStore) {
+        this.documentStore = documentStore;
+        this.changesetStore = changesetStore;
+    }
+
+    @Override
+    public void write(DocumentUpload upload) {
+        documentStore.save(upload.getId(), upload.getDocument());
+        upload.getChangeset().ifPresent(changesetStore::save);
+        upload.getSnapshot().ifPresent(changesetStore::saveSnapshot);
+    }
+}
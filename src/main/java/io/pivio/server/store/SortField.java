@@ -0,0 +1,23 @@
+package io.pivio.server.store;
+
+/**
+ * Field to sort search results by.
+ */
+public class SortField {
+
+    private final String field;
+    private final boolean ascending;
+
+    public SortField(String field, boolean ascending) {
+        this.field = field;
+        this.ascending = ascending;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+}
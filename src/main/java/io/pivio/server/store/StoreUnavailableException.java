@@ -0,0 +1,27 @@
+package io.pivio.server.store;
+
+/**
+ * Thrown by a store when its backend is temporarily unavailable or overloaded. Requests failing with it are answered
+ * with {@code 503 Service Unavailable}.
+ */
+public class StoreUnavailableException extends RuntimeException {
+
+    private final long retryAfterMillis;
+
+    public StoreUnavailableException(String message, long retryAfterMillis) {
+        super(message);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public StoreUnavailableException(String message, long retryAfterMillis, Throwable cause) {
+        super(message, cause);
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * @return how long clients should wait before trying again, 0 if unknown
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
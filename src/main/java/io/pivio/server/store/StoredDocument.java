@@ -0,0 +1,31 @@
+package io.pivio.server.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Stored document together with its version, which changes on every write. Stores supporting conditional writes only
+ * overwrite a document if it still has the version it has been read with.
+ */
+public class StoredDocument {
+
+    public static final long UNKNOWN_VERSION = -1L;
+
+    private final JsonNode document;
+    private final long version;
+
+    public StoredDocument(JsonNode document, long version) {
+        this.document = document;
+        this.version = version;
+    }
+
+    public JsonNode getDocument() {
+        return document;
+    }
+
+    /**
+     * @return version of the document or {@link #UNKNOWN_VERSION} if the store does not support conditional writes
+     */
+    public long getVersion() {
+        return version;
+    }
+}
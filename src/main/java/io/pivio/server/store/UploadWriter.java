@@ -0,0 +1,14 @@
+package io.pivio.server.store;
+
+/**
+ * Writes the document, changeset and snapshot of an upload. Implementations try to write either all of them or none,
+ * as a document stored without its changeset would hide the change from the history for good.
+ */
+public interface UploadWriter {
+
+    /**
+     * @throws StoreUnavailableException if the store is unavailable, parts written already are undone if possible
+     * @throws WriteConflictException     if the document has been changed since the upload has been computed
+     */
+    void write(DocumentUpload upload);
+}
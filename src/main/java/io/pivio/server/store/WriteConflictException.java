@@ -0,0 +1,12 @@
+package io.pivio.server.store;
+
+/**
+ * Thrown by an {@link UploadWriter} if the document has been changed since it has been read, e.g. by a concurrent
+ * upload to another instance. Nothing of the upload has been written then, it can be computed and written again.
+ */
+public class WriteConflictException extends RuntimeException {
+
+    public WriteConflictException(String message) {
+        super(message);
+    }
+}
@@ -3,12 +3,20 @@ package io.pivio.server;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.DocumentSnapshot;
 import io.pivio.server.document.PivioDocument;
+import io.pivio.server.inmemory.InMemoryChangesetStore;
+import io.pivio.server.inmemory.InMemoryDocumentStore;
+import io.pivio.server.lucene.LuceneChangesetStore;
+import io.pivio.server.lucene.LuceneDocumentStore;
+import io.pivio.server.store.ChangesetStore;
+import io.pivio.server.store.DocumentStore;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.embedded.LocalServerPort;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
@@ -25,11 +33,10 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.awaitility.Awaitility.await;
 
 @RunWith(SpringRunner.class)
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @ContextConfiguration(initializers = DockerEnvironmentInitializer.class)
 public abstract class AbstractApiTestCase {
 
-    protected static final String PIVIO_SERVER_BASE_URL = "http://localhost:9123";
     protected static final String SOME_ID = "someId";
 
     private static final Logger LOG = LoggerFactory.getLogger(AbstractApiTestCase.class);
@@ -40,19 +47,50 @@ public abstract class AbstractApiTestCase {
     @Autowired
     protected ObjectMapper objectMapper;
 
-    // we do not want to use a SpringBootTest.WebEnvironment, hence we have no access to a fault-tolerant TestRestTemplate
-    protected RestTemplate restTemplate = new RestTemplateBuilder().rootUri(PIVIO_SERVER_BASE_URL).errorHandler(new NoOpResponseErrorHandler()).build();
+    @Autowired
+    protected DocumentStore documentStore;
+
+    @Autowired
+    protected ChangesetStore changesetStore;
+
+    @LocalServerPort
+    private int localServerPort;
+
+    // the server under test runs in a Docker container unless the in-memory store is used, so the TestRestTemplate of
+    // SpringBootTest.WebEnvironment would not be pointing to it
+    protected RestTemplate restTemplate;
 
     @Before
-    public void waitUntilPivioServerIsUpAndCleanUpPersistentData() {
+    public void waitUntilPivioServerIsUpAndCleanUpPersistentData() throws IOException {
+        restTemplate = new RestTemplateBuilder().rootUri(pivioServerBaseUrl()).errorHandler(new NoOpResponseErrorHandler()).build();
         waitUntilPivioServerIsUp();
-        cleanUpPersistentData(elasticsearchTemplate);
+        if (DockerEnvironmentInitializer.isUsingEmbeddedStore()) {
+            clearEmbeddedStores();
+        }
+        else {
+            cleanUpPersistentData(elasticsearchTemplate);
+        }
+    }
+
+    private void clearEmbeddedStores() throws IOException {
+        if (documentStore instanceof LuceneDocumentStore) {
+            ((LuceneDocumentStore) documentStore).clear();
+            ((LuceneChangesetStore) changesetStore).clear();
+        }
+        else {
+            ((InMemoryDocumentStore) documentStore).clear();
+            ((InMemoryChangesetStore) changesetStore).clear();
+        }
+    }
+
+    private String pivioServerBaseUrl() {
+        return "http://localhost:" + (DockerEnvironmentInitializer.isUsingEmbeddedStore() ? localServerPort : 9123);
     }
 
     private void waitUntilPivioServerIsUp() {
         await().atMost(180, SECONDS).until(() -> {
             String documentResponse = "";
-            RestTemplate faultSensitiveRestTemplate = new RestTemplateBuilder().rootUri(PIVIO_SERVER_BASE_URL).build();
+            RestTemplate faultSensitiveRestTemplate = new RestTemplateBuilder().rootUri(pivioServerBaseUrl()).build();
             try {
                 documentResponse = faultSensitiveRestTemplate.getForObject("/document", String.class);
             }
@@ -68,6 +106,7 @@ public abstract class AbstractApiTestCase {
 
         elasticsearchTemplate.deleteIndex(PivioDocument.class);
         elasticsearchTemplate.deleteIndex(Changeset.class);
+        elasticsearchTemplate.deleteIndex(DocumentSnapshot.class);
 
         elasticsearchTemplate.createIndex(PivioDocument.class);
         elasticsearchTemplate.putMapping(PivioDocument.class);
@@ -75,12 +114,19 @@ public abstract class AbstractApiTestCase {
         elasticsearchTemplate.createIndex(Changeset.class);
         elasticsearchTemplate.putMapping(Changeset.class);
 
+        elasticsearchTemplate.createIndex(DocumentSnapshot.class);
+        elasticsearchTemplate.putMapping(DocumentSnapshot.class);
+
         refreshIndices();
     }
 
-    private void refreshIndices() {
+    protected void refreshIndices() {
+        if (DockerEnvironmentInitializer.isUsingEmbeddedStore()) {
+            return;
+        }
         elasticsearchTemplate.refresh(PivioDocument.class);
         elasticsearchTemplate.refresh(Changeset.class);
+        elasticsearchTemplate.refresh(DocumentSnapshot.class);
     }
 
     protected PivioDocument postDocumentWithSomeId() {
@@ -0,0 +1,130 @@
+package io.pivio.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.changeset.ChangesetIndexMigration;
+import io.pivio.server.elasticsearch.DocumentIndexReindexer;
+import io.pivio.server.elasticsearch.ElasticsearchConnectionAvailableChecker;
+import io.pivio.server.elasticsearch.ElasticsearchGuard;
+import io.pivio.server.elasticsearch.ElasticsearchIndicesHealthIndicator;
+import io.pivio.server.store.StoreUnavailableException;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Map;
+
+import static io.pivio.server.elasticsearch.ElasticsearchIndicesHealthIndicator.State.*;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Mockito.*;
+
+public class CreateIndexOnStartupListenerTest {
+
+    // as returned by GET /changesets/_mapping/changeset of Elasticsearch 2.4 for an index created with changeset-mapping.json
+    private static final String CHANGESET_MAPPING = "{\"properties\":{"
+            + "\"document\":{\"type\":\"string\",\"index\":\"not_analyzed\"},"
+            + "\"fields\":{\"type\":\"nested\",\"include_in_all\":true,\"properties\":{"
+            + "\"op\":{\"type\":\"string\"},\"path\":{\"type\":\"string\",\"index\":\"not_analyzed\"},\"value\":{\"type\":\"string\"}}},"
+            + "\"order\":{\"type\":\"long\"},"
+            + "\"patch\":{\"type\":\"object\",\"enabled\":false},"
+            + "\"timestamp\":{\"type\":\"date\",\"format\":\"strictDateOptionalTime||epoch_millis\"}}}";
+
+    private ElasticsearchConnectionAvailableChecker connectionChecker;
+    private ChangesetIndexMigration changesetIndexMigration;
+    private ElasticsearchIndicesHealthIndicator indicesHealthIndicator;
+    private ElasticsearchGuard guard;
+    private CreateIndexOnStartupListener listener;
+
+    @Before
+    public void setUp() {
+        connectionChecker = mock(ElasticsearchConnectionAvailableChecker.class);
+        changesetIndexMigration = mock(ChangesetIndexMigration.class);
+        indicesHealthIndicator = new ElasticsearchIndicesHealthIndicator();
+        guard = new ElasticsearchGuard(new MockEnvironment(), indicesHealthIndicator, mock(CounterService.class), mock(GaugeService.class));
+        listener = new CreateIndexOnStartupListener(mock(ElasticsearchTemplate.class), connectionChecker, changesetIndexMigration,
+                indicesHealthIndicator, mock(DocumentIndexReindexer.class), new ObjectMapper());
+    }
+
+    @After
+    public void tearDown() {
+        listener.stop();
+    }
+
+    @Test
+    public void shouldRejectRequestsWithServiceUnavailableUntilIndicesAreSetUp() {
+        when(connectionChecker.awaitConnectionToElasticsearch()).thenReturn(false);
+
+        assertThat(indicesHealthIndicator.getState()).isEqualTo(WAITING_FOR_ELASTICSEARCH);
+        assertRejected();
+
+        listener.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+        verify(connectionChecker, timeout(10000)).awaitConnectionToElasticsearch();
+        assertThat(indicesHealthIndicator.getState()).isEqualTo(WAITING_FOR_ELASTICSEARCH);
+        assertThat(indicesHealthIndicator.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+        assertRejected();
+    }
+
+    @Test
+    public void shouldReportFailureIfIndicesCannotBeSetUp() {
+        when(connectionChecker.awaitConnectionToElasticsearch()).thenReturn(true);
+        doThrow(new IllegalStateException("changesets could not be migrated")).when(changesetIndexMigration).migrateIfNecessary();
+
+        listener.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+        await().atMost(10, SECONDS).until(() -> indicesHealthIndicator.getState() == FAILED);
+        Health health = indicesHealthIndicator.health();
+        assertThat(health.getStatus()).isEqualTo(Status.DOWN);
+        assertThat(health.getDetails()).containsEntry("error", "changesets could not be migrated");
+        assertRejected();
+    }
+
+    @Test
+    public void shouldRetrySetupAfterTransientFailure() {
+        when(connectionChecker.awaitConnectionToElasticsearch()).thenReturn(true);
+        doThrow(new ElasticsearchTimeoutException("timed out while migrating changesets"))
+                .doThrow(new IllegalStateException("changesets could not be migrated"))
+                .when(changesetIndexMigration).migrateIfNecessary();
+
+        listener.onApplicationEvent(mock(ContextRefreshedEvent.class));
+
+        await().atMost(10, SECONDS).until(() -> indicesHealthIndicator.getState() == FAILED);
+        verify(changesetIndexMigration, times(2)).migrateIfNecessary();
+    }
+
+    @Test
+    public void shouldConsiderMappingWithoutDefaultOptionsUpToDate() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<?, ?> expected = (Map<?, ?>) mapper.readValue(ElasticsearchTemplate.readFileFromClasspath("changeset-mapping.json"), Map.class)
+                .get("changeset");
+
+        assertThat(CreateIndexOnStartupListener.isMappingUpToDate(mapper.readValue(CHANGESET_MAPPING, Map.class), expected)).isTrue();
+        assertThat(CreateIndexOnStartupListener.isMappingUpToDate(
+                mapper.readValue(CHANGESET_MAPPING.replace("\"index\":\"not_analyzed\"", "\"analyzer\":\"standard\""), Map.class), expected))
+                .isFalse();
+    }
+
+    private void assertRejected() {
+        Throwable rejection = catchThrowable(() -> guard.execute(ElasticsearchGuard.Operation.READ, mock(SearchRequestBuilder.class)));
+
+        assertThat(rejection).isInstanceOf(StoreUnavailableException.class);
+        ResponseEntity<?> response = new StoreUnavailableExceptionHandler(new ObjectMapper(), mock(CounterService.class))
+                .handle((StoreUnavailableException) rejection);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isEqualTo("5");
+    }
+}
@@ -16,8 +16,20 @@ public class DockerEnvironmentInitializer implements ApplicationContextInitializ
 
     private static final Description DOES_NOT_MATTER = null;
 
+    /**
+     * API tests run against the Docker Compose environment unless an embedded store is selected with
+     * {@code -Dpivio.store=memory} or {@code -Dpivio.store=lucene}, in which case they run against the server started
+     * by the test itself and do not need Docker at all.
+     */
+    public static boolean isUsingEmbeddedStore() {
+        return "memory".equals(System.getProperty("pivio.store")) || "lucene".equals(System.getProperty("pivio.store"));
+    }
+
     @Override
     public void initialize(ConfigurableApplicationContext applicationContext) {
+        if (isUsingEmbeddedStore()) {
+            return;
+        }
         buildMainSourcesWhenRunningTestsWithoutGradle();
         DockerComposeContainer dockerEnvironment = startPivioServerAndElasticsearchDockerContainers();
         setSpringDataElasticsearchClusterNodesProperty(applicationContext, dockerEnvironment);
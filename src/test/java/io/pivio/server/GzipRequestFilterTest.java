@@ -0,0 +1,79 @@
+package io.pivio.server;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.util.StreamUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+public class GzipRequestFilterTest {
+
+    private final GzipRequestFilter filter = new GzipRequestFilter(mock(CounterService.class),
+            new MockEnvironment().withProperty("pivio.request.gzip.max-size", "100"));
+
+    @Test
+    public void shouldDecompressGzipEncodedBody() throws Exception {
+        MockHttpServletRequest request = upload("gzip", gzip("{\"id\":\"someId\"}"));
+        AtomicReference<String> body = new AtomicReference<>();
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, resp) -> {
+            assertThat(((HttpServletRequest) req).getHeader("Content-Encoding")).isNull();
+            body.set(StreamUtils.copyToString(req.getInputStream(), StandardCharsets.UTF_8));
+        });
+
+        assertThat(body.get()).isEqualTo("{\"id\":\"someId\"}");
+    }
+
+    @Test
+    public void shouldFailReadingBodyDecompressingToMoreThanMaxSize() throws Exception {
+        MockHttpServletRequest request = upload("gzip", gzip(new String(new char[101]).replace('\0', 'a')));
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, resp) ->
+                assertThatThrownBy(() -> StreamUtils.copyToByteArray(req.getInputStream())).isInstanceOf(IOException.class));
+    }
+
+    @Test
+    public void shouldRejectNonBlockingReadsOfDecompressedBody() throws Exception {
+        filter.doFilter(upload("gzip", gzip("{}")), new MockHttpServletResponse(), (req, resp) ->
+                assertThatThrownBy(() -> req.getInputStream().setReadListener(null)).isInstanceOf(IllegalStateException.class));
+    }
+
+    @Test
+    public void shouldRejectUnsupportedContentEncoding() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(upload("br", new byte[]{1, 2, 3}), response, (req, resp) -> {
+            throw new AssertionError("request must not be handled");
+        });
+
+        assertThat(response.getStatus()).isEqualTo(415);
+    }
+
+    private static MockHttpServletRequest upload(String contentEncoding, byte[] body) {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/document");
+        request.addHeader("Content-Encoding", contentEncoding);
+        request.setContentType("application/json");
+        request.setContent(body);
+        return request;
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return compressed.toByteArray();
+    }
+}
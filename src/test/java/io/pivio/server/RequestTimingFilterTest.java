@@ -0,0 +1,61 @@
+package io.pivio.server;
+
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class RequestTimingFilterTest {
+
+    private final GaugeService gaugeService = mock(GaugeService.class);
+    private final RequestTimingFilter filter = new RequestTimingFilter(gaugeService);
+
+    @Test
+    public void shouldNameTimerAfterMappingMethodAndStatusClass() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/document/abc");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        filter.doFilter(request, response, new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/document/{id}");
+                resp.setStatus(404);
+            }
+        }));
+
+        verify(gaugeService).submit(eq("timer.http.document.id.get.4xx"), anyDouble());
+    }
+
+    @Test
+    public void shouldCountFailedRequestsAsServerErrors() {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/document");
+
+        assertThatThrownBy(() -> filter.doFilter(request, new MockHttpServletResponse(), (req, resp) -> {
+            throw new ServletException("failed");
+        })).isInstanceOf(ServletException.class);
+
+        verify(gaugeService).submit(eq("timer.http.unmapped.post.5xx"), anyDouble());
+    }
+
+    @Test
+    public void shouldNameWildcardMappings() {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/changeset/a/b");
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/changeset/**");
+
+        assertThat(RequestTimingFilter.endpointOf(request)).isEqualTo("changeset.star-star");
+    }
+}
@@ -0,0 +1,53 @@
+package io.pivio.server;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RequestTraceTest {
+
+    private RequestTrace trace;
+
+    @After
+    public void tearDown() {
+        if (trace != null) {
+            trace.finish();
+        }
+    }
+
+    @Test
+    public void shouldSumUpRoundTripsAndStages() {
+        trace = RequestTrace.start();
+
+        RequestTrace.recordElasticsearch("get", 3, 100, 0);
+        RequestTrace.recordElasticsearch("get", 2, 50, 0);
+        RequestTrace.recordElasticsearch("bulk", 7, 0, 0);
+        RequestTrace.recordStage("ingest.diff", 1);
+
+        assertThat(trace.summary())
+                .contains("es-round-trips=3; es-millis=12; es-bytes=150; es-requests=get:2,bulk:1; stages=ingest.diff:1ms");
+    }
+
+    @Test
+    public void shouldRecordIntoTraceOfCallingThreadWhenPropagated() {
+        trace = RequestTrace.start();
+
+        CompletableFuture.supplyAsync(RequestTrace.propagate(() -> {
+            RequestTrace.recordElasticsearch("search", 4, 10, 0);
+            return null;
+        })).join();
+
+        assertThat(trace.summary()).contains("es-requests=search:1");
+    }
+
+    @Test
+    public void shouldIgnoreRecordingsWithoutTrace() {
+        RequestTrace.recordElasticsearch("get", 3, 100, 0);
+
+        trace = RequestTrace.start();
+        assertThat(trace.summary()).contains("es-round-trips=0");
+    }
+}
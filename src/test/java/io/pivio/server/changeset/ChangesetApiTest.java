@@ -5,13 +5,11 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.jayway.jsonpath.JsonPath;
 import io.pivio.server.AbstractApiTestCase;
-import io.pivio.server.document.PivioDocument;
 import net.minidev.json.JSONArray;
-import org.elasticsearch.client.Client;
 import org.joda.time.DateTime;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Before;
 import org.junit.Test;
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
@@ -33,9 +31,6 @@ public class ChangesetApiTest extends AbstractApiTestCase {
     private static final String REMOVE_OPERATION = "remove";
     private static final String REPLACE_OPERATION = "replace";
 
-    @Autowired
-    private Client client;
-
     private ObjectNode document;
 
     @Before
@@ -314,6 +309,75 @@ public class ChangesetApiTest extends AbstractApiTestCase {
         assertThatChangesetSinceRequestResultsInBadRequestResponse("0w");
     }
 
+    @Test
+    public void changeset_stats_aggregate_changes_per_document_and_path() {
+        // given
+        postDocument(document);
+        postDocument(document.put("name", "NewService"));
+        postDocument(createDocumentWithId(ANOTHER_ID));
+
+        // when
+        ResponseEntity<JsonNode> responseEntity = restTemplate.getForEntity("/changeset/_stats?interval=day", JsonNode.class);
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        JsonNode stats = responseEntity.getBody();
+        assertThat(stats.get("total").longValue()).isEqualTo(3L);
+        assertThat(stats.get("histogram").get(0).get("count").longValue()).isEqualTo(3L);
+        assertThat(stats.get("documents").get(0).get("document").textValue()).isEqualTo(SOME_ID);
+        assertThat(stats.get("documents").get(0).get("count").longValue()).isEqualTo(2L);
+        assertThat(stats.get("paths").get(0).get("path").textValue()).isEqualTo("/name");
+        assertThat(stats.get("paths").get(0).get("count").longValue()).isEqualTo(3L);
+    }
+
+    @Test
+    public void changeset_stats_cannot_be_requested_with_unsupported_interval() {
+        // when
+        ResponseEntity<JsonNode> responseEntity = restTemplate.getForEntity("/changeset/_stats?interval=hour", JsonNode.class);
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    public void diff_combines_all_changes_since_a_point_in_time() {
+        // given
+        postDocument(document);
+        String firstLastUpdate = getLastUpdateOfDocumentWithSomeIdInUtc();
+
+        // and
+        postDocument(document.put("name", "NewService"));
+        postDocument(document.put("name", "OtherService").put("owner", "User Team"));
+
+        // when
+        ResponseEntity<JsonNode> responseEntity = restTemplate.getForEntity("/document/{id}/diff?from={from}", JsonNode.class, SOME_ID, firstLastUpdate);
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        JsonNode patch = responseEntity.getBody().get("patch");
+        assertThat(patch.findValues("path").stream().map(JsonNode::textValue)).containsOnly("/name", "/owner");
+        assertThat(JsonPath.<List<String>>read(patch.toString(), "$[?(@.path == '/name')].value")).containsExactly("OtherService");
+    }
+
+    @Test
+    public void diff_cannot_be_requested_when_from_is_after_to() {
+        // given
+        postDocument(document);
+
+        // when
+        ResponseEntity<JsonNode> responseEntity = restTemplate.getForEntity("/document/{id}/diff?from={from}&to={to}", JsonNode.class,
+                SOME_ID, "2017-03-02T00:00:00.000Z", "2017-03-01T00:00:00.000Z");
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    private String getLastUpdateOfDocumentWithSomeIdInUtc() {
+        String lastUpdate = restTemplate.getForObject("/document/{id}", JsonNode.class, SOME_ID).get("lastUpdate").textValue();
+        // a '+' in the offset of the timestamp would be decoded as a space on the server side
+        return ISODateTimeFormat.dateTime().withZoneUTC().print(ISODateTimeFormat.dateTimeParser().parseDateTime(lastUpdate));
+    }
+
     private Changeset createChangesetDaysAgo(long order, int daysAgo) {
         return createChangesetDaysAgo(document.get("id").asText(), order, daysAgo);
     }
@@ -325,22 +389,15 @@ public class ChangesetApiTest extends AbstractApiTestCase {
     }
 
     private void persistDocumentWithoutCreatingChangeset(JsonNode document) throws JsonProcessingException {
-        client.prepareIndex("steckbrief", "steckbrief", document.get("id").asText())
-                .setSource(document.toString())
-                .execute()
-                .actionGet();
-        elasticsearchTemplate.refresh(PivioDocument.class);
+        documentStore.save(document.get("id").asText(), document);
+        refreshIndices();
     }
 
     private void persistChangesets(Changeset... changesets) throws JsonProcessingException {
         for (Changeset changeset : changesets) {
-            client.prepareIndex("changeset", "changeset")
-                    .setSource(objectMapper.writeValueAsString(changeset))
-                    .setCreate(true)
-                    .execute()
-                    .actionGet();
+            changesetStore.save(changeset);
         }
-        elasticsearchTemplate.refresh(Changeset.class);
+        refreshIndices();
     }
 
     private JsonNode getFirstChangesetOfDocumentWithSomeId() {
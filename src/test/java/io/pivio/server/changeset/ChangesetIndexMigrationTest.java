@@ -0,0 +1,134 @@
+package io.pivio.server.changeset;
+
+import io.pivio.server.AbstractApiTestCase;
+import io.pivio.server.DockerEnvironmentInitializer;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+public class ChangesetIndexMigrationTest extends AbstractApiTestCase {
+
+    private static final String OUTDATED_MAPPING = "{\"changeset\":{\"properties\":{"
+            + "\"document\":{\"type\":\"string\"},"
+            + "\"timestamp\":{\"type\":\"date\"},"
+            + "\"order\":{\"type\":\"long\"},"
+            + "\"fields\":{\"type\":\"nested\",\"properties\":{\"path\":{\"type\":\"string\"},\"value\":{\"type\":\"string\"},\"op\":{\"type\":\"string\"}}}}}}";
+
+    // exact values in raw sub-fields, as mapped for the changeset statistics at first
+    private static final String RAW_SUB_FIELDS_MAPPING = "{\"changeset\":{\"properties\":{"
+            + "\"document\":{\"type\":\"string\",\"fields\":{\"raw\":{\"type\":\"string\",\"index\":\"not_analyzed\"}}},"
+            + "\"timestamp\":{\"type\":\"date\"},"
+            + "\"order\":{\"type\":\"long\"},"
+            + "\"fields\":{\"type\":\"nested\",\"properties\":{\"path\":{\"type\":\"string\",\"analyzer\":\"simple\","
+            + "\"fields\":{\"raw\":{\"type\":\"string\",\"index\":\"not_analyzed\"}}},\"value\":{\"type\":\"string\"},\"op\":{\"type\":\"string\"}}}}}}";
+
+    @Autowired
+    private ChangesetIndexMigration migration;
+
+    private Client client;
+
+    @Before
+    public void migrationRequiresElasticsearch() {
+        assumeFalse(DockerEnvironmentInitializer.isUsingEmbeddedStore());
+        client = elasticsearchTemplate.getClient();
+    }
+
+    @Test
+    public void changesets_are_kept_when_index_with_outdated_mapping_is_migrated() throws Exception {
+        // given
+        createIndex("changeset", OUTDATED_MAPPING);
+        indexChangesets("changeset", "some-id", 3);
+
+        // when
+        migration.migrateIfNecessary();
+
+        // then
+        assertThat(documentMapping().get("index")).isEqualTo("not_analyzed");
+        assertThat(countChangesets("changeset")).isEqualTo(3);
+        assertThat(elasticsearchTemplate.indexExists(ChangesetIndexMigration.TEMPORARY_INDEX)).isFalse();
+    }
+
+    @Test
+    public void changesets_are_kept_when_index_with_raw_sub_fields_is_migrated() throws Exception {
+        // given
+        createIndex("changeset", RAW_SUB_FIELDS_MAPPING);
+        indexChangesets("changeset", "some-id", 3);
+
+        // when
+        migration.migrateIfNecessary();
+
+        // then
+        assertThat(documentMapping().get("index")).isEqualTo("not_analyzed");
+        assertThat(documentMapping().containsKey("fields")).isFalse();
+        assertThat(countChangesets("changeset")).isEqualTo(3);
+    }
+
+    @Test
+    public void changesets_are_restored_when_migration_has_been_interrupted_after_copying() throws Exception {
+        // given
+        createIndex(ChangesetIndexMigration.TEMPORARY_INDEX, ElasticsearchTemplate.readFileFromClasspath("changeset-mapping.json"));
+        indexChangesets(ChangesetIndexMigration.TEMPORARY_INDEX, "some-id", 3);
+        client.admin().indices().prepareAliases().addAlias(ChangesetIndexMigration.TEMPORARY_INDEX, ChangesetIndexMigration.COPY_COMPLETE_ALIAS).get();
+        // the changeset index has already been recreated with the current mapping, with only one changeset restored
+        indexChangesets("changeset", "some-id", 1);
+
+        // when
+        migration.migrateIfNecessary();
+
+        // then
+        assertThat(countChangesets("changeset")).isEqualTo(3);
+        assertThat(elasticsearchTemplate.indexExists(ChangesetIndexMigration.TEMPORARY_INDEX)).isFalse();
+    }
+
+    @Test
+    public void incompletely_copied_temporary_index_is_discarded() throws Exception {
+        // given
+        createIndex("changeset", OUTDATED_MAPPING);
+        indexChangesets("changeset", "some-id", 2);
+        createIndex(ChangesetIndexMigration.TEMPORARY_INDEX, ElasticsearchTemplate.readFileFromClasspath("changeset-mapping.json"));
+        indexChangesets(ChangesetIndexMigration.TEMPORARY_INDEX, "some-id", 1);
+
+        // when
+        migration.migrateIfNecessary();
+
+        // then
+        assertThat(documentMapping().get("index")).isEqualTo("not_analyzed");
+        assertThat(countChangesets("changeset")).isEqualTo(2);
+    }
+
+    private void createIndex(String index, String mapping) {
+        if (elasticsearchTemplate.indexExists(index)) {
+            elasticsearchTemplate.deleteIndex(index);
+        }
+        client.admin().indices().prepareCreate(index).addMapping("changeset", mapping).get();
+    }
+
+    private void indexChangesets(String index, String document, int count) {
+        for (int order = 1; order <= count; order++) {
+            client.prepareIndex(index, "changeset", document + ":" + order)
+                    .setSource("{\"document\":\"" + document + "\",\"order\":" + order + ",\"timestamp\":\"2017-01-0" + order
+                            + "T00:00:00.000Z\",\"fields\":[{\"op\":\"replace\",\"path\":\"/name\",\"value\":\"v" + order + "\"}]}")
+                    .get();
+        }
+        client.admin().indices().prepareRefresh(index).get();
+    }
+
+    private long countChangesets(String index) {
+        client.admin().indices().prepareRefresh(index).get();
+        return client.prepareSearch(index).setTypes("changeset").setSize(0).get().getHits().getTotalHits();
+    }
+
+    private Map<?, ?> documentMapping() throws Exception {
+        MappingMetaData mapping = client.admin().indices().prepareGetMappings("changeset").setTypes("changeset").get()
+                .getMappings().get("changeset").get("changeset");
+        return (Map<?, ?>) ((Map<?, ?>) mapping.sourceAsMap().get("properties")).get("document");
+    }
+}
@@ -0,0 +1,69 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.store.ChangesetStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DocumentHistoryTest {
+
+    private ObjectMapper mapper;
+    private DocumentHistory documentHistory;
+
+    @Before
+    public void setUp() {
+        mapper = new ObjectMapper();
+        documentHistory = new DocumentHistory(mock(ChangesetStore.class), mapper, 20);
+    }
+
+    @Test
+    public void shouldReplayTypedPatchesInOrder() throws IOException {
+        JsonNode first = mapper.readTree("{\"order\":1,\"patch\":[{\"op\":\"add\",\"path\":\"/id\",\"value\":\"1\"},{\"op\":\"add\",\"path\":\"/port\",\"value\":8080}]}");
+        JsonNode second = mapper.readTree("{\"order\":2,\"patch\":[{\"op\":\"replace\",\"path\":\"/port\",\"value\":9123}]}");
+
+        JsonNode document = documentHistory.replay(mapper.createObjectNode(), mapper.readTree("[" + first + "," + second + "]"));
+
+        assertThat(document.toString()).isEqualTo("{\"id\":\"1\",\"port\":9123}");
+    }
+
+    @Test
+    public void shouldReplayOnTopOfSnapshot() throws IOException {
+        JsonNode snapshot = mapper.readTree("{\"id\":\"1\",\"name\":\"a\"}");
+        JsonNode changeset = mapper.readTree("{\"order\":21,\"patch\":[{\"op\":\"remove\",\"path\":\"/name\"}]}");
+
+        JsonNode document = documentHistory.replay(snapshot, mapper.readTree("[" + changeset + "]"));
+
+        assertThat(document.toString()).isEqualTo("{\"id\":\"1\"}");
+        assertThat(snapshot.has("name")).isTrue();
+    }
+
+    @Test
+    public void shouldReplayLegacyChangesetsWithoutTypedPatch() throws IOException {
+        JsonNode changeset = mapper.readTree("{\"order\":1,\"fields\":[" +
+                "{\"op\":\"add\",\"path\":\"/name\",\"value\":\"Service\"}," +
+                "{\"op\":\"add\",\"path\":\"/links\",\"value\":\"{\\\"home\\\":\\\"http://pivio.io\\\"}\"}]}");
+
+        JsonNode document = documentHistory.replay(mapper.createObjectNode(), mapper.readTree("[" + changeset + "]"));
+
+        assertThat(document.get("name").textValue()).isEqualTo("Service");
+        assertThat(document.get("links").get("home").textValue()).isEqualTo("http://pivio.io");
+    }
+
+    @Test
+    public void shouldNameFirstChangesetThatCannotBeAppliedAfterSkippedLegacyMove() throws IOException {
+        JsonNode legacy = mapper.readTree("{\"document\":\"1\",\"order\":1,\"fields\":[" +
+                "{\"op\":\"add\",\"path\":\"/name\",\"value\":\"Service\"}," +
+                "{\"op\":\"move\",\"path\":\"/short_name\"}]}");
+        JsonNode next = mapper.readTree("{\"document\":\"1\",\"order\":2,\"patch\":[{\"op\":\"replace\",\"path\":\"/short_name\",\"value\":\"SVC\"}]}");
+
+        assertThatThrownBy(() -> documentHistory.replay(mapper.createObjectNode(), mapper.readTree("[" + legacy + "," + next + "]")))
+                .isInstanceOf(HistoryReconstructionException.class)
+                .hasMessage("history of document 1 cannot be reconstructed before changeset 2");
+    }
+}
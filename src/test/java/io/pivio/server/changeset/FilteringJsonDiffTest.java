@@ -0,0 +1,83 @@
+package io.pivio.server.changeset;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class FilteringJsonDiffTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void shouldAlwaysExcludeServerManagedTimestamps() throws IOException {
+        FilteringJsonDiff diff = createDiff(new String[0], new String[0]);
+
+        JsonNode patch = diff.diff(mapper.readTree("{\"id\":\"1\",\"created\":\"a\",\"lastUpdate\":\"a\",\"lastUpload\":\"a\"}"),
+                mapper.readTree("{\"id\":\"1\",\"name\":\"Name\"}"));
+
+        assertThat(paths(patch)).containsOnly("/name");
+    }
+
+    @Test
+    public void shouldKeepArrayOperationsOfDelegatedDiff() throws IOException {
+        FilteringJsonDiff diff = createDiff(new String[0], new String[0]);
+
+        JsonNode patch = diff.diff(mapper.readTree("{\"provides\":[\"a\",\"b\",\"c\"]}"),
+                mapper.readTree("{\"provides\":[\"a\",\"d\"]}"));
+
+        assertThat(paths(patch)).containsOnly("/provides/1", "/provides/2");
+    }
+
+    @Test
+    public void shouldSkipExcludedSubtrees() throws IOException {
+        FilteringJsonDiff diff = createDiff(new String[0], new String[]{"/build/**", "/links/*_ci"});
+
+        JsonNode patch = diff.diff(mapper.readTree("{\"build\":{\"time\":1,\"nested\":{\"a\":1}},\"links\":{\"home\":\"x\",\"jenkins_ci\":\"x\"}}"),
+                mapper.readTree("{\"build\":{\"time\":2,\"nested\":{\"a\":2}},\"links\":{\"home\":\"y\",\"jenkins_ci\":\"y\"}}"));
+
+        assertThat(paths(patch)).containsOnly("/links/home");
+    }
+
+    @Test
+    public void shouldFilterExcludedPathsBelowArrays() throws IOException {
+        FilteringJsonDiff diff = createDiff(new String[0], new String[]{"/software_dependencies/*/version"});
+
+        JsonNode patch = diff.diff(mapper.readTree("{\"software_dependencies\":[{\"name\":\"a\",\"version\":\"1\"}]}"),
+                mapper.readTree("{\"software_dependencies\":[{\"name\":\"b\",\"version\":\"2\"}]}"));
+
+        assertThat(paths(patch)).containsOnly("/software_dependencies/0/name");
+    }
+
+    @Test
+    public void shouldOnlyDiffIncludedPaths() throws IOException {
+        FilteringJsonDiff diff = createDiff(new String[]{"/name", "/service/provides"}, new String[0]);
+
+        JsonNode patch = diff.diff(mapper.readTree("{\"name\":\"a\",\"owner\":\"a\",\"service\":{\"provides\":[1],\"talks_to\":[1]}}"),
+                mapper.readTree("{\"name\":\"b\",\"owner\":\"b\",\"service\":{\"provides\":[2],\"talks_to\":[2]}}"));
+
+        assertThat(paths(patch)).containsOnly("/name", "/service/provides/0");
+    }
+
+    @Test
+    public void shouldEscapeFieldNamesInPaths() throws IOException {
+        FilteringJsonDiff diff = createDiff(new String[0], new String[0]);
+
+        JsonNode patch = diff.diff(mapper.readTree("{}"), mapper.readTree("{\"a/b\":1}"));
+
+        assertThat(paths(patch)).containsOnly("/a~1b");
+        assertThat(patch.get(0).get("op").textValue()).isEqualTo("add");
+    }
+
+    private FilteringJsonDiff createDiff(String[] includes, String[] excludes) {
+        return new FilteringJsonDiff(mapper, includes, excludes);
+    }
+
+    private List<String> paths(JsonNode patch) {
+        return patch.findValuesAsText("path");
+    }
+}
@@ -1,17 +1,26 @@
 package io.pivio.server.document;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import io.pivio.server.AbstractApiTestCase;
+import org.joda.time.format.ISODateTimeFormat;
 import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 
 import java.net.URI;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
+import static io.pivio.server.BinaryJsonConfiguration.SMILE_VALUE;
 import static org.assertj.core.api.Assertions.*;
 import static org.springframework.http.HttpStatus.CREATED;
 
@@ -270,6 +279,68 @@ public class DocumentApiTest extends AbstractApiTestCase {
         assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
+    @Test
+    public void document_can_be_requested_as_it_was_at_a_point_in_time() throws Exception {
+        // given
+        PivioDocument document = postDocumentWithSomeId();
+        String firstLastUpdate = toUtc(getDocumentWithSomeId().getBody().get("lastUpdate").textValue());
+
+        // and
+        document.setOwner("User Team");
+        postDocumentWithOtherResponseType(document);
+
+        // when
+        ResponseEntity<JsonNode> responseEntity = getDocumentWithSomeIdAt(firstLastUpdate);
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(responseEntity.getBody().get("owner").textValue()).isEqualTo("Awesome Team");
+        assertThat(getDocumentWithSomeId().getBody().get("owner").textValue()).isEqualTo("User Team");
+    }
+
+    @Test
+    public void document_cannot_be_requested_at_a_point_in_time_before_it_was_created() throws Exception {
+        // given
+        postDocumentWithSomeId();
+
+        // when
+        ResponseEntity<JsonNode> responseEntity = getDocumentWithSomeIdAt("2000-01-01T00:00:00.000Z");
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    public void document_cannot_be_requested_at_an_invalid_point_in_time() throws Exception {
+        // given
+        postDocumentWithSomeId();
+
+        // when
+        ResponseEntity<JsonNode> responseEntity = getDocumentWithSomeIdAt("yesterday");
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
+    @Test
+    public void document_can_be_created_and_requested_as_smile() throws Exception {
+        // given
+        ObjectMapper smileMapper = new ObjectMapper(new SmileFactory());
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.valueOf(SMILE_VALUE));
+        headers.setAccept(Collections.singletonList(MediaType.valueOf(SMILE_VALUE)));
+        byte[] document = smileMapper.writeValueAsBytes(createDocumentWithSomeId());
+
+        // when
+        ResponseEntity<Void> created = restTemplate.exchange("/document", HttpMethod.POST, new HttpEntity<>(document, headers), Void.class);
+        ResponseEntity<byte[]> responseEntity = restTemplate.exchange("/document/{id}", HttpMethod.GET, new HttpEntity<>(headers), byte[].class, SOME_ID);
+
+        // then
+        assertThat(created.getStatusCode()).isEqualTo(CREATED);
+        assertThat(responseEntity.getHeaders().getContentType()).isEqualTo(MediaType.valueOf(SMILE_VALUE));
+        assertThat(smileMapper.readTree(responseEntity.getBody()).get("id").asText()).isEqualTo(SOME_ID);
+    }
+
     private PivioDocument createDocumentWithSomeId() {
         return createDocumentWithId(SOME_ID);
     }
@@ -294,6 +365,15 @@ public class DocumentApiTest extends AbstractApiTestCase {
         return restTemplate.getForEntity("/document/{id}", JsonNode.class, id);
     }
 
+    private ResponseEntity<JsonNode> getDocumentWithSomeIdAt(String at) {
+        return restTemplate.getForEntity("/document/{id}?at={at}", JsonNode.class, SOME_ID, at);
+    }
+
+    // a '+' in the offset of the timestamp would be decoded as a space on the server side
+    private String toUtc(String timestamp) {
+        return ISODateTimeFormat.dateTime().withZoneUTC().print(ISODateTimeFormat.dateTimeParser().parseDateTime(timestamp));
+    }
+
     private void deleteDocumentWithSomeId() {
         restTemplate.delete("/document/someId");
     }
@@ -1,50 +1,121 @@
 package io.pivio.server.document;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.pivio.server.changeset.ChangesetService;
-import org.elasticsearch.action.ListenableActionFuture;
-import org.elasticsearch.action.delete.DeleteRequestBuilder;
-import org.elasticsearch.action.delete.DeleteResponse;
-import org.elasticsearch.client.Client;
+import io.pivio.server.changeset.DocumentHistory;
+import io.pivio.server.changeset.FilteringJsonDiff;
+import io.pivio.server.journal.UploadJournalService;
+import io.pivio.server.store.ChangesetStore;
+import io.pivio.server.store.DocumentStore;
+import io.pivio.server.store.SequentialUploadWriter;
+import io.pivio.server.store.WriteConflictException;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.util.UriComponentsBuilder;
 
 import static org.assertj.core.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 public class DocumentControllerTest {
 
-    private Client client = null;
+    private DocumentStore documentStore = null;
+    private ChangesetStore changesetStore = null;
     DocumentController documentController;
     ObjectMapper objectMapper;
     CounterService counterService;
+    UploadJournalService uploadJournal;
 
     @Before
     public void setUp() {
-        client = mock(Client.class);
+        documentStore = mock(DocumentStore.class);
+        changesetStore = mock(ChangesetStore.class);
         counterService = mock(CounterService.class);
+        uploadJournal = mock(UploadJournalService.class);
         objectMapper = new ObjectMapper();
-        documentController = new DocumentController(client, new ChangesetService(client, objectMapper), objectMapper, counterService);
+        ChangesetService changesetService = new ChangesetService(objectMapper, new FilteringJsonDiff(objectMapper, new String[0], new String[0]));
+        DocumentIngest documentIngest = new DocumentIngest(documentStore, changesetStore, changesetService, mock(DocumentHistory.class),
+                new SequentialUploadWriter(documentStore, changesetStore), counterService, mock(GaugeService.class), new MockEnvironment());
+        documentController = new DocumentController(documentStore, changesetStore, documentIngest, mock(DocumentHistory.class),
+                uploadJournal, objectMapper, counterService);
     }
 
     @Test
     public void testDeleteNotFound() throws Exception {
         String id = "1";
-        DeleteRequestBuilder mockDeleteRequestBuilder = mock(DeleteRequestBuilder.class);
-        ListenableActionFuture mockListenableActionFuture = mock(ListenableActionFuture.class);
-        DeleteResponse mockDeleteResponse = mock(DeleteResponse.class);
-
-        when(client.prepareDelete("steckbrief", "steckbrief", id)).thenReturn(mockDeleteRequestBuilder);
-        when(mockDeleteRequestBuilder.execute()).thenReturn(mockListenableActionFuture);
-        when(mockListenableActionFuture.actionGet()).thenReturn(mockDeleteResponse);
-        when(mockDeleteResponse.isFound()).thenReturn(false);
+        when(documentStore.delete(id)).thenReturn(false);
 
         ResponseEntity response = documentController.delete(id);
 
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void shouldJournalDeleteWhileUploadsArePending() throws Exception {
+        String id = "1";
+        when(uploadJournal.hasPending(id)).thenReturn(true);
+
+        ResponseEntity response = documentController.delete(id);
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        verify(uploadJournal).appendDeletion(eq(id), any());
+        verify(documentStore, never()).delete(id);
+    }
+
+    @Test
+    public void shouldAnswerConflictWithoutJournalingIfUploadKeepsConflicting() throws Exception {
+        DocumentIngest documentIngest = mockDocumentIngest();
+        doThrow(new WriteConflictException("Document 1 has been changed concurrently")).when(documentIngest).ingest(any(), any());
+        when(uploadJournal.isEnabled()).thenReturn(true);
+        documentController = new DocumentController(documentStore, changesetStore, documentIngest, mock(DocumentHistory.class),
+                uploadJournal, objectMapper, counterService);
+        ObjectNode document = objectMapper.createObjectNode().put("id", "1").put("type", "service").put("name", "name")
+                .put("owner", "owner").put("description", "description");
+
+        assertThatThrownBy(() -> documentController.create(document, UriComponentsBuilder.newInstance()))
+                .isInstanceOf(WriteConflictException.class);
+        verify(uploadJournal, never()).append(any(), any());
+        assertThat(documentController.conflict(new WriteConflictException("conflict")).getStatusCode()).isEqualTo(HttpStatus.CONFLICT);
+    }
+
+    @Test
+    public void shouldStoreUploadRightAwayWhileOnlyUploadsOfOtherDocumentsArePending() throws Exception {
+        DocumentIngest documentIngest = mockDocumentIngest();
+        when(uploadJournal.hasPending("other")).thenReturn(true);
+        documentController = new DocumentController(documentStore, changesetStore, documentIngest, mock(DocumentHistory.class),
+                uploadJournal, objectMapper, counterService);
+        ObjectNode document = objectMapper.createObjectNode().put("id", "1").put("type", "service").put("name", "name")
+                .put("owner", "owner").put("description", "description");
+
+        ResponseEntity response = documentController.create(document, UriComponentsBuilder.newInstance());
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        verify(documentIngest).ingest(eq(document), any());
+        verify(uploadJournal, never()).append(any(), any());
+    }
+
+    @Test
+    public void shouldJournalUploadWhileUploadsOfTheDocumentArePending() throws Exception {
+        when(uploadJournal.hasPending("1")).thenReturn(true);
+        ObjectNode document = objectMapper.createObjectNode().put("id", "1").put("type", "service").put("name", "name")
+                .put("owner", "owner").put("description", "description");
+
+        ResponseEntity response = documentController.create(document, UriComponentsBuilder.newInstance());
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        verify(uploadJournal).append(eq(document), any());
+        verify(documentStore, never()).getStored("1");
+    }
+
+    private static DocumentIngest mockDocumentIngest() throws Exception {
+        DocumentIngest documentIngest = mock(DocumentIngest.class);
+        when(documentIngest.withLock(any(), any())).thenAnswer(invocation ->
+                ((DocumentIngest.LockedAction<?>) invocation.getArguments()[1]).run());
+        return documentIngest;
+    }
+}
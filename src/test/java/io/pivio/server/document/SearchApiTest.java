@@ -1,20 +1,28 @@
 package io.pivio.server.document;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
 import io.pivio.server.AbstractApiTestCase;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.RandomStringGenerator;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
 
 import java.net.URI;
 import java.net.URLEncoder;
+import java.util.Collections;
 
+import static io.pivio.server.BinaryJsonConfiguration.CBOR_VALUE;
 import static org.assertj.core.api.Assertions.*;
 import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
@@ -288,6 +296,22 @@ public class SearchApiTest extends AbstractApiTestCase {
         assertThatSearchRequestWithSortParameterResultsInBadRequestResponse("short_name:asce");
     }
 
+    @Test
+    public void search_results_can_be_requested_as_cbor() throws Exception {
+        // given
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(Collections.singletonList(MediaType.valueOf(CBOR_VALUE)));
+
+        // when
+        ResponseEntity<byte[]> responseEntity = restTemplate.exchange("/document?query={query}", HttpMethod.GET, new HttpEntity<>(headers),
+                byte[].class, createOwnerLambdaQuery().toString());
+
+        // then
+        assertThat(responseEntity.getHeaders().getContentType()).isEqualTo(MediaType.valueOf(CBOR_VALUE));
+        JsonNode searchResult = new ObjectMapper(new CBORFactory()).readTree(responseEntity.getBody());
+        assertThat(searchResult.findValues("id")).extracting(JsonNode::textValue).containsOnly("no1", "no2", "no3");
+    }
+
     private ObjectNode createOwnerLambdaQuery() {
         ObjectNode query = objectMapper.createObjectNode();
         ObjectNode match = query.putObject("match");
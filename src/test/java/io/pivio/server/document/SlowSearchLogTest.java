@@ -0,0 +1,57 @@
+package io.pivio.server.document;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SlowSearchLogTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final SlowSearchLog slowSearchLog = new SlowSearchLog(new ObjectMapper(),
+            new MockEnvironment().withProperty("pivio.search.stats-window", "5"), now::get);
+
+    @Test
+    public void shouldShareFingerprintBetweenQueriesDifferingOnlyInValuesAndKeyOrder() {
+        String first = slowSearchLog.fingerprint("{\"bool\":{\"must\":{\"match\":{\"owner\":\"lambda\"}},\"filter\":{\"terms\":{\"tags\":[\"a\",\"b\"]}}}}",
+                "name,id", "name:ASC");
+        String second = slowSearchLog.fingerprint("{\"bool\":{\"filter\":{\"terms\":{\"tags\":[\"c\"]}},\"must\":{\"match\":{\"owner\":\"omega\"}}}}",
+                "id,name", "name:asc");
+
+        assertThat(first).isEqualTo(second)
+                .isEqualTo("query={\"bool\":{\"filter\":{\"terms\":{\"tags\":[\"?\"]}},\"must\":{\"match\":{\"owner\":\"?\"}}}} fields=id,name sort=name:asc");
+    }
+
+    @Test
+    public void shouldListMostExpensiveFingerprintsFirst() {
+        slowSearchLog.record("{\"match\":{\"owner\":\"a\"}}", null, null, 10, 100);
+        slowSearchLog.record("{\"match\":{\"owner\":\"b\"}}", null, null, 20, 100);
+        slowSearchLog.record("{\"term\":{\"type\":\"service\"}}", null, null, 5, 150);
+
+        List<SlowSearchLog.Stats> top = slowSearchLog.top(10);
+
+        assertThat(top).extracting(SlowSearchLog.Stats::getFingerprint)
+                .containsExactly("query={\"match\":{\"owner\":\"?\"}}", "query={\"term\":{\"type\":\"?\"}}");
+        assertThat(top.get(0).getCount()).isEqualTo(2);
+        assertThat(top.get(0).getAverageHits()).isEqualTo(15);
+        assertThat(top.get(0).getMaxMillis()).isEqualTo(100);
+    }
+
+    @Test
+    public void shouldForgetSearchesOutsideOfWindow() {
+        slowSearchLog.record(null, null, null, 10, 1000);
+        now.addAndGet(TimeUnit.MINUTES.toMillis(3));
+        slowSearchLog.record("{\"match\":{\"owner\":\"a\"}}", null, null, 10, 100);
+
+        assertThat(slowSearchLog.top(10)).hasSize(2);
+
+        now.addAndGet(TimeUnit.MINUTES.toMillis(3));
+        assertThat(slowSearchLog.top(10)).extracting(SlowSearchLog.Stats::getFingerprint)
+                .containsExactly("query={\"match\":{\"owner\":\"?\"}}");
+    }
+}
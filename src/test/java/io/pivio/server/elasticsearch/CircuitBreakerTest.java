@@ -0,0 +1,77 @@
+package io.pivio.server.elasticsearch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class CircuitBreakerTest {
+
+    private AtomicLong now;
+    private CircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() {
+        now = new AtomicLong(0);
+        circuitBreaker = new CircuitBreaker(3, 1000, now::get);
+    }
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() {
+        fail(2);
+        circuitBreaker.onSuccess();
+        fail(2);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        fail(1);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+        assertThat(circuitBreaker.getRetryAfterMillis()).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldLetSingleProbeThroughAfterOpenDuration() {
+        fail(3);
+        now.set(1000);
+
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+        assertThat(circuitBreaker.tryAcquirePermission()).isFalse();
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+    }
+
+    @Test
+    public void shouldReopenWhenProbeFails() {
+        fail(3);
+        now.set(1500);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+
+        assertThat(circuitBreaker.onFailure()).isTrue();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.getRetryAfterMillis()).isEqualTo(1000);
+    }
+
+    @Test
+    public void shouldAllowNewProbeWhenProbeWasNotExecuted() {
+        fail(3);
+        now.set(1000);
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+
+        circuitBreaker.onNotExecuted();
+
+        assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+    }
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            assertThat(circuitBreaker.tryAcquirePermission()).isTrue();
+            circuitBreaker.onFailure();
+        }
+    }
+}
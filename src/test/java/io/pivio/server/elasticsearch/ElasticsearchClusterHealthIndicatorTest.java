@@ -0,0 +1,85 @@
+package io.pivio.server.elasticsearch;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+public class ElasticsearchClusterHealthIndicatorTest {
+
+    private Client client;
+    private ElasticsearchConnectionAvailableChecker connectionChecker;
+    private ElasticsearchClusterHealthIndicator healthIndicator;
+
+    @Before
+    public void setUp() {
+        client = mock(Client.class);
+        connectionChecker = mock(ElasticsearchConnectionAvailableChecker.class);
+        healthIndicator = new ElasticsearchClusterHealthIndicator(client, connectionChecker, mock(GaugeService.class),
+                new MockEnvironment().withProperty("pivio.elasticsearch.health.max-latency", "100"));
+    }
+
+    @Test
+    public void shouldReportLatestProbeWithoutCallingElasticsearch() {
+        healthIndicator.record(probe(ClusterHealthStatus.YELLOW, 20));
+
+        Health health = healthIndicator.health();
+
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsEntry("clusterStatus", ClusterHealthStatus.YELLOW).containsEntry("latencyMillis", 20L);
+        verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void shouldBeOutOfServiceOnlyAfterConsecutiveSlowProbes() {
+        healthIndicator.record(probe(ClusterHealthStatus.GREEN, 500));
+        assertThat(healthIndicator.health().getStatus()).isEqualTo(Status.UP);
+
+        healthIndicator.record(probe(ClusterHealthStatus.GREEN, 500));
+        assertThat(healthIndicator.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+
+        healthIndicator.record(probe(ClusterHealthStatus.GREEN, 20));
+        assertThat(healthIndicator.health().getStatus()).isEqualTo(Status.UP);
+    }
+
+    @Test
+    public void shouldBeDownIfClusterIsRed() {
+        healthIndicator.record(probe(ClusterHealthStatus.RED, 20));
+
+        assertThat(healthIndicator.health().getStatus()).isEqualTo(Status.DOWN);
+    }
+
+    @Test
+    public void shouldBeDownIfNoNodeIsConnected() {
+        when(connectionChecker.connectedNodes()).thenReturn(0);
+
+        healthIndicator.probe();
+
+        Health health = healthIndicator.health();
+        assertThat(health.getStatus()).isEqualTo(Status.DOWN);
+        assertThat(health.getDetails()).containsEntry("connectedNodes", 0);
+        verifyZeroInteractions(client);
+    }
+
+    @Test
+    public void shouldBeDownIfLatestProbeIsOutdated() {
+        healthIndicator.record(new ElasticsearchClusterHealthIndicator.Probe(System.currentTimeMillis() - 60000, 1,
+                ClusterHealthStatus.GREEN, 20, Collections.emptyMap(), null));
+
+        assertThat(healthIndicator.health().getStatus()).isEqualTo(Status.DOWN);
+    }
+
+    private static ElasticsearchClusterHealthIndicator.Probe probe(ClusterHealthStatus status, long latencyMillis) {
+        return new ElasticsearchClusterHealthIndicator.Probe(System.currentTimeMillis(), 1, status, latencyMillis,
+                Collections.singletonMap("steckbrief", 42L), null);
+    }
+}
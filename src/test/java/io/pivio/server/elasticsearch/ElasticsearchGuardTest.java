@@ -0,0 +1,65 @@
+package io.pivio.server.elasticsearch;
+
+import io.pivio.server.store.StoreUnavailableException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class ElasticsearchGuardTest {
+
+    private ElasticsearchGuard guard;
+
+    @Before
+    public void setUp() {
+        guard = new ElasticsearchGuard(new MockEnvironment()
+                .withProperty("pivio.elasticsearch.read.max-concurrent", "1")
+                .withProperty("pivio.elasticsearch.read.timeout", "50")
+                .withProperty("pivio.elasticsearch.bulkhead.max-wait", "10"),
+                new ElasticsearchIndicesHealthIndicator(), mock(CounterService.class), mock(GaugeService.class));
+    }
+
+    @Test
+    public void shouldKeepTimedOutRequestInBulkheadUntilElasticsearchAnswersIt() {
+        AtomicReference<ActionListener<SearchResponse>> pending = new AtomicReference<>();
+        SearchRequestBuilder slowRequest = request(pending::set);
+
+        assertThatThrownBy(() -> guard.execute(ElasticsearchGuard.Operation.READ, slowRequest))
+                .isInstanceOf(StoreUnavailableException.class)
+                .hasMessageContaining("Timeout");
+        assertThatThrownBy(() -> guard.execute(ElasticsearchGuard.Operation.READ, request(listener -> listener.onResponse(emptyResponse()))))
+                .isInstanceOf(StoreUnavailableException.class)
+                .hasMessageContaining("too many concurrent");
+
+        pending.get().onResponse(emptyResponse());
+
+        assertThat(guard.execute(ElasticsearchGuard.Operation.READ, request(listener -> listener.onResponse(emptyResponse())))).isNotNull();
+    }
+
+    private static SearchResponse emptyResponse() {
+        return new SearchResponse(InternalSearchResponse.empty(), null, 1, 1, 1, new ShardSearchFailure[0]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SearchRequestBuilder request(Consumer<ActionListener<SearchResponse>> elasticsearch) {
+        SearchRequestBuilder request = mock(SearchRequestBuilder.class);
+        doAnswer(invocation -> {
+            elasticsearch.accept((ActionListener<SearchResponse>) invocation.getArguments()[0]);
+            return null;
+        }).when(request).execute(any(ActionListener.class));
+        return request;
+    }
+}
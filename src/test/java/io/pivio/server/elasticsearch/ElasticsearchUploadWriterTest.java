@@ -0,0 +1,153 @@
+package io.pivio.server.elasticsearch;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.store.DocumentUpload;
+import io.pivio.server.store.StoredDocument;
+import io.pivio.server.store.WriteConflictException;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.delete.DeleteAction;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexAction;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class ElasticsearchUploadWriterTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private Client client;
+    private WriteBehindBatcher writeBehindBatcher;
+    private ElasticsearchDocumentStore documentStore;
+    private ElasticsearchChangesetStore changesetStore;
+    private ElasticsearchUploadWriter uploadWriter;
+
+    @Before
+    public void setUp() {
+        client = mock(Client.class);
+        writeBehindBatcher = mock(WriteBehindBatcher.class);
+        documentStore = mock(ElasticsearchDocumentStore.class);
+        changesetStore = mock(ElasticsearchChangesetStore.class);
+        when(documentStore.indexRequest(anyString(), anyString())).thenAnswer(invocation -> new IndexRequestBuilder(client, IndexAction.INSTANCE)
+                .setIndex("steckbrief").setType("steckbrief").setId((String) invocation.getArguments()[0]));
+        when(documentStore.deleteRequest(anyString())).thenAnswer(invocation -> new DeleteRequestBuilder(client, DeleteAction.INSTANCE)
+                .setIndex("steckbrief").setType("steckbrief").setId((String) invocation.getArguments()[0]));
+        when(changesetStore.indexRequest(any(Changeset.class))).thenAnswer(invocation -> new IndexRequestBuilder(client, IndexAction.INSTANCE)
+                .setIndex("changeset").setType("changeset"));
+        uploadWriter = new ElasticsearchUploadWriter(client, documentStore, changesetStore, writeBehindBatcher,
+                mock(CounterService.class), new MockEnvironment().withProperty("pivio.elasticsearch.upload.retry-backoff", "0"));
+    }
+
+    @Test
+    public void shouldRetryOnlyItemsFailingOnServerSide() {
+        when(writeBehindBatcher.bulk(any())).thenReturn(
+                Arrays.asList(indexed("steckbrief", "id", 1), failed("changeset", new ElasticsearchException("node failed"))),
+                Arrays.asList(indexed("changeset", "AVx", 1)));
+
+        uploadWriter.write(upload());
+
+        List<List<ActionRequest<?>>> bulks = captureBulks(2);
+        assertThat(bulks.get(1)).hasSize(1);
+        verify(documentStore).saveToReindexTarget("id", "{\"id\":\"id\"}", 1);
+    }
+
+    @Test
+    public void shouldUndoDocumentIfChangesetCannotBeWritten() {
+        when(writeBehindBatcher.bulk(any())).thenReturn(
+                Arrays.asList(indexed("steckbrief", "id", 3), failed("changeset", new IllegalArgumentException("mapping conflict"))),
+                Arrays.asList(indexed("steckbrief", "id", 4)));
+
+        assertThatThrownBy(() -> uploadWriter.write(upload())).isInstanceOf(ElasticsearchException.class);
+
+        List<List<ActionRequest<?>>> bulks = captureBulks(2);
+        assertThat(bulks.get(1)).hasSize(1);
+        DeleteRequest undo = (DeleteRequest) bulks.get(1).get(0);
+        assertThat(undo.id()).isEqualTo("id");
+        assertThat(undo.version()).isEqualTo(3);
+        verify(documentStore, never()).saveToReindexTarget(anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    public void shouldUndoChangesetAndReportConflictIfDocumentHasBeenChangedConcurrently() {
+        when(writeBehindBatcher.bulk(any())).thenReturn(
+                Arrays.asList(failed("steckbrief", new VersionConflictEngineException(new ShardId("steckbrief", 0), "steckbrief", "id", 6, 5)),
+                        indexed("changeset", "id:1", 1)),
+                Arrays.asList(indexed("changeset", "id:1", 2)));
+
+        assertThatThrownBy(() -> uploadWriter.write(upload(new StoredDocument(mapper.createObjectNode().put("id", "id"), 5))))
+                .isInstanceOf(WriteConflictException.class);
+
+        List<List<ActionRequest<?>>> bulks = captureBulks(2);
+        assertThat(((IndexRequest) bulks.get(0).get(0)).version()).isEqualTo(5);
+        DeleteRequest undo = (DeleteRequest) bulks.get(1).get(0);
+        assertThat(undo.index()).isEqualTo("changeset");
+        assertThat(undo.id()).isEqualTo("id:1");
+    }
+
+    @Test
+    public void shouldRefreshChangesetsIfChangesetWithSameOrderExists() {
+        when(writeBehindBatcher.bulk(any())).thenReturn(
+                Arrays.asList(indexed("steckbrief", "id", 6),
+                        failed("changeset", new VersionConflictEngineException(new ShardId("changeset", 0), "changeset", "id:1", 1, 1))),
+                Arrays.asList(indexed("steckbrief", "id", 7)));
+
+        assertThatThrownBy(() -> uploadWriter.write(upload(new StoredDocument(mapper.createObjectNode().put("id", "id"), 5))))
+                .isInstanceOf(WriteConflictException.class);
+
+        verify(changesetStore).refresh();
+    }
+
+    @Test
+    public void shouldOnlyCreateDocumentIfThereIsNoPreviousOne() {
+        when(writeBehindBatcher.bulk(any())).thenReturn(Arrays.asList(indexed("steckbrief", "id", 1), indexed("changeset", "id:1", 1)));
+
+        uploadWriter.write(upload());
+
+        assertThat(((IndexRequest) captureBulks(1).get(0).get(0)).opType()).isEqualTo(IndexRequest.OpType.CREATE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<List<ActionRequest<?>>> captureBulks(int times) {
+        ArgumentCaptor<List> captor = ArgumentCaptor.forClass(List.class);
+        verify(writeBehindBatcher, times(times)).bulk(captor.capture());
+        return (List) captor.getAllValues();
+    }
+
+    private DocumentUpload upload() {
+        return upload(null);
+    }
+
+    private DocumentUpload upload(StoredDocument previous) {
+        Changeset changeset = new Changeset("id", 1, mapper.createArrayNode().add(mapper.createObjectNode().put("op", "add")));
+        return new DocumentUpload("id", mapper.createObjectNode().put("id", "id"), previous, changeset, null);
+    }
+
+    private static BulkItemResponse indexed(String index, String id, long version) {
+        return new BulkItemResponse(0, "index", new IndexResponse(index, index, id, version, true));
+    }
+
+    private static BulkItemResponse failed(String index, Throwable cause) {
+        return new BulkItemResponse(1, "index", new BulkItemResponse.Failure(index, index, null, cause));
+    }
+}
@@ -0,0 +1,94 @@
+package io.pivio.server.elasticsearch;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.pivio.server.AbstractApiTestCase;
+import io.pivio.server.DockerEnvironmentInitializer;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assume.assumeFalse;
+
+public class ReindexApiTest extends AbstractApiTestCase {
+
+    @Before
+    public void reindexingRequiresElasticsearch() {
+        assumeFalse(DockerEnvironmentInitializer.isUsingEmbeddedStore());
+    }
+
+    @Test
+    public void documents_are_available_after_reindexing() throws Exception {
+        // given
+        postDocumentWithId("first");
+        postDocumentWithId("second");
+
+        // when
+        ResponseEntity<JsonNode> responseEntity = restTemplate.postForEntity("/admin/reindex", null, JsonNode.class);
+
+        // then
+        assertThat(responseEntity.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        await().atMost(60, SECONDS).until(() ->
+                restTemplate.getForObject("/admin/reindex", JsonNode.class).get("state").asText().equals("COMPLETED"));
+        JsonNode progress = restTemplate.getForObject("/admin/reindex", JsonNode.class);
+        assertThat(progress.get("target").asText()).startsWith("steckbrief_v");
+        assertThat(progress.get("copied").asLong()).isEqualTo(2);
+        assertThat(restTemplate.getForEntity("/document/first", JsonNode.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(restTemplate.getForEntity("/document/second", JsonNode.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    public void concrete_index_is_replaced_without_losing_documents_uploaded_meanwhile() throws Exception {
+        // given
+        assertThat(elasticsearchTemplate.getClient().admin().indices().prepareGetAliases("steckbrief").get().getAliases().isEmpty()).isTrue();
+        postDocumentWithId("first");
+        List<String> accepted = new ArrayList<>();
+
+        // when
+        restTemplate.postForEntity("/admin/reindex", null, JsonNode.class);
+        for (int i = 0; isReindexing(); i++) {
+            String id = "during-" + i;
+            if (postDocument(createDocumentWithId(id)).getStatusCode().is2xxSuccessful()) {
+                accepted.add(id);
+            }
+        }
+
+        // then
+        JsonNode progress = restTemplate.getForObject("/admin/reindex", JsonNode.class);
+        assertThat(progress.get("state").asText()).isEqualTo("COMPLETED");
+        assertThat(progress.get("source").asText()).isEqualTo("steckbrief");
+        assertThat(elasticsearchTemplate.getClient().admin().indices().prepareGetAliases("steckbrief").get().getAliases().keysIt().next())
+                .isEqualTo(progress.get("target").asText());
+        accepted.add("first");
+        for (String id : accepted) {
+            assertThat(restTemplate.getForEntity("/document/{id}", JsonNode.class, id).getStatusCode()).as(id).isEqualTo(HttpStatus.OK);
+        }
+    }
+
+    @Test
+    public void documents_uploaded_after_reindexing_are_written_to_the_new_index() throws Exception {
+        // given
+        postDocumentWithId("first");
+        restTemplate.postForEntity("/admin/reindex", null, JsonNode.class);
+        await().atMost(60, SECONDS).until(() ->
+                restTemplate.getForObject("/admin/reindex", JsonNode.class).get("state").asText().equals("COMPLETED"));
+
+        // when
+        postDocumentWithId("second");
+
+        // then
+        JsonNode search = restTemplate.getForObject("/document?fields=id", JsonNode.class);
+        assertThat(search.findValuesAsText("id")).containsOnly("first", "second");
+    }
+
+    private boolean isReindexing() {
+        String state = restTemplate.getForObject("/admin/reindex", JsonNode.class).get("state").asText();
+        return state.equals("COPYING") || state.equals("SWITCHING_ALIAS");
+    }
+}
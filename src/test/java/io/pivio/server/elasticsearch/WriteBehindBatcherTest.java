@@ -0,0 +1,128 @@
+package io.pivio.server.elasticsearch;
+
+import org.elasticsearch.action.ActionRequest;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.client.Client;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.springframework.boot.actuate.metrics.CounterService;
+import org.springframework.boot.actuate.metrics.GaugeService;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.awaitility.Awaitility.await;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+
+public class WriteBehindBatcherTest {
+
+    private Client client;
+    private ElasticsearchGuard guard;
+    private ExecutorService callers;
+    private WriteBehindBatcher batcher;
+
+    @Before
+    public void setUp() {
+        client = mock(Client.class);
+        guard = mock(ElasticsearchGuard.class);
+        callers = Executors.newFixedThreadPool(2);
+        when(client.prepareBulk()).thenAnswer(invocation -> new BulkRequestBuilder(client, BulkAction.INSTANCE));
+        when(guard.execute(eq(ElasticsearchGuard.Operation.WRITE), any(BulkRequestBuilder.class))).thenAnswer(WriteBehindBatcherTest::respond);
+        batcher = new WriteBehindBatcher(client, guard, new MockEnvironment()
+                .withProperty("pivio.elasticsearch.write-behind.enabled", "true")
+                .withProperty("pivio.elasticsearch.write-behind.batch-size", "4")
+                .withProperty("pivio.elasticsearch.write-behind.max-delay", "5000"),
+                mock(CounterService.class), mock(GaugeService.class));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        batcher.stop();
+        callers.shutdownNow();
+    }
+
+    @Test
+    public void shouldCoalesceRequestsOfConcurrentCallersIntoOneBulkRequest() throws Exception {
+        batcher.start();
+
+        Future<List<BulkItemResponse>> first = callers.submit(() -> batcher.bulk(requests("a1", "a2")));
+        Future<List<BulkItemResponse>> second = callers.submit(() -> batcher.bulk(requests("b1", "b2")));
+
+        assertThat(ids(first.get(10, SECONDS))).containsExactly("a1", "a2");
+        assertThat(ids(second.get(10, SECONDS))).containsExactly("b1", "b2");
+        ArgumentCaptor<BulkRequestBuilder> bulk = ArgumentCaptor.forClass(BulkRequestBuilder.class);
+        verify(guard, times(1)).execute(eq(ElasticsearchGuard.Operation.WRITE), bulk.capture());
+        assertThat(bulk.getValue().numberOfActions()).isEqualTo(4);
+    }
+
+    @Test
+    public void shouldHandFailedItemsOnlyToTheCallerTheyBelongTo() throws Exception {
+        batcher.start();
+
+        Future<List<BulkItemResponse>> succeeding = callers.submit(() -> batcher.bulk(requests("a1", "a2")));
+        Future<List<BulkItemResponse>> failing = callers.submit(() -> batcher.bulk(requests("failing-b1", "b2")));
+
+        List<BulkItemResponse> succeeded = succeeding.get(10, SECONDS);
+        assertThat(succeeded).noneMatch(BulkItemResponse::isFailed);
+        assertThat(ids(succeeded)).containsExactly("a1", "a2");
+        List<BulkItemResponse> failed = failing.get(10, SECONDS);
+        assertThat(ids(failed)).containsExactly("failing-b1", "b2");
+        assertThat(failed.get(0).isFailed()).isTrue();
+        assertThat(failed.get(1).isFailed()).isFalse();
+    }
+
+    @Test
+    public void shouldFlushRequestsQueuedBeforeStopping() throws Exception {
+        Future<List<BulkItemResponse>> first = callers.submit(() -> batcher.bulk(requests("a1")));
+        Future<List<BulkItemResponse>> second = callers.submit(() -> batcher.bulk(requests("b1")));
+        await().atMost(10, SECONDS).until(() -> batcher.queued() == 2);
+
+        batcher.start();
+        batcher.stop();
+
+        assertThat(first.isDone()).isTrue();
+        assertThat(second.isDone()).isTrue();
+        assertThat(ids(first.get())).containsExactly("a1");
+        assertThat(ids(second.get())).containsExactly("b1");
+    }
+
+    private static List<ActionRequest<?>> requests(String... ids) {
+        return Arrays.stream(ids)
+                .<ActionRequest<?>>map(id -> new IndexRequest("changeset", "changeset", id).source("{}"))
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> ids(List<BulkItemResponse> items) {
+        return items.stream().map(BulkItemResponse::getId).collect(Collectors.toList());
+    }
+
+    // requests with an id starting with "failing" are rejected, all others are indexed
+    private static BulkResponse respond(InvocationOnMock invocation) {
+        List<?> requests = ((BulkRequestBuilder) invocation.getArguments()[1]).request().requests();
+        BulkItemResponse[] items = new BulkItemResponse[requests.size()];
+        for (int i = 0; i < items.length; i++) {
+            String id = ((IndexRequest) requests.get(i)).id();
+            items[i] = id.startsWith("failing")
+                    ? new BulkItemResponse(i, "index", new BulkItemResponse.Failure("changeset", "changeset", id, new IllegalArgumentException("mapping conflict")))
+                    : new BulkItemResponse(i, "index", new IndexResponse("changeset", "changeset", id, 1, true));
+        }
+        return new BulkResponse(items, 1);
+    }
+}
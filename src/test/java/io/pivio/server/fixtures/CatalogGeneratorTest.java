@@ -0,0 +1,56 @@
+package io.pivio.server.fixtures;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.Test;
+
+import java.io.StringWriter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CatalogGeneratorTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void shouldGenerateSameCatalogForSameSeed() {
+        List<ObjectNode> first = new CatalogGenerator(mapper, 7).documents(50).documents().collect(Collectors.toList());
+        List<ObjectNode> second = new CatalogGenerator(mapper, 7).documents(50).documents().collect(Collectors.toList());
+
+        assertThat(first).isEqualTo(second);
+        assertThat(new CatalogGenerator(mapper, 8).document(0)).isNotEqualTo(first.get(0));
+    }
+
+    @Test
+    public void shouldGenerateDocumentsWithMandatoryFields() {
+        ObjectNode document = new CatalogGenerator(mapper, 7).document(3);
+
+        assertThat(document.get("id").asText()).isEqualTo("service-000003");
+        assertThat(document.has("type") && document.has("name") && document.has("owner") && document.has("description")).isTrue();
+        assertThat(document.get("software_dependencies").size()).isBetween(5, 800);
+    }
+
+    @Test
+    public void shouldChangeDocumentOnEveryUploadOfHistory() {
+        List<ObjectNode> history = new CatalogGenerator(mapper, 7).history(3, 20);
+
+        assertThat(history).hasSize(21);
+        for (int i = 1; i < history.size(); i++) {
+            assertThat(history.get(i).get("id")).isEqualTo(history.get(0).get("id"));
+            assertThat(history.get(i)).isNotEqualTo(history.get(i - 1));
+        }
+    }
+
+    @Test
+    public void shouldPrecedeDocumentsWithIndexActionsInBulkFormat() throws Exception {
+        StringWriter writer = new StringWriter();
+        new CatalogGenerator(mapper, 7).documents(2).writeNdjson(writer, true);
+
+        String[] lines = writer.toString().split("\n");
+        assertThat(lines).hasSize(4);
+        assertThat(mapper.readTree(lines[2]).at("/index/_id").asText()).isEqualTo("service-000001");
+        assertThat(mapper.readTree(lines[3]).get("id").asText()).isEqualTo("service-000001");
+    }
+}
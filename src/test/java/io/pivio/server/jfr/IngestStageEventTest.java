@@ -0,0 +1,42 @@
+package io.pivio.server.jfr;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class IngestStageEventTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRecordStageWithDocumentAndSizes() throws Exception {
+        Path file = folder.getRoot().toPath().resolve("ingest.jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("io.pivio.IngestStage");
+            recording.start();
+
+            IngestStageEvent.begin("parse", null).finish("some-id", 2048, 12);
+            IngestStageEvent.begin("diff", "other-id").finish(3);
+
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).getString("stage")).isEqualTo("parse");
+        assertThat(events.get(0).getString("documentId")).isEqualTo("some-id");
+        assertThat(events.get(0).getLong("bytes")).isEqualTo(2048);
+        assertThat(events.get(1).getString("documentId")).isEqualTo("other-id");
+        assertThat(events.get(1).getInt("items")).isEqualTo(3);
+    }
+}
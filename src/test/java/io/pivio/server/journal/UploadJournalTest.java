@@ -0,0 +1,135 @@
+package io.pivio.server.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UploadJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldReadRecordsInOrderTheyWereAppended() throws Exception {
+        try (UploadJournal journal = new UploadJournal(file(), 1024, false)) {
+            journal.append(1L, bytes("first"));
+            journal.append(2L, bytes("second"));
+
+            List<UploadJournal.Entry> entries = journal.read(10);
+
+            assertThat(payloads(entries)).containsExactly("first", "second");
+            assertThat(entries.get(0).getTimestamp()).isEqualTo(1L);
+            assertThat(journal.oldestTimestamp().getAsLong()).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    public void shouldKeepRecordsNotAcknowledgedWhenReopened() throws Exception {
+        Path file = file();
+        try (UploadJournal journal = new UploadJournal(file, 1024, true)) {
+            journal.append(1L, bytes("first"));
+            journal.append(2L, bytes("second"));
+            journal.acknowledge(journal.read(1).get(0));
+        }
+
+        try (UploadJournal journal = new UploadJournal(file, 1024, true)) {
+            assertThat(journal.pending()).isEqualTo(1);
+            assertThat(payloads(journal.read(10))).containsExactly("second");
+        }
+    }
+
+    @Test
+    public void shouldIgnoreRecordsFromFirstOneNotMatchingItsChecksum() throws Exception {
+        Path file = file();
+        try (UploadJournal journal = new UploadJournal(file, 1024, true)) {
+            journal.append(1L, bytes("first"));
+            journal.append(2L, bytes("second"));
+            journal.append(3L, bytes("third"));
+        }
+        byte[] content = Files.readAllBytes(file);
+        int secondPayload = UploadJournal.HEADER_SIZE + UploadJournal.RECORD_HEADER_SIZE + "first".length() + UploadJournal.RECORD_HEADER_SIZE;
+        content[secondPayload] ^= 1;
+        Files.write(file, content);
+
+        try (UploadJournal journal = new UploadJournal(file, 1024, true)) {
+            assertThat(payloads(journal.read(10))).containsExactly("first");
+        }
+    }
+
+    @Test
+    public void shouldRejectRecordsWhenFullUntilAllRecordsAreAcknowledged() throws Exception {
+        try (UploadJournal journal = new UploadJournal(file(), 130, false)) {
+            assertThat(journal.append(1L, new byte[30])).isTrue();
+            assertThat(journal.append(2L, new byte[30])).isTrue();
+            assertThat(journal.append(3L, new byte[30])).isFalse();
+
+            journal.acknowledge(journal.read(1).get(0));
+            assertThat(journal.append(3L, new byte[30])).isFalse();
+
+            journal.acknowledge(journal.read(1).get(0));
+            assertThat(journal.usedBytes()).isZero();
+            assertThat(journal.append(3L, new byte[30])).isTrue();
+            assertThat(journal.pending()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void shouldMoveRecordsNotAcknowledgedToStartWhenFull() throws Exception {
+        Path file = file();
+        try (UploadJournal journal = new UploadJournal(file, 130, true)) {
+            journal.append(1L, new byte[60]);
+            journal.append(2L, bytes("second"));
+            journal.acknowledge(journal.read(1).get(0));
+            UploadJournal.Entry second = journal.read(1).get(0);
+
+            assertThat(journal.append(3L, new byte[30])).isTrue();
+            assertThat(journal.usedBytes()).isEqualTo(2 * UploadJournal.RECORD_HEADER_SIZE + "second".length() + 30);
+
+            // read before the records were moved
+            journal.acknowledge(second);
+            assertThat(journal.pending()).isEqualTo(1);
+            assertThat(journal.oldestTimestamp().getAsLong()).isEqualTo(3L);
+        }
+
+        try (UploadJournal journal = new UploadJournal(file, 130, true)) {
+            List<UploadJournal.Entry> entries = journal.read(10);
+            assertThat(entries).hasSize(1);
+            assertThat(entries.get(0).getTimestamp()).isEqualTo(3L);
+        }
+    }
+
+    @Test
+    public void shouldKeepRecordsWhenReopenedAfterTheyHaveBeenMoved() throws Exception {
+        Path file = file();
+        try (UploadJournal journal = new UploadJournal(file, 130, true)) {
+            journal.append(1L, new byte[60]);
+            journal.append(2L, bytes("second"));
+            journal.acknowledge(journal.read(1).get(0));
+            journal.append(3L, bytes("third"));
+        }
+
+        try (UploadJournal journal = new UploadJournal(file, 130, true)) {
+            assertThat(payloads(journal.read(10))).containsExactly("second", "third");
+        }
+    }
+
+    private Path file() {
+        return folder.getRoot().toPath().resolve("journal/uploads.journal");
+    }
+
+    private static byte[] bytes(String payload) {
+        return payload.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static List<String> payloads(List<UploadJournal.Entry> entries) {
+        return entries.stream().map(entry -> new String(entry.getPayload(), StandardCharsets.UTF_8)).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,59 @@
+package io.pivio.server.lucene;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import io.pivio.server.changeset.Changeset;
+import io.pivio.server.changeset.ChangesetJsonSerializer;
+import io.pivio.server.changeset.DocumentSnapshot;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class LuceneChangesetStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ObjectMapper mapper;
+    private LuceneChangesetStore changesetStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mapper = new ObjectMapper().registerModule(new SimpleModule().addSerializer(Changeset.class, new ChangesetJsonSerializer()));
+        changesetStore = new LuceneChangesetStore(mapper, temporaryFolder.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        changesetStore.close();
+    }
+
+    @Test
+    public void shouldFindOrderOfLatestChangeset() throws IOException {
+        assertThat(changesetStore.lastOrder("1")).isEqualTo(0L);
+
+        for (long order : new long[]{2, 12, 3}) {
+            changesetStore.save(new Changeset("1", order, mapper.createArrayNode(), new DateTime(order)));
+        }
+        changesetStore.save(new Changeset("2", 20, mapper.createArrayNode(), new DateTime(20)));
+
+        assertThat(changesetStore.lastOrder("1")).isEqualTo(12L);
+    }
+
+    @Test
+    public void shouldFindLatestSnapshotBeforePointInTime() throws IOException {
+        for (long order : new long[]{20, 60, 40}) {
+            changesetStore.saveSnapshot(new DocumentSnapshot("1", order, new DateTime(order), mapper.createObjectNode().put("order", order)));
+        }
+
+        assertThat(changesetStore.findLatestSnapshot("1", new DateTime(50)).map(s -> s.get("order").longValue())).contains(40L);
+        assertThat(changesetStore.findLatestSnapshot("1", new DateTime(10))).isEmpty();
+    }
+}
@@ -0,0 +1,83 @@
+package io.pivio.server.lucene;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivio.server.store.InvalidQueryException;
+import io.pivio.server.store.SortField;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class LuceneDocumentStoreTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private ObjectMapper mapper;
+    private LuceneDocumentStore documentStore;
+
+    @Before
+    public void setUp() throws IOException {
+        mapper = new ObjectMapper();
+        documentStore = new LuceneDocumentStore(mapper, temporaryFolder.getRoot().getAbsolutePath());
+        documentStore.save("1", mapper.readTree("{\"id\":\"1\",\"short_name\":\"b\",\"owner\":\"Team Lambda\"," +
+                "\"software_dependencies\":[{\"name\":\"a\",\"licenses\":[{\"key\":\"apache\"}]},{\"name\":\"b\",\"licenses\":[{\"key\":\"mit\"}]}]}"));
+        documentStore.save("2", mapper.readTree("{\"id\":\"2\",\"short_name\":\"a\",\"owner\":\"Team Kappa\"}"));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        documentStore.close();
+    }
+
+    @Test
+    public void shouldGetAndDeleteDocumentById() throws IOException {
+        assertThat(documentStore.get("1").map(d -> d.get("short_name").textValue())).contains("b");
+        assertThat(documentStore.delete("1")).isTrue();
+        assertThat(documentStore.delete("1")).isFalse();
+        assertThat(documentStore.exists("1")).isFalse();
+    }
+
+    @Test
+    public void shouldSearchAnalyzedTokens() throws IOException {
+        assertThat(ids(documentStore.search("{\"match\":{\"owner\":\"lambda\"}}", Collections.emptyList()))).containsExactly("1");
+        assertThat(ids(documentStore.search("{\"bool\":{\"must_not\":{\"term\":{\"owner\":\"lambda\"}}}}", Collections.emptyList()))).containsExactly("2");
+    }
+
+    @Test
+    public void shouldRequireNestedConditionsToMatchSameObject() throws IOException {
+        String query = "{\"nested\":{\"path\":\"software_dependencies\",\"query\":{\"bool\":{\"must\":[" +
+                "{\"match\":{\"software_dependencies.name\":\"a\"}},{\"match\":{\"software_dependencies.licenses.key\":\"%s\"}}]}}}}";
+
+        assertThat(ids(documentStore.search(String.format(query, "apache"), Collections.emptyList()))).containsExactly("1");
+        assertThat(ids(documentStore.search(String.format(query, "mit"), Collections.emptyList()))).isEmpty();
+    }
+
+    @Test
+    public void shouldSortAndRejectUnknownSortFields() throws IOException {
+        assertThat(ids(documentStore.search(null, Collections.singletonList(new SortField("short_name", true))))).containsExactly("2", "1");
+        assertThatThrownBy(() -> documentStore.search(null, Collections.singletonList(new SortField("does_not_exist", true))))
+                .isInstanceOf(InvalidQueryException.class);
+    }
+
+    @Test
+    public void shouldKeepDocumentsAfterReopening() throws IOException {
+        documentStore.close();
+        documentStore = new LuceneDocumentStore(mapper, temporaryFolder.getRoot().getAbsolutePath());
+
+        assertThat(documentStore.exists("2")).isTrue();
+    }
+
+    private List<String> ids(List<JsonNode> documents) {
+        return documents.stream().map(d -> d.get("id").textValue()).collect(Collectors.toList());
+    }
+}
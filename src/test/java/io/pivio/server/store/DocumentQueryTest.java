@@ -0,0 +1,71 @@
+package io.pivio.server.store;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.*;
+
+public class DocumentQueryTest {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void shouldMatchAnalyzedTokens() throws IOException {
+        JsonNode document = mapper.readTree("{\"owner\":\"Team Lambda\"}");
+
+        assertThat(query("{\"match\":{\"owner\":\"lambda\"}}").matches(document)).isTrue();
+        assertThat(query("{\"match\":{\"owner\":\"kappa\"}}").matches(document)).isFalse();
+    }
+
+    @Test
+    public void shouldCombineBoolClauses() throws IOException {
+        JsonNode document = mapper.readTree("{\"owner\":\"Lambda\",\"type\":\"service\"}");
+
+        assertThat(query("{\"bool\":{\"must\":[{\"term\":{\"type\":\"service\"}}],\"must_not\":{\"match\":{\"owner\":\"lambda\"}}}}").matches(document)).isFalse();
+        assertThat(query("{\"bool\":{\"should\":[{\"term\":{\"type\":\"library\"}},{\"exists\":{\"field\":\"owner\"}}]}}").matches(document)).isTrue();
+    }
+
+    @Test
+    public void shouldEvaluateNestedQueryPerNestedObject() throws IOException {
+        JsonNode document = mapper.readTree("{\"software_dependencies\":[" +
+                "{\"name\":\"a\",\"licenses\":[{\"key\":\"apache\"}]}," +
+                "{\"name\":\"b\",\"licenses\":[{\"key\":\"mit\"}]}]}");
+
+        assertThat(query("{\"nested\":{\"path\":\"software_dependencies\",\"query\":{\"bool\":{\"must\":[" +
+                "{\"match\":{\"software_dependencies.name\":\"a\"}}," +
+                "{\"nested\":{\"path\":\"software_dependencies.licenses\",\"query\":{\"match\":{\"software_dependencies.licenses.key\":\"apache\"}}}}]}}}}")
+                .matches(document)).isTrue();
+        assertThat(query("{\"nested\":{\"path\":\"software_dependencies\",\"query\":{\"bool\":{\"must\":[" +
+                "{\"match\":{\"software_dependencies.name\":\"a\"}}," +
+                "{\"match\":{\"software_dependencies.licenses.key\":\"mit\"}}]}}}}")
+                .matches(document)).isFalse();
+    }
+
+    @Test
+    public void shouldSortMissingValuesLast() throws IOException {
+        List<JsonNode> documents = Arrays.asList(
+                mapper.readTree("{\"id\":\"1\"}"),
+                mapper.readTree("{\"id\":\"2\",\"short_name\":\"b\"}"),
+                mapper.readTree("{\"id\":\"3\",\"short_name\":\"a\"}"));
+
+        List<JsonNode> sorted = DocumentQuery.sort(documents, Collections.singletonList(new SortField("short_name", false)));
+
+        assertThat(sorted.stream().map(d -> d.get("id").textValue()).collect(Collectors.toList())).containsExactly("2", "3", "1");
+    }
+
+    @Test
+    public void shouldRejectUnsupportedQueryType() {
+        assertThatThrownBy(() -> query("{\"fuzzy\":{\"owner\":\"lambda\"}}")).isInstanceOf(InvalidQueryException.class);
+    }
+
+    private DocumentQuery query(String query) throws IOException {
+        return DocumentQuery.parse(mapper.readTree(query));
+    }
+}
@@ -0,0 +1,328 @@
+package io.pivio.server.fixtures;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Generates catalogs of documents shaped like uploads of pivio-client: services with the APIs they provide and depend
+ * on, software dependencies with licenses, links and tags. Everything is derived from the seed, so the same settings
+ * always produce the same catalog, and document {@code i} can be generated without generating the ones before it.
+ * <p>
+ * Sizes are skewed like in real catalogs: most documents have few software dependencies, some have a lot of them, and
+ * a few libraries are used by most documents. {@link #skew(double)} controls both, {@code 0} gives uniform sizes and
+ * library usage. {@link #history(int, int)} generates successive uploads of a document, as changesets are made of.
+ * <p>
+ * Run {@link #main(String[])} (or {@code ./gradlew generateCatalog}) to write a catalog as NDJSON file.
+ */
+public class CatalogGenerator {
+
+    private static final String[] LICENSES = {"Apache License 2.0", "MIT License", "BSD 3-Clause", "Eclipse Public License 1.0", "GPL v3"};
+    private static final String[] TAGS = {"java", "spring", "go", "node", "payment", "checkout", "search", "frontend",
+            "backend", "legacy", "batch", "streaming", "internal", "public"};
+    private static final String[] LIFECYCLES = {"development", "staging", "production", "deprecated"};
+    private static final String[] LIBRARY_GROUPS = {"org.springframework", "com.fasterxml.jackson", "org.apache.commons",
+            "io.netty", "com.google.guava", "org.slf4j", "io.micrometer", "org.hibernate", "com.squareup", "io.reactivex"};
+
+    private final ObjectMapper mapper;
+    private final long seed;
+    private int documents = 1000;
+    private int teams = 25;
+    private int minSoftwareDependencies = 5;
+    private int maxSoftwareDependencies = 800;
+    private int maxServices = 20;
+    private int libraries = 2000;
+    private double skew = 1.1;
+    private double[] libraryPopularity;
+
+    public CatalogGenerator(ObjectMapper mapper, long seed) {
+        this.mapper = mapper;
+        this.seed = seed;
+    }
+
+    public CatalogGenerator documents(int documents) {
+        this.documents = documents;
+        return this;
+    }
+
+    public CatalogGenerator teams(int teams) {
+        this.teams = teams;
+        return this;
+    }
+
+    public CatalogGenerator softwareDependencies(int min, int max) {
+        this.minSoftwareDependencies = min;
+        this.maxSoftwareDependencies = max;
+        return this;
+    }
+
+    public CatalogGenerator maxServices(int maxServices) {
+        this.maxServices = maxServices;
+        return this;
+    }
+
+    public CatalogGenerator libraries(int libraries) {
+        this.libraries = libraries;
+        this.libraryPopularity = null;
+        return this;
+    }
+
+    public CatalogGenerator skew(double skew) {
+        this.skew = skew;
+        this.libraryPopularity = null;
+        return this;
+    }
+
+    public int getDocuments() {
+        return documents;
+    }
+
+    public Stream<ObjectNode> documents() {
+        return IntStream.range(0, documents).mapToObj(this::document);
+    }
+
+    /**
+     * @param index 0 based, any index may be used, not only the ones below {@link #documents(int)}
+     */
+    public ObjectNode document(int index) {
+        Random random = random(index, 0);
+        int softwareDependencies = skewed(random, minSoftwareDependencies, maxSoftwareDependencies);
+        int services = Math.min(maxServices, 1 + softwareDependencies / 40 + random.nextInt(3));
+        return document(index, services, softwareDependencies);
+    }
+
+    /**
+     * @return document with exactly the given number of provided services and software dependencies
+     */
+    public ObjectNode document(int index, int services, int softwareDependencies) {
+        Random random = random(index, 1);
+        String id = id(index);
+        ObjectNode document = mapper.createObjectNode()
+                .put("id", id)
+                .put("type", "service")
+                .put("name", "Service " + index)
+                .put("short_name", "S" + index)
+                .put("owner", "Team " + random.nextInt(teams))
+                .put("description", "Handles everything around " + TAGS[random.nextInt(TAGS.length)])
+                .put("vcsroot", "https://git.example.com/" + id + ".git")
+                .put("contact", "team" + random.nextInt(teams) + "@example.com")
+                .put("lifecycle", LIFECYCLES[random.nextInt(LIFECYCLES.length)])
+                .putNull("product_context");
+
+        ArrayNode tags = document.putArray("tags");
+        for (int i = 0; i < 1 + random.nextInt(4); i++) {
+            tags.add(TAGS[random.nextInt(TAGS.length)]);
+        }
+        ObjectNode links = document.putObject("links")
+                .put("homepage", "https://" + id + ".example.com")
+                .put("buildchain", "https://ci.example.com/" + id);
+        links.putNull("api_docs");
+
+        ObjectNode service = document.putObject("service");
+        ArrayNode provides = service.putArray("provides");
+        ArrayNode internal = service.putObject("depends_on").putArray("internal");
+        for (int i = 0; i < services; i++) {
+            provides.add(providedService(id, i));
+            internal.addObject()
+                    .put("service_name", id(random.nextInt(Math.max(1, documents))) + "-api-0")
+                    .put("why", "needs data")
+                    .putNull("comment");
+        }
+
+        ArrayNode dependencies = document.putArray("software_dependencies");
+        Set<Integer> used = new HashSet<>();
+        for (int attempt = 0; used.size() < Math.min(softwareDependencies, libraries) && attempt < softwareDependencies * 20; attempt++) {
+            int library = library(random);
+            if (used.add(library)) {
+                dependencies.add(softwareDependency(library, random));
+            }
+        }
+        return document;
+    }
+
+    /**
+     * @return the document as uploaded {@code changes + 1} times, first as generated and then with one change per upload
+     */
+    public List<ObjectNode> history(int index, int changes) {
+        List<ObjectNode> history = new ArrayList<>(changes + 1);
+        ObjectNode current = document(index);
+        history.add(current);
+        Random random = random(index, 2);
+        for (int i = 0; i < changes; i++) {
+            current = nextUpload(current, random);
+            history.add(current);
+        }
+        return history;
+    }
+
+    /**
+     * @return copy of the document with one change, mostly version updates of software dependencies
+     */
+    public ObjectNode nextUpload(ObjectNode document, Random random) {
+        ObjectNode next = document.deepCopy();
+        ArrayNode dependencies = next.withArray("software_dependencies");
+        int change = random.nextInt(100);
+        if (change < 50 && dependencies.size() > 0) {
+            ((ObjectNode) dependencies.get(random.nextInt(dependencies.size())))
+                    .put("version", random.nextInt(10) + "." + random.nextInt(30) + "." + random.nextInt(10));
+        }
+        else if (change < 65) {
+            dependencies.add(softwareDependency(library(random), random));
+        }
+        else if (change < 75 && dependencies.size() > 0) {
+            dependencies.remove(random.nextInt(dependencies.size()));
+        }
+        else if (change < 85) {
+            next.withArray("tags").add(TAGS[random.nextInt(TAGS.length)]);
+        }
+        else if (change < 95) {
+            next.put("lifecycle", LIFECYCLES[random.nextInt(LIFECYCLES.length)]);
+            next.put("owner", "Team " + random.nextInt(teams));
+        }
+        else {
+            ArrayNode provides = ((ObjectNode) next.get("service")).withArray("provides");
+            provides.add(providedService(next.get("id").asText(), provides.size()));
+        }
+        return next;
+    }
+
+    /**
+     * Writes one document per line. With {@code bulk}, every document is preceded by an index action, so the file can
+     * be posted to the {@code _bulk} endpoint of Elasticsearch as it is.
+     */
+    public void writeNdjson(Writer writer, boolean bulk) throws IOException {
+        for (int i = 0; i < documents; i++) {
+            ObjectNode document = document(i);
+            if (bulk) {
+                ObjectNode action = mapper.createObjectNode();
+                action.putObject("index")
+                        .put("_index", "steckbrief")
+                        .put("_type", "steckbrief")
+                        .put("_id", document.get("id").asText());
+                writer.write(mapper.writeValueAsString(action));
+                writer.write('\n');
+            }
+            writer.write(mapper.writeValueAsString(document));
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    public static String id(int index) {
+        return String.format("service-%06d", index);
+    }
+
+    private ObjectNode providedService(String id, int i) {
+        ObjectNode provided = mapper.createObjectNode()
+                .put("description", "REST API " + i)
+                .put("service_name", id + "-api-" + i)
+                .put("protocol", "https")
+                .put("port", 8080 + i)
+                .put("transport_protocol", "tcp");
+        provided.putArray("public_dns").add(id + "-" + i + ".example.com");
+        return provided;
+    }
+
+    private JsonNode softwareDependency(int library, Random random) {
+        ObjectNode dependency = mapper.createObjectNode()
+                .put("name", LIBRARY_GROUPS[library % LIBRARY_GROUPS.length] + ":library-" + library)
+                .put("version", random.nextInt(10) + "." + random.nextInt(30) + "." + random.nextInt(10));
+        dependency.putArray("licenses").addObject()
+                .put("key", "license-" + library % LICENSES.length)
+                .put("fullName", LICENSES[library % LICENSES.length])
+                .put("url", "https://licenses.example.com/" + library % LICENSES.length);
+        return dependency;
+    }
+
+    /**
+     * @return number between min and max, following a power law with exponent {@link #skew}
+     */
+    private int skewed(Random random, int min, int max) {
+        if (skew <= 0) {
+            return min + random.nextInt(max - min + 1);
+        }
+        double value = min * Math.pow(1 - random.nextDouble(), -1 / skew);
+        return (int) Math.min(max, Math.round(value));
+    }
+
+    /**
+     * @return library drawn from a Zipf distribution with exponent {@link #skew}
+     */
+    private int library(Random random) {
+        if (libraryPopularity == null) {
+            double[] cumulative = new double[libraries];
+            double sum = 0;
+            for (int rank = 0; rank < libraries; rank++) {
+                sum += 1 / Math.pow(rank + 1, skew);
+                cumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < libraries; rank++) {
+                cumulative[rank] /= sum;
+            }
+            libraryPopularity = cumulative;
+        }
+        int rank = Arrays.binarySearch(libraryPopularity, random.nextDouble());
+        return Math.min(libraries - 1, rank >= 0 ? rank : -rank - 1);
+    }
+
+    private Random random(int index, int purpose) {
+        return new Random(seed * 1_000_003L + index * 31L + purpose);
+    }
+
+    /**
+     * Writes a catalog as NDJSON file, e.g. {@code --documents=10000 --seed=42 --skew=1.1 --bulk --out=catalog.ndjson}.
+     */
+    public static void main(String[] args) throws IOException {
+        long seed = 42;
+        int documents = 1000;
+        double skew = 1.1;
+        boolean bulk = false;
+        Path out = Paths.get("build/catalog.ndjson");
+        for (String arg : args) {
+            String[] option = arg.replaceFirst("^--", "").split("=", 2);
+            switch (option[0]) {
+                case "seed":
+                    seed = Long.parseLong(option[1]);
+                    break;
+                case "documents":
+                    documents = Integer.parseInt(option[1]);
+                    break;
+                case "skew":
+                    skew = Double.parseDouble(option[1]);
+                    break;
+                case "bulk":
+                    bulk = option.length == 1 || Boolean.parseBoolean(option[1]);
+                    break;
+                case "out":
+                    out = Paths.get(option[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (out.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(out.toAbsolutePath().getParent());
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(out, StandardCharsets.UTF_8)) {
+            new CatalogGenerator(new ObjectMapper(), seed).documents(documents).skew(skew).writeNdjson(writer, bulk);
+        }
+        System.out.println("Wrote " + documents + " documents to " + out);
+    }
+}